@@ -20,6 +20,10 @@ float Duration[AcquisitionWindowsForSat] = ...;
 /** Required transition time between each pair of successive acquisitions windows */
 float TransitionTimes[AcquisitionWindowsForSat][AcquisitionWindowsForSat] = ...;
 
+/** Pairs of acquisition windows which can never be both selected, whatever their order */
+tuple WindowPair {int a1; int a2;};
+{WindowPair} ConflictingPairs = ...;
+
 /** File in which the result will be written */
 string OutputFile = ...;
 
@@ -64,6 +68,11 @@ constraints {
 		startTime[a] <= selectAcq[a]*(LatestStartTime[a] - EarliestStartTime[a]) + EarliestStartTime[a];
 	}
 	
+	// conflicting acquisition windows cannot be both selected (and can never be successive)
+	forall(p in ConflictingPairs){
+		selectAcq[p.a1] + selectAcq[p.a2] <= 1;
+	}
+
 	// a simple additional cut
 	forall(ordered a1,a2 in AcquisitionWindowsForSat : 
 		   EarliestStartTime[a1] + Duration[a1] + TransitionTimes[a1][a2] < LatestStartTime[a2]
@@ -0,0 +1,91 @@
+
+/** Number of potential acquisition windows for the satellite */
+int NacquisitionWindowsForSat = ...;
+/** Acquisition range */
+range AcquisitionWindowsForSat = 1..NacquisitionWindowsForSat;
+range AcquisitionWindowsForSatPlusZero = 0..NacquisitionWindowsForSat;
+
+/** Index of the acquisition window in the list of acquisition windows of the full problem */
+int AcquisitionWindowIdx[AcquisitionWindowsForSat] = ...;
+/** Index of the corresponding acquisition in the list of candidate acquisitions of the full problem */
+int CandidateAcquisitionIdx[AcquisitionWindowsForSat] = ...;
+
+/** Earliest start time associated with each acquisition window */
+float EarliestStartTime[AcquisitionWindowsForSat] = ...;
+/** Latest start time associated with each acquisition window */
+float LatestStartTime[AcquisitionWindowsForSat] = ...;
+/** Acquisition duration associated with each acquisition window */
+float Duration[AcquisitionWindowsForSat] = ...;
+
+/** Pairs of acquisition windows which can be successive (EarliestStartTime[a1] + Duration[a1] + tt < LatestStartTime[a2]),
+    with the required transition time between them */
+tuple Transition {int a1; int a2; float tt;};
+{Transition} Transitions = ...;
+
+/** Pairs of acquisition windows which can never be both selected, whatever their order */
+tuple WindowPair {int a1; int a2;};
+{WindowPair} ConflictingPairs = ...;
+
+/** File in which the result will be written */
+string OutputFile = ...;
+
+/** Possible successions in the plan: transitions, plus the successions from and to the dummy acquisition window numbered by 0 */
+{WindowPair} Arcs = {<t.a1,t.a2> | t in Transitions}
+	union {<0,a> | a in AcquisitionWindowsForSat}
+	union {<a,0> | a in AcquisitionWindowsForSat};
+
+/** Boolean variable indicating whether an acquisition window is selected */
+dvar int selectAcq[AcquisitionWindowsForSatPlusZero] in 0..1;
+/** next[<a1,a2>] = 1 when a1 is the selected acquisition window that precedes a2 */
+dvar int next[Arcs] in 0..1;
+/** Acquisition start time in each acquisition window */
+dvar float+ startTime[a in AcquisitionWindowsForSat] in EarliestStartTime[a]..LatestStartTime[a];
+
+execute{
+	cplex.tilim = 60; // 60 seconds
+}
+
+// maximize the number of acquisition windows selected
+maximize sum(a in AcquisitionWindowsForSat) selectAcq[a];
+
+constraints {
+
+	// default selection of the dummy acquisition window numbered by 0
+	selectAcq[0] == 1;
+	// an acquisition window is selected if and only if it has a (unique) precedessor and a (unique) successor in the plan
+	forall(a1 in AcquisitionWindowsForSatPlusZero){
+		sum(arc in Arcs : arc.a1 == a1) next[arc] == selectAcq[a1];
+		sum(arc in Arcs : arc.a2 == a1) next[arc] == selectAcq[a1];
+	}
+
+	// temporal separation constraints between successive acquisition windows (big-M formulation)
+	forall(t in Transitions){
+		startTime[t.a1] + Duration[t.a1] + t.tt <= startTime[t.a2]
+                + (1-next[<t.a1,t.a2>])*(LatestStartTime[t.a1]+Duration[t.a1]+t.tt-EarliestStartTime[t.a2]);
+	}
+
+	// arbitrary start time for non selected acquisition windows
+	forall(a in AcquisitionWindowsForSat){
+		startTime[a] <= selectAcq[a]*(LatestStartTime[a] - EarliestStartTime[a]) + EarliestStartTime[a];
+	}
+
+	// conflicting acquisition windows cannot be both selected (and can never be successive)
+	forall(p in ConflictingPairs){
+		selectAcq[p.a1] + selectAcq[p.a2] <= 1;
+	}
+
+	// a simple additional cut
+	forall(t in Transitions : t.a1 < t.a2 && <t.a2,t.a1> in Arcs){
+		next[<t.a1,t.a2>] + next[<t.a2,t.a1>] <= 1;
+	}
+
+}
+
+execute {
+	var ofile = new IloOplOutputFile(OutputFile);
+	for(var i=1; i <= NacquisitionWindowsForSat; i++) {
+		if(selectAcq[i] == 1){
+			ofile.writeln(CandidateAcquisitionIdx[i] + " " + AcquisitionWindowIdx[i] + " " + startTime[i] + " " + (startTime[i]+Duration[i]));
+		}
+	}
+}
@@ -36,4 +36,42 @@ public class Params {
 
 	// For the random process, number of times the process is run before the best result is returned
 	public final static int n_runs = 5;
+	// For the random process, seed from which the random generators of all runs are derived
+	public final static long randomSeed = 0;
+	// For the random process, number of runs executed in parallel
+	public final static int n_threads = Runtime.getRuntime().availableProcessors();
+	// For the local search, wall-clock time budget (in seconds)
+	public final static double localSearchTimeBudget = 10.;
+	// For the large neighbourhood search, wall-clock time budget (in seconds)
+	public final static double lnsTimeBudget = 10.;
+	// For the large neighbourhood search, number of time slices destroyed at each iteration
+	public final static int lnsNumberOfSlices = 8;
+	// For the large neighbourhood search, duration of each time slice (in seconds)
+	public final static double lnsSliceDuration = 600.;
+	// For the large neighbourhood search, amplitude of the random noise added to the keys used for repairing slices
+	public final static double lnsRepairNoise = 0.5;
+	// For the exact branch and bound planner, time limit for each satellite (in seconds)
+	public final static double exactSolverTimeLimit = 60.;
+	// For the MIP planner, true if the .dat files are written in the sparse format of acqPlanningSparse.mod
+	public final static boolean sparseDatFiles = true;
+	// For the upper bounds, maximum number of subgradient iterations of the Lagrangian relaxation
+	public final static int upperBoundIterations = 30;
+	// For the local search and the large neighbourhood search, score gap (to the upper bound) below which the search stops
+	public final static double scoreGapTolerance = 1e-3;
+	// For the scores of acquisition plans, weight of the fraction of candidate acquisitions planned (the higher the better)
+	public final static double scorePlannedWeight = 1.;
+	// For the scores of acquisition plans, weight of the mean priority of the planned acquisitions (the lower the better)
+	public final static double scorePriorityWeight = 1.;
+	// For the scores of acquisition plans, weight of the mean cloud probability of the planned acquisitions (the lower the better)
+	public final static double scoreCloudProbaWeight = 1.;
+	// For the cloud simulation, number of scenarios simulated
+	public final static int cloudScenarios = 100000;
+	// For the cloud simulation, size of the spatial cells in longitude and latitude (in radians)
+	public final static double cloudCellSize = Math.toRadians(2.);
+	// For the cloud simulation, correlation of the cloud outcomes of acquisitions located in the same cell (0 for independent outcomes)
+	public final static double cloudCorrelation = 0.5;
+	// For the scores of acquisition plans, weight of the quota excess of the users (0 if user quotas are ignored)
+	public final static double scoreQuotaWeight = 0.;
+	// For the fair-share planner, tolerance on the fraction of the plan given to each user beyond its quota
+	public final static double quotaTolerance = 0.01;
 }
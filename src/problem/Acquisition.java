@@ -2,7 +2,8 @@ package problem;
 
 /**
  * Class used for representing acquisition 
- * (both acquisitions already recorded onboard and candidate acquisitions) 
+ * (both acquisitions already recorded onboard and candidate acquisitions).
+ * Acquisitions are immutable: the choices made for them (acquisition window, download...) are stored in solution plans.
  * @author cpralet
  *
  */
@@ -15,14 +16,6 @@ public abstract class Acquisition {
 	/** Priority level associated with acquisition */
 	public final int priority;
 	
-	/** Download window selected for this acquisition (value null if the acquisition is not downloaded) */
-	public DownloadWindow selectedDownloadWindow;
-	/** Start time of the download (if any) */
-	public double selectedDownloadStartTime;
-	/** End time of the download (if any) */
-	public double selectedDownloadEndTime;
-	 
-	
 	/**
 	 * Create an acquisition
 	 * @param name name of the acquisition
@@ -34,24 +27,4 @@ public abstract class Acquisition {
 		this.priority = priority;
 		this.user = user;
 	}
-
-	/**
-	 * 
-	 * @return the satellite used for realizing this acquisition (if any)
-	 */
-	public abstract Satellite getSatellite();
-	
-	/**
-	 * 
-	 * @return the time at which the acquisition ends, if it is realized (in seconds from the start time of the planning horizon)
-	 */
-	public abstract double getAcquisitionTime();
-	
-	/**
-	 * 
-	 * @return the volume (in bits) associated with the acquisition
-	 */
-	public abstract long getVolume();
-	
-	
 }
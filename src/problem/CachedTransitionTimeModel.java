@@ -0,0 +1,96 @@
+package problem;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Transition time model which memorizes the transition times computed by another model in a bounded cache.
+ * Only pairs of windows whose earliest start times are close are cached, since these are the pairs which are
+ * evaluated repeatedly when acquisition windows are inserted in a plan.
+ * The cache is direct-mapped and kept per thread, so that the model can be shared by planners running in parallel.
+ * The model is installed on a problem through the factory returned by factory (see ProblemParserXML.read).
+ * @author cpralet
+ *
+ */
+public class CachedTransitionTimeModel implements TransitionTimeModel {
+
+	/** Model whose results are cached */
+	private final TransitionTimeModel model;
+	/** Maximum gap between the earliest start times of two windows for their transition time to be cached (in seconds) */
+	private final double maxTimeGap;
+	/** Number of entries of the cache (power of two) */
+	private final int capacity;
+	/** Cache of each thread using the model */
+	private final ThreadLocal<Cache> caches;
+
+	/**
+	 * Build a cached transition time model
+	 * @param model model whose results are cached
+	 * @param maxTimeGap maximum gap between the earliest start times of two windows for their transition time to be cached
+	 * @param log2Capacity logarithm in base 2 of the number of entries of the cache
+	 */
+	public CachedTransitionTimeModel(TransitionTimeModel model, double maxTimeGap, int log2Capacity){
+		this.model = model;
+		this.maxTimeGap = maxTimeGap;
+		this.capacity = 1 << log2Capacity;
+		this.caches = new ThreadLocal<Cache>(){
+			@Override
+			protected Cache initialValue(){
+				return new Cache(capacity);
+			}
+		};
+	}
+
+	/**
+	 * @param modelFactory factory of the model whose results are cached (null for the default RollAngleTransitionTimeModel)
+	 * @param maxTimeGap maximum gap between the earliest start times of two windows for their transition time to be cached
+	 * @param log2Capacity logarithm in base 2 of the number of entries of the cache
+	 * @return a factory building, for a problem, the cached version of a model
+	 */
+	public static TransitionTimeModelFactory factory(final TransitionTimeModelFactory modelFactory, final double maxTimeGap, final int log2Capacity){
+		return new TransitionTimeModelFactory(){
+			@Override
+			public TransitionTimeModel create(PlanningProblem pb) {
+				TransitionTimeModel model = modelFactory == null ? new RollAngleTransitionTimeModel(pb.acquisitionWindows) : modelFactory.create(pb);
+				return new CachedTransitionTimeModel(model, maxTimeGap, log2Capacity);
+			}
+		};
+	}
+
+	@Override
+	public double getTransitionTime(AcquisitionWindow a1, AcquisitionWindow a2) {
+		if(Math.abs(a1.earliestStart - a2.earliestStart) > maxTimeGap)
+			return model.getTransitionTime(a1, a2);
+		long key = ((long) a1.idx << 32) | (a2.idx & 0xffffffffL);
+		Cache cache = caches.get();
+		int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & (capacity - 1);
+		if(cache.keys[slot] == key)
+			return cache.values[slot];
+		double transitionTime = model.getTransitionTime(a1, a2);
+		cache.keys[slot] = key;
+		cache.values[slot] = transitionTime;
+		return transitionTime;
+	}
+
+	@Override
+	public double getMaxTransitionTime(List<AcquisitionWindow> windows) {
+		return model.getMaxTransitionTime(windows);
+	}
+
+	/**
+	 * Direct-mapped cache associating transition times with pairs of window indices
+	 */
+	private static class Cache {
+		/** Pair of window indices stored in each slot (-1 for an empty slot) */
+		final long[] keys;
+		/** Transition time stored in each slot */
+		final double[] values;
+
+		Cache(int capacity){
+			keys = new long[capacity];
+			values = new double[capacity];
+			Arrays.fill(keys, -1L);
+		}
+	}
+
+}
@@ -1,6 +1,7 @@
 package problem;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -16,15 +17,10 @@ public class CandidateAcquisition extends Acquisition {
 	public final double longitude;
 	/** Latitude of the acquisition (in radians) */
 	public final double latitude;
-	/** All acquisition windows associated with this candidate acquisition */
-	public List<AcquisitionWindow> acquisitionWindows;
-	
-	/** Acquisition window selected for realizing the candidate acquisition (value null if no window is selected, that is if the acquisition is not planned) */
-	public AcquisitionWindow selectedAcquisitionWindow;
-	/** Start time of the acquisition if the acquisition is selected for being realized */
-	public double selectedAcquisitionStartTime;
-	/** End time of the acquisition */
-	public double selectedAcquisitionEndTime;
+	/** All acquisition windows associated with this candidate acquisition (read-only view) */
+	public final List<AcquisitionWindow> acquisitionWindows;
+	/** Modifiable list of the acquisition windows associated with this candidate acquisition */
+	private final List<AcquisitionWindow> windows;
 	
 	
 	/**
@@ -42,7 +38,8 @@ public class CandidateAcquisition extends Acquisition {
 		this.longitude = longitude;
 		this.latitude = latitude;
 		this.idx = idx; 
-		acquisitionWindows = new ArrayList<AcquisitionWindow>();
+		windows = new ArrayList<AcquisitionWindow>();
+		acquisitionWindows = Collections.unmodifiableList(windows);
 	}
 
 	/**
@@ -58,9 +55,9 @@ public class CandidateAcquisition extends Acquisition {
 	 * @param volume
 	 * @return the acquisition window created
 	 */
-	public AcquisitionWindow addAcqOpportunity(int id, Satellite satellite, double earliestStart, double latestStart, double duration, double zenithAngle, double rollAngle, double cloudProba, long volume){
+	AcquisitionWindow addAcqOpportunity(int id, Satellite satellite, double earliestStart, double latestStart, double duration, double zenithAngle, double rollAngle, double cloudProba, long volume){
 		AcquisitionWindow w = new AcquisitionWindow(id, this, satellite, earliestStart, latestStart, duration, zenithAngle, rollAngle, cloudProba, volume);
-		acquisitionWindows.add(w);
+		windows.add(w);
 		return w;
 	}
 
@@ -73,21 +70,6 @@ public class CandidateAcquisition extends Acquisition {
 		return acquisitionWindows.get(idx);
 	}
 	
-	@Override
-	public Satellite getSatellite() {
-		return selectedAcquisitionWindow.satellite;
-	}
-
-	@Override
-	public double getAcquisitionTime() {
-		return selectedAcquisitionEndTime;
-	}
-
-	@Override
-	public long getVolume() {
-		return selectedAcquisitionWindow.volume;
-	}
-	
 	@Override
 	public String toString(){
 		return name + ": " + acquisitionWindows;
@@ -0,0 +1,209 @@
+package problem;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Class used for representing a read-only index of the download windows of a planning problem, by station and by
+ * satellite, answering visibility queries ("which download windows of a station contain time t") in O(log n + k),
+ * n being the number of windows of the station and k the number of windows returned.
+ * For each station and each satellite, the start and end times of its windows split the time line into elementary
+ * slots (each boundary time being a slot, as well as each open interval between two consecutive boundaries), and the
+ * windows covering each slot are stored contiguously. A query is then a binary search on the boundaries followed by
+ * the copy of the windows of one slot. There are at most 4n slots and each of them holds at most d windows, d being the
+ * maximum number of windows of the station (or of the satellite) overlapping at a given time, so the index has a size
+ * in O(n d). As stations see few satellites at a time (and satellites few stations), d is small.
+ * Windows are closed intervals [start,end], and the windows of a slot are sorted by increasing index.
+ * @author cpralet
+ *
+ */
+public class DownloadWindowIndex {
+
+	/** Windows of each station (indexed by station idx) */
+	private final Timeline[] stationTimelines;
+	/** Windows of each satellite (indexed by satellite idx) */
+	private final Timeline[] satelliteTimelines;
+
+	/**
+	 * Build the index of a list of download windows
+	 * @param satellites
+	 * @param stations
+	 * @param downloadWindows
+	 */
+	DownloadWindowIndex(List<Satellite> satellites, List<Station> stations, List<DownloadWindow> downloadWindows){
+		List<List<DownloadWindow>> stationWindows = new ArrayList<List<DownloadWindow>>();
+		for(int s=0;s<stations.size();s++)
+			stationWindows.add(new ArrayList<DownloadWindow>());
+		List<List<DownloadWindow>> satelliteWindows = new ArrayList<List<DownloadWindow>>();
+		for(int s=0;s<satellites.size();s++)
+			satelliteWindows.add(new ArrayList<DownloadWindow>());
+		for(DownloadWindow w : downloadWindows){
+			stationWindows.get(w.station.idx).add(w);
+			satelliteWindows.get(w.satellite.idx).add(w);
+		}
+		stationTimelines = new Timeline[stations.size()];
+		for(int s=0;s<stationTimelines.length;s++)
+			stationTimelines[s] = new Timeline(stationWindows.get(s));
+		satelliteTimelines = new Timeline[satellites.size()];
+		for(int s=0;s<satelliteTimelines.length;s++)
+			satelliteTimelines[s] = new Timeline(satelliteWindows.get(s));
+	}
+
+	/**
+	 * Add to a list the download windows of a station which contain a given time (by increasing index)
+	 * @param station
+	 * @param t
+	 * @param result
+	 */
+	public void getWindows(Station station, double t, List<DownloadWindow> result){
+		stationTimelines[station.idx].getWindows(t, result);
+	}
+
+	/**
+	 * Add to a list the download windows of a satellite which contain a given time (by increasing index)
+	 * @param satellite
+	 * @param t
+	 * @param result
+	 */
+	public void getWindows(Satellite satellite, double t, List<DownloadWindow> result){
+		satelliteTimelines[satellite.idx].getWindows(t, result);
+	}
+
+	/**
+	 * @param station
+	 * @return the download windows of a station, by increasing start time (then by increasing index)
+	 */
+	public List<DownloadWindow> getWindows(Station station){
+		return stationTimelines[station.idx].windowsByStart;
+	}
+
+	/**
+	 * @param satellite
+	 * @return the download windows of a satellite, by increasing start time (then by increasing index)
+	 */
+	public List<DownloadWindow> getWindows(Satellite satellite){
+		return satelliteTimelines[satellite.idx].windowsByStart;
+	}
+
+	/**
+	 * @param station
+	 * @param t
+	 * @return the first download window of a station starting strictly after a given time (null if there is none)
+	 */
+	public DownloadWindow getNextWindow(Station station, double t){
+		return stationTimelines[station.idx].getNextWindow(t);
+	}
+
+	/**
+	 * @param satellite
+	 * @param t
+	 * @return the first download window of a satellite starting strictly after a given time (null if there is none)
+	 */
+	public DownloadWindow getNextWindow(Satellite satellite, double t){
+		return satelliteTimelines[satellite.idx].getNextWindow(t);
+	}
+
+	/**
+	 * Class used for representing the download windows of one station or one satellite
+	 */
+	private static class Timeline {
+		/** Windows, by increasing start time */
+		final List<DownloadWindow> windowsByStart;
+		/** Start time of the windows, by increasing value */
+		final double[] starts;
+		/** Distinct start and end times of the windows, by increasing value */
+		final double[] boundaries;
+		/** Windows covering slot i are slotWindows[slotStarts[i]..slotStarts[i+1]-1], slot 2j being boundary j and slot 2j+1 the interval between boundaries j and j+1 */
+		final int[] slotStarts;
+		final DownloadWindow[] slotWindows;
+
+		Timeline(List<DownloadWindow> windows){
+			DownloadWindow[] sorted = windows.toArray(new DownloadWindow[windows.size()]);
+			Arrays.sort(sorted, new Comparator<DownloadWindow>(){
+				@Override
+				public int compare(DownloadWindow w0, DownloadWindow w1) {
+					int cmp = Double.compare(w0.start, w1.start);
+					return cmp != 0 ? cmp : w0.idx - w1.idx;
+				}
+			});
+			windowsByStart = Collections.unmodifiableList(Arrays.asList(sorted));
+			starts = new double[sorted.length];
+			for(int i=0;i<sorted.length;i++)
+				starts[i] = sorted[i].start;
+
+			double[] times = new double[2*sorted.length];
+			for(int i=0;i<sorted.length;i++){
+				times[2*i] = sorted[i].start;
+				times[2*i+1] = sorted[i].end;
+			}
+			Arrays.sort(times);
+			int nBoundaries = 0;
+			for(int i=0;i<times.length;i++){
+				if(nBoundaries == 0 || times[i] != times[nBoundaries-1])
+					times[nBoundaries++] = times[i];
+			}
+			boundaries = Arrays.copyOf(times, nBoundaries);
+
+			// count then fill the windows of each slot (windows taken by increasing index)
+			int nSlots = Math.max(0, 2*nBoundaries - 1);
+			slotStarts = new int[nSlots+1];
+			for(DownloadWindow w : windows){
+				if(w.end < w.start)
+					continue;
+				for(int slot=2*Arrays.binarySearch(boundaries, w.start);slot<=2*Arrays.binarySearch(boundaries, w.end);slot++)
+					slotStarts[slot+1]++;
+			}
+			for(int slot=0;slot<nSlots;slot++)
+				slotStarts[slot+1] += slotStarts[slot];
+			slotWindows = new DownloadWindow[slotStarts[nSlots]];
+			int[] fill = Arrays.copyOf(slotStarts, nSlots);
+			for(DownloadWindow w : windows){
+				if(w.end < w.start)
+					continue;
+				for(int slot=2*Arrays.binarySearch(boundaries, w.start);slot<=2*Arrays.binarySearch(boundaries, w.end);slot++)
+					slotWindows[fill[slot]++] = w;
+			}
+		}
+
+		/**
+		 * Add to a list the windows which contain a given time
+		 * @param t
+		 * @param result
+		 */
+		void getWindows(double t, List<DownloadWindow> result){
+			int pos = Arrays.binarySearch(boundaries, t);
+			int slot;
+			if(pos >= 0)
+				slot = 2*pos;
+			else {
+				int next = -pos - 1; // first boundary greater than t
+				if(next == 0 || next == boundaries.length)
+					return;
+				slot = 2*next - 1;
+			}
+			for(int i=slotStarts[slot];i<slotStarts[slot+1];i++)
+				result.add(slotWindows[i]);
+		}
+
+		/**
+		 * @param t
+		 * @return the first window starting strictly after a given time (null if there is none)
+		 */
+		DownloadWindow getNextWindow(double t){
+			int lo = 0;
+			int hi = starts.length;
+			while(lo < hi){
+				int mid = (lo + hi) >>> 1;
+				if(starts[mid] <= t)
+					lo = mid + 1;
+				else
+					hi = mid;
+			}
+			return lo < starts.length ? windowsByStart.get(lo) : null;
+		}
+	}
+
+}
@@ -2,12 +2,13 @@ package problem;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
-import params.Params;
-
 /**
- * Class used for representing data of the planning problem to solve
+ * Class used for representing data of the planning problem to solve.
+ * Once built (see ProblemParserXML.read), the problem is frozen: its lists cannot be modified anymore, so that 
+ * it can be shared by several planners, possibly running in parallel. Planning decisions are stored in solution plans. 
  * @author cpralet
  *
  */
@@ -15,40 +16,97 @@ public class PlanningProblem {
 
 	// SYSTEM DATA
 	
-	/** All satellites involved in the problem */
-	public List<Satellite> satellites;
-	/** All stations involved in the problem */
-	public List<Station> stations;
-	/** All users of the system */
-	public List<User> users;
+	/** All satellites involved in the problem (read-only view) */
+	public final List<Satellite> satellites;
+	/** All stations involved in the problem (read-only view) */
+	public final List<Station> stations;
+	/** All users of the system (read-only view) */
+	public final List<User> users;
 	
 	// PLANNING DATA
 	
 	/** Start time of the planning horizon */
-	public double horizonStart;
+	private double horizonStart;
 	/** End time of the planning horizon */
-	public double horizonEnd;
-	/** All candidate acquisitions of the problem */
+	private double horizonEnd;
+	/** All candidate acquisitions of the problem (read-only view) */
 	public final List<CandidateAcquisition> candidateAcquisitions;
-	/** All acquisition windows of the problem */
+	/** All acquisition windows of the problem (read-only view) */
 	public final List<AcquisitionWindow> acquisitionWindows;
-	/** All acquisitions already recorded and waiting for being downloaded */
+	/** All acquisitions already recorded and waiting for being downloaded (read-only view) */
 	public final List<RecordedAcquisition> recordedAcquisitions;
-	/** All download windows of the problem */
+	/** All download windows of the problem (read-only view) */
 	public final List<DownloadWindow> downloadWindows;
+
+	// MODIFIABLE LISTS (only modified while the problem is built)
+	
+	private final List<Satellite> satelliteList;
+	private final List<Station> stationList;
+	private final List<User> userList;
+	private final List<CandidateAcquisition> candidateAcquisitionList;
+	private final List<AcquisitionWindow> acquisitionWindowList;
+	private final List<RecordedAcquisition> recordedAcquisitionList;
+	private final List<DownloadWindow> downloadWindowList;
+	
+	/** True once the problem is completely built and cannot be modified anymore */
+	private boolean frozen;
+	
+	/** Factory of the transition time model (null for the default RollAngleTransitionTimeModel) */
+	private TransitionTimeModelFactory transitionTimeModelFactory;
+	/** Model used for estimating transition times between acquisitions (built from the acquisition windows when first needed) */
+	private TransitionTimeModel transitionTimeModel;
+	/** Ordering of the acquisition windows by priority and cloud probability (built when first needed) */
+	private SortedWindowIndex sortedWindowIndex;
+	/** Index of the download windows by station and by satellite (built when first needed) */
+	private DownloadWindowIndex downloadWindowIndex;
 	
 	
 	/**
 	 * Creation of a planning problem
 	 */
 	public PlanningProblem(){
-		satellites = new ArrayList<Satellite>();
-		stations = new ArrayList<Station>();
-		users = new ArrayList<User>();
-		candidateAcquisitions = new ArrayList<CandidateAcquisition>();
-		acquisitionWindows = new ArrayList<AcquisitionWindow>();
-		recordedAcquisitions = new ArrayList<RecordedAcquisition>();	
-		downloadWindows = new ArrayList<DownloadWindow>();
+		satelliteList = new ArrayList<Satellite>();
+		stationList = new ArrayList<Station>();
+		userList = new ArrayList<User>();
+		candidateAcquisitionList = new ArrayList<CandidateAcquisition>();
+		acquisitionWindowList = new ArrayList<AcquisitionWindow>();
+		recordedAcquisitionList = new ArrayList<RecordedAcquisition>();	
+		downloadWindowList = new ArrayList<DownloadWindow>();
+		satellites = Collections.unmodifiableList(satelliteList);
+		stations = Collections.unmodifiableList(stationList);
+		users = Collections.unmodifiableList(userList);
+		candidateAcquisitions = Collections.unmodifiableList(candidateAcquisitionList);
+		acquisitionWindows = Collections.unmodifiableList(acquisitionWindowList);
+		recordedAcquisitions = Collections.unmodifiableList(recordedAcquisitionList);
+		downloadWindows = Collections.unmodifiableList(downloadWindowList);
+		frozen = false;
+	}
+
+	/**
+	 * Freeze the problem: after this call, no data can be added to the problem anymore
+	 * and the problem can be safely shared between threads
+	 */
+	public void freeze(){
+		getTransitionTimeModel(); // build the default model and the window index before sharing the problem
+		getSortedWindowIndex();
+		getDownloadWindowIndex();
+		frozen = true;
+	}
+
+	/**
+	 * 
+	 * @return true if the problem is frozen
+	 */
+	public boolean isFrozen(){
+		return frozen;
+	}
+
+	/**
+	 * Check that the problem can still be modified
+	 */
+	private void checkNotFrozen(){
+		if(frozen)
+			throw new IllegalStateException("The planning problem is frozen and cannot be modified");
 	}
 
 	/**
@@ -57,10 +115,25 @@ public class PlanningProblem {
 	 * @param horizonEnd
 	 */
 	public void setHorizon(double horizonStart, double horizonEnd){
+		checkNotFrozen();
 		this.horizonStart = horizonStart; 
 		this.horizonEnd = horizonEnd;
 	}
 
+	/**
+	 * @return the start time of the planning horizon
+	 */
+	public double getHorizonStart(){
+		return horizonStart;
+	}
+
+	/**
+	 * @return the end time of the planning horizon
+	 */
+	public double getHorizonEnd(){
+		return horizonEnd;
+	}
+
 	/**
 	 * Add a user to the problem
 	 * @param name
@@ -68,8 +141,9 @@ public class PlanningProblem {
 	 * @return the user created
 	 */
 	public User addUser(String name, double quota){
-		User user = new User(users.size(),name,quota);
-		users.add(user);
+		checkNotFrozen();
+		User user = new User(userList.size(),name,quota);
+		userList.add(user);
 		return user;
 	}
 
@@ -79,8 +153,10 @@ public class PlanningProblem {
 	 * @return the satellite created
 	 */
 	public Satellite addSatellite(String name){
-		Satellite satellite = new Satellite(name);
-		satellites.add(satellite);
+		checkNotFrozen();
+		Satellite satellite = new Satellite(satelliteList.size(), name);
+		satelliteList.add(satellite);
+		downloadWindowIndex = null;
 		return satellite;
 	}
 
@@ -90,8 +166,10 @@ public class PlanningProblem {
 	 * @return the station created
 	 */
 	public Station addStation(String name){
-		Station station = new Station(name);
-		stations.add(station);
+		checkNotFrozen();
+		Station station = new Station(stationList.size(), name);
+		stationList.add(station);
+		downloadWindowIndex = null;
 		return station;
 	}
 
@@ -105,14 +183,18 @@ public class PlanningProblem {
 	 * @return the acquisition created
 	 */
 	public CandidateAcquisition addCandidateAcquisition(String name, User user, int priority, double longitude, double latitude){
-		CandidateAcquisition r = new CandidateAcquisition(name,user,priority,longitude,latitude,candidateAcquisitions.size());
-		candidateAcquisitions.add(r);
+		checkNotFrozen();
+		CandidateAcquisition r = new CandidateAcquisition(name,user,priority,longitude,latitude,candidateAcquisitionList.size());
+		candidateAcquisitionList.add(r);
 		return r;
 	}
 
 	public AcquisitionWindow addAcquisitionWindow(CandidateAcquisition acq, Satellite satellite, double earliestStart, double latestStart, double duration, double zenithAngle, double rollAngle, double cloudProba, long volume){
-		AcquisitionWindow w = acq.addAcqOpportunity(acquisitionWindows.size(), satellite, earliestStart, latestStart, duration, zenithAngle, rollAngle, cloudProba, volume);
-		acquisitionWindows.add(w);
+		checkNotFrozen();
+		AcquisitionWindow w = acq.addAcqOpportunity(acquisitionWindowList.size(), satellite, earliestStart, latestStart, duration, zenithAngle, rollAngle, cloudProba, volume);
+		acquisitionWindowList.add(w);
+		transitionTimeModel = null;
+		sortedWindowIndex = null;
 		return w;
 	}
 	
@@ -124,7 +206,8 @@ public class PlanningProblem {
 	 * @param volume
 	 */
 	public void addRecordedAcquisition(int id, String name, User user, int priority, Satellite satellite, double acquisitionTime, long volume){
-		recordedAcquisitions.add(new RecordedAcquisition(name,user,priority,recordedAcquisitions.size(),satellite,acquisitionTime,volume));
+		checkNotFrozen();
+		recordedAcquisitionList.add(new RecordedAcquisition(name,user,priority,recordedAcquisitionList.size(),satellite,acquisitionTime,volume));
 	}
 
 	/**
@@ -136,7 +219,9 @@ public class PlanningProblem {
 	 * @param end end time of the download window added
 	 */
 	public void addDownloadWindow(Satellite satellite, Station station, double start, double end){
-		downloadWindows.add(new DownloadWindow(satellite,station,start,end,downloadWindows.size()));		
+		checkNotFrozen();
+		downloadWindowList.add(new DownloadWindow(satellite,station,start,end,downloadWindowList.size()));		
+		downloadWindowIndex = null;
 	}
 
 	/**
@@ -180,7 +265,68 @@ public class PlanningProblem {
 	 * @return an estimation of the minimum transition time between two acquisitions realized in given windows 
 	 */
 	public double getTransitionTime(AcquisitionWindow a1, AcquisitionWindow a2){
-		return Math.abs(a1.rollAngle - a2.rollAngle) / Params.meanRotationSpeed;		
+		return getTransitionTimeModel().getTransitionTime(a1, a2);
+	}
+
+	/**
+	 * 
+	 * @return the model used for estimating transition times (by default, roll angle changes at the mean rotation speed)
+	 */
+	public TransitionTimeModel getTransitionTimeModel(){
+		TransitionTimeModel model = transitionTimeModel;
+		if(model == null){
+			if(transitionTimeModelFactory == null)
+				model = new RollAngleTransitionTimeModel(acquisitionWindows);
+			else
+				model = transitionTimeModelFactory.create(this);
+			transitionTimeModel = model;
+		}
+		return model;
+	}
+
+	/**
+	 * Set the factory of the model used for estimating transition times between acquisitions (the model being built
+	 * from the acquisition windows when the problem is frozen)
+	 * @param transitionTimeModelFactory factory of the model (null for the default model)
+	 */
+	public void setTransitionTimeModelFactory(TransitionTimeModelFactory transitionTimeModelFactory){
+		checkNotFrozen();
+		this.transitionTimeModelFactory = transitionTimeModelFactory;
+		transitionTimeModel = null;
+	}
+
+	/**
+	 * 
+	 * @return the factory of the transition time model (null for the default model)
+	 */
+	public TransitionTimeModelFactory getTransitionTimeModelFactory(){
+		return transitionTimeModelFactory;
+	}
+
+	/**
+	 * 
+	 * @return the ordering of the acquisition windows by increasing priority and cloud probability
+	 */
+	public SortedWindowIndex getSortedWindowIndex(){
+		SortedWindowIndex index = sortedWindowIndex;
+		if(index == null){
+			index = new SortedWindowIndex(acquisitionWindows);
+			sortedWindowIndex = index;
+		}
+		return index;
+	}
+
+	/**
+	 * 
+	 * @return the index of the download windows by station and by satellite, used for visibility queries
+	 */
+	public DownloadWindowIndex getDownloadWindowIndex(){
+		DownloadWindowIndex index = downloadWindowIndex;
+		if(index == null){
+			index = new DownloadWindowIndex(satellites, stations, downloadWindows);
+			downloadWindowIndex = index;
+		}
+		return index;
 	}
 
 	@Override
@@ -34,10 +34,26 @@ public class ProblemParserXML {
 	}
 	
 	public PlanningProblem read(String filenameSystemData, String filenamePlanningData) throws FileNotFoundException, XMLStreamException, FactoryConfigurationError{
+		return read(filenameSystemData, filenamePlanningData, null);
+	}
+
+	/**
+	 * Read a planning problem whose transition times are given by a specific model
+	 * @param filenameSystemData
+	 * @param filenamePlanningData
+	 * @param transitionTimeModelFactory factory of the transition time model (null for the default model)
+	 * @return the problem read (frozen)
+	 * @throws FileNotFoundException
+	 * @throws XMLStreamException
+	 * @throws FactoryConfigurationError
+	 */
+	public PlanningProblem read(String filenameSystemData, String filenamePlanningData, TransitionTimeModelFactory transitionTimeModelFactory) throws FileNotFoundException, XMLStreamException, FactoryConfigurationError{
 		PlanningProblem pb = new PlanningProblem();
+		pb.setTransitionTimeModelFactory(transitionTimeModelFactory);
 
 		readSystemData(pb, filenameSystemData);
 		readPlanningData(pb, filenamePlanningData);
+		pb.freeze();
 		return pb;
 	}
 	
@@ -0,0 +1,264 @@
+package problem;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class used for representing changes arriving during the day on a planning problem: new candidate acquisitions (with
+ * their acquisition windows), withdrawn candidate acquisitions, updated cloud probabilities and a shortened horizon.
+ * As planning problems are frozen, the changes are applied by building a new problem (see apply), together with the
+ * correspondence between the indices of both problems, so that plans of the initial problem can be transferred.
+ * In the new problem, the remaining candidate acquisitions and acquisition windows keep their relative order, new
+ * candidate acquisitions come last, and the default transition time model is used.
+ * When the horizon is shortened, windows which cannot end before the new horizon end are removed and the latest
+ * start time of the other windows is reduced if needed.
+ * @author cpralet
+ *
+ */
+public class ProblemUpdate {
+
+	/** Candidate acquisitions added (the users and satellites referred to are the ones of the initial problem) */
+	private final List<NewCandidate> newCandidates;
+	/** Indices of the candidate acquisitions withdrawn */
+	private final BitSet removedCandidates;
+	/** New cloud probability of acquisition windows, by index of the window in the initial problem */
+	private final Map<Integer,Double> cloudProbas;
+	/** New end of the planning horizon (NaN if unchanged) */
+	private double horizonEnd;
+
+	/**
+	 * Create an empty update
+	 */
+	public ProblemUpdate(){
+		newCandidates = new ArrayList<NewCandidate>();
+		removedCandidates = new BitSet();
+		cloudProbas = new HashMap<Integer,Double>();
+		horizonEnd = Double.NaN;
+	}
+
+	/**
+	 * Add a candidate acquisition
+	 * @param name
+	 * @param user user of the initial problem
+	 * @param priority
+	 * @param longitude
+	 * @param latitude
+	 * @return the number of the new candidate acquisition in this update (0 for the first one, 1 for the second one...)
+	 */
+	public int addCandidateAcquisition(String name, User user, int priority, double longitude, double latitude){
+		newCandidates.add(new NewCandidate(name, user, priority, longitude, latitude));
+		return newCandidates.size() - 1;
+	}
+
+	/**
+	 * Add an acquisition window to a new candidate acquisition
+	 * @param newCandidate number of the new candidate acquisition in this update
+	 * @param satellite satellite of the initial problem
+	 * @param earliestStart
+	 * @param latestStart
+	 * @param duration
+	 * @param zenithAngle
+	 * @param rollAngle
+	 * @param cloudProba
+	 * @param volume
+	 */
+	public void addAcquisitionWindow(int newCandidate, Satellite satellite, double earliestStart, double latestStart, double duration,
+			double zenithAngle, double rollAngle, double cloudProba, long volume){
+		newCandidates.get(newCandidate).windows.add(new NewWindow(satellite, earliestStart, latestStart, duration, zenithAngle, rollAngle, cloudProba, volume));
+	}
+
+	/**
+	 * Withdraw a candidate acquisition
+	 * @param a candidate acquisition of the initial problem
+	 */
+	public void removeCandidateAcquisition(CandidateAcquisition a){
+		removedCandidates.set(a.idx);
+	}
+
+	/**
+	 * Update the cloud probability of an acquisition window
+	 * @param w acquisition window of the initial problem
+	 * @param cloudProba
+	 */
+	public void setCloudProba(AcquisitionWindow w, double cloudProba){
+		cloudProbas.put(w.idx, cloudProba);
+	}
+
+	/**
+	 * Shorten the planning horizon
+	 * @param horizonEnd new end of the horizon
+	 */
+	public void setHorizonEnd(double horizonEnd){
+		this.horizonEnd = horizonEnd;
+	}
+
+	/**
+	 * Build the problem obtained by applying the changes to a problem (its transition time model being rebuilt with
+	 * the factory of the initial problem)
+	 * @param pb initial problem (not modified)
+	 * @return the new (frozen) problem and the correspondence between both problems
+	 */
+	public UpdatedProblem apply(PlanningProblem pb){
+		double end = Double.isNaN(horizonEnd) ? pb.getHorizonEnd() : horizonEnd;
+		if(end > pb.getHorizonEnd())
+			throw new IllegalArgumentException("The horizon can only be shortened: " + end + " > " + pb.getHorizonEnd());
+
+		PlanningProblem newPb = new PlanningProblem();
+		newPb.setHorizon(pb.getHorizonStart(), end);
+		newPb.setTransitionTimeModelFactory(pb.getTransitionTimeModelFactory());
+		for(User user : pb.users)
+			newPb.addUser(user.name, user.quota);
+		for(Satellite satellite : pb.satellites)
+			newPb.addSatellite(satellite.name);
+		Map<Station,Station> stations = new HashMap<Station,Station>();
+		for(Station station : pb.stations)
+			stations.put(station, newPb.addStation(station.name));
+
+		// candidate acquisitions: remaining ones in their order, then new ones
+		int[] candidateIndices = new int[pb.candidateAcquisitions.size()];
+		Arrays.fill(candidateIndices, -1);
+		for(CandidateAcquisition a : pb.candidateAcquisitions){
+			if(removedCandidates.get(a.idx))
+				continue;
+			candidateIndices[a.idx] = newPb.addCandidateAcquisition(a.name, newPb.users.get(a.user.idx), a.priority, a.longitude, a.latitude).idx;
+		}
+		int firstNewCandidate = newPb.candidateAcquisitions.size();
+		for(NewCandidate c : newCandidates)
+			newPb.addCandidateAcquisition(c.name, newPb.users.get(c.user.idx), c.priority, c.longitude, c.latitude);
+
+		// acquisition windows: remaining ones in their order, then the ones of the new candidate acquisitions
+		int[] windowIndices = new int[pb.acquisitionWindows.size()];
+		Arrays.fill(windowIndices, -1);
+		BitSet clippedWindows = new BitSet();
+		for(AcquisitionWindow w : pb.acquisitionWindows){
+			int a = candidateIndices[w.candidateAcquisition.idx];
+			if(a < 0 || w.earliestStart + w.duration > end)
+				continue;
+			double latestStart = Math.min(w.latestStart, end - w.duration);
+			Double cloudProba = cloudProbas.get(w.idx);
+			AcquisitionWindow newWindow = newPb.addAcquisitionWindow(newPb.getCandidateAcquisition(a), newPb.satellites.get(w.satellite.idx),
+					w.earliestStart, latestStart, w.duration, w.zenithAngle, w.rollAngle, cloudProba == null ? w.cloudProba : cloudProba, w.volume);
+			windowIndices[w.idx] = newWindow.idx;
+			if(latestStart < w.latestStart)
+				clippedWindows.set(newWindow.idx);
+		}
+		for(int k=0;k<newCandidates.size();k++){
+			CandidateAcquisition a = newPb.getCandidateAcquisition(firstNewCandidate + k);
+			for(NewWindow w : newCandidates.get(k).windows){
+				if(w.earliestStart + w.duration > end)
+					continue;
+				newPb.addAcquisitionWindow(a, newPb.satellites.get(w.satellite.idx), w.earliestStart, Math.min(w.latestStart, end - w.duration), w.duration,
+						w.zenithAngle, w.rollAngle, w.cloudProba, w.volume);
+			}
+		}
+
+		for(RecordedAcquisition r : pb.recordedAcquisitions)
+			newPb.addRecordedAcquisition(r.idx, r.name, newPb.users.get(r.user.idx), r.priority, newPb.satellites.get(r.satellite.idx), r.acquisitionTime, r.volume);
+		for(DownloadWindow d : pb.downloadWindows){
+			if(d.start < end)
+				newPb.addDownloadWindow(newPb.satellites.get(d.satellite.idx), stations.get(d.station), d.start, Math.min(d.end, end));
+		}
+		newPb.freeze();
+		return new UpdatedProblem(newPb, candidateIndices, windowIndices, clippedWindows, firstNewCandidate);
+	}
+
+	/**
+	 * Class used for representing a candidate acquisition added by an update
+	 */
+	private static class NewCandidate {
+		final String name;
+		final User user;
+		final int priority;
+		final double longitude;
+		final double latitude;
+		final List<NewWindow> windows;
+
+		NewCandidate(String name, User user, int priority, double longitude, double latitude){
+			this.name = name;
+			this.user = user;
+			this.priority = priority;
+			this.longitude = longitude;
+			this.latitude = latitude;
+			this.windows = new ArrayList<NewWindow>();
+		}
+	}
+
+	/**
+	 * Class used for representing an acquisition window of a candidate acquisition added by an update
+	 */
+	private static class NewWindow {
+		final Satellite satellite;
+		final double earliestStart;
+		final double latestStart;
+		final double duration;
+		final double zenithAngle;
+		final double rollAngle;
+		final double cloudProba;
+		final long volume;
+
+		NewWindow(Satellite satellite, double earliestStart, double latestStart, double duration, double zenithAngle, double rollAngle, double cloudProba, long volume){
+			this.satellite = satellite;
+			this.earliestStart = earliestStart;
+			this.latestStart = latestStart;
+			this.duration = duration;
+			this.zenithAngle = zenithAngle;
+			this.rollAngle = rollAngle;
+			this.cloudProba = cloudProba;
+			this.volume = volume;
+		}
+	}
+
+	/**
+	 * Class used for representing the result of an update: the new problem and the correspondence between the indices
+	 * of the initial problem and the ones of the new problem
+	 */
+	public static class UpdatedProblem {
+		/** New problem */
+		public final PlanningProblem problem;
+		/** Index in the new problem of each candidate acquisition of the initial problem (-1 if withdrawn) */
+		private final int[] candidateIndices;
+		/** Index in the new problem of each acquisition window of the initial problem (-1 if removed) */
+		private final int[] windowIndices;
+		/** Indices (in the new problem) of the windows whose latest start time has been reduced by the new horizon */
+		private final BitSet clippedWindows;
+		/** Index of the first new candidate acquisition in the new problem */
+		public final int firstNewCandidate;
+
+		UpdatedProblem(PlanningProblem problem, int[] candidateIndices, int[] windowIndices, BitSet clippedWindows, int firstNewCandidate){
+			this.problem = problem;
+			this.candidateIndices = candidateIndices;
+			this.windowIndices = windowIndices;
+			this.clippedWindows = clippedWindows;
+			this.firstNewCandidate = firstNewCandidate;
+		}
+
+		/**
+		 * @param idx index of a candidate acquisition in the initial problem
+		 * @return its index in the new problem (-1 if it has been withdrawn)
+		 */
+		public int getCandidateIndex(int idx){
+			return candidateIndices[idx];
+		}
+
+		/**
+		 * @param idx index of an acquisition window in the initial problem
+		 * @return its index in the new problem (-1 if it has been removed)
+		 */
+		public int getWindowIndex(int idx){
+			return windowIndices[idx];
+		}
+
+		/**
+		 * @param idx index of an acquisition window in the new problem
+		 * @return true if the latest start time of the window has been reduced by the new horizon
+		 */
+		public boolean isClipped(int idx){
+			return clippedWindows.get(idx);
+		}
+	}
+
+}
@@ -31,17 +31,26 @@ public class RecordedAcquisition extends Acquisition {
 		this.volume = volume;
 	}
 
-	@Override
+	/**
+	 * 
+	 * @return the satellite on which the acquisition is recorded
+	 */
 	public Satellite getSatellite() {
 		return satellite;
 	}
 
-	@Override
+	/**
+	 * 
+	 * @return the time at which the acquisition has been realized (in seconds from the start time of the planning horizon)
+	 */
 	public double getAcquisitionTime() {
 		return acquisitionTime;
 	}
 
-	@Override
+	/**
+	 * 
+	 * @return the volume (in bits) associated with the acquisition
+	 */
 	public long getVolume() {
 		return volume;
 	}
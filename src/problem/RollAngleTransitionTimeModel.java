@@ -0,0 +1,55 @@
+package problem;
+
+import java.util.List;
+
+import params.Params;
+
+/**
+ * Transition time model which only considers roll angle changes, performed at the mean rotation speed of the satellite.
+ * Roll angles are stored in a contiguous array indexed by the index of the acquisition windows.
+ * @author cpralet
+ *
+ */
+public class RollAngleTransitionTimeModel implements TransitionTimeModel {
+
+	/** Roll angle of each acquisition window (in radians) */
+	private final double[] rollAngles;
+
+	/**
+	 * Build the model for a list of acquisition windows
+	 * @param acquisitionWindows all acquisition windows of the problem, window i being at position i
+	 */
+	public RollAngleTransitionTimeModel(List<AcquisitionWindow> acquisitionWindows){
+		rollAngles = new double[acquisitionWindows.size()];
+		for(AcquisitionWindow w : acquisitionWindows){
+			rollAngles[w.idx] = w.rollAngle;
+		}
+	}
+
+	/**
+	 * @return the number of acquisition windows covered by this model
+	 */
+	public int size(){
+		return rollAngles.length;
+	}
+
+	@Override
+	public double getTransitionTime(AcquisitionWindow a1, AcquisitionWindow a2) {
+		return Math.abs(rollAngles[a1.idx] - rollAngles[a2.idx]) / Params.meanRotationSpeed;
+	}
+
+	@Override
+	public double getMaxTransitionTime(List<AcquisitionWindow> windows) {
+		if(windows.isEmpty())
+			return 0;
+		double minRoll = Double.POSITIVE_INFINITY;
+		double maxRoll = Double.NEGATIVE_INFINITY;
+		for(AcquisitionWindow w : windows){
+			minRoll = Math.min(minRoll, rollAngles[w.idx]);
+			maxRoll = Math.max(maxRoll, rollAngles[w.idx]);
+		}
+		// transition times only depend on the roll angle difference, which is largest between the extreme roll angles
+		return (maxRoll - minRoll) / Params.meanRotationSpeed;
+	}
+
+}
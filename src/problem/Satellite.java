@@ -7,14 +7,18 @@ package problem;
  */
 public class Satellite {
 
+	/** Index of the satellite in the list of satellites */
+	public final int idx;
 	/** Name of the satellite */
 	public final String name;
 
 	/**
 	 * Create a satellite
+	 * @param idx
 	 * @param name
 	 */
-	public Satellite(String name){
+	public Satellite(int idx, String name){
+		this.idx = idx;
 		this.name = name;
 	}
 	
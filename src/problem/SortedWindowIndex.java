@@ -0,0 +1,157 @@
+package problem;
+
+import java.util.List;
+
+/**
+ * Class used for representing a read-only ordering of the acquisition windows of a planning problem, sorted by
+ * increasing priority of their candidate acquisition, then by increasing cloud probability (windows having the same
+ * priority and the same cloud probability are sorted by increasing index).
+ * The ordering is stored as an array of window indices, so that it can be built once per problem and shared by
+ * all planners and all runs without creating any object.
+ * @author cpralet
+ *
+ */
+public class SortedWindowIndex {
+
+	/** Indices of the acquisition windows, in increasing order of priority and cloud probability */
+	private final int[] order;
+	/** Cloud probability of the window at each position of the ordering */
+	private final double[] cloudProbas;
+	/** Windows whose priority is p are at positions priorityStarts[p]..priorityStarts[p+1]-1 */
+	private final int[] priorityStarts;
+
+	/**
+	 * Build the ordering of a list of acquisition windows (each window being at the position given by its index in the list)
+	 * @param windows
+	 */
+	SortedWindowIndex(List<AcquisitionWindow> windows){
+		int nWindows = windows.size();
+		int maxPriority = -1;
+		for(AcquisitionWindow w : windows)
+			maxPriority = Math.max(maxPriority, w.candidateAcquisition.priority);
+
+		// group windows by priority (counting sort, which keeps windows sorted by index)
+		priorityStarts = new int[maxPriority+2];
+		for(AcquisitionWindow w : windows)
+			priorityStarts[w.candidateAcquisition.priority+1]++;
+		for(int p=0;p<=maxPriority;p++)
+			priorityStarts[p+1] += priorityStarts[p];
+		int[] fill = new int[maxPriority+1];
+		System.arraycopy(priorityStarts, 0, fill, 0, maxPriority+1);
+		order = new int[nWindows];
+		for(AcquisitionWindow w : windows)
+			order[fill[w.candidateAcquisition.priority]++] = w.idx;
+
+		// sort each priority level by cloud probability (stable sort, ties stay sorted by index)
+		double[] windowCloudProbas = new double[nWindows];
+		for(AcquisitionWindow w : windows)
+			windowCloudProbas[w.idx] = w.cloudProba;
+		int[] buffer = new int[nWindows];
+		for(int p=0;p<=maxPriority;p++)
+			mergeSort(order, buffer, priorityStarts[p], priorityStarts[p+1], windowCloudProbas);
+
+		cloudProbas = new double[nWindows];
+		for(int pos=0;pos<nWindows;pos++)
+			cloudProbas[pos] = windowCloudProbas[order[pos]];
+	}
+
+	/**
+	 *
+	 * @return the number of windows in the ordering
+	 */
+	public int size(){
+		return order.length;
+	}
+
+	/**
+	 *
+	 * @param pos
+	 * @return the index of the acquisition window at a given position of the ordering
+	 */
+	public int getWindowIdx(int pos){
+		return order[pos];
+	}
+
+	/**
+	 *
+	 * @param pos
+	 * @return the cloud probability of the acquisition window at a given position of the ordering
+	 */
+	public double getCloudProba(int pos){
+		return cloudProbas[pos];
+	}
+
+	/**
+	 *
+	 * @return the number of priority levels (priorities range from 0 to this number minus 1)
+	 */
+	public int getNumberOfPriorities(){
+		return priorityStarts.length - 1;
+	}
+
+	/**
+	 *
+	 * @param priority
+	 * @return the first position of the windows having a given priority
+	 */
+	public int getPriorityStart(int priority){
+		return priorityStarts[priority];
+	}
+
+	/**
+	 *
+	 * @param priority
+	 * @return the position following the last window having a given priority
+	 */
+	public int getPriorityEnd(int priority){
+		return priorityStarts[priority+1];
+	}
+
+	/**
+	 *
+	 * @param from first position of a range of windows having the same priority
+	 * @param to position following the last position of the range
+	 * @param cloudProba
+	 * @return the first position in the range whose cloud probability is strictly greater than a given value (to if there is none)
+	 */
+	public int upperBound(int from, int to, double cloudProba){
+		int lo = from;
+		int hi = to;
+		while(lo < hi){
+			int mid = (lo + hi) >>> 1;
+			if(cloudProbas[mid] <= cloudProba)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * Stable sort of values[from..to-1] by increasing key
+	 * @param values
+	 * @param buffer
+	 * @param from
+	 * @param to
+	 * @param keys key associated with each value
+	 */
+	private static void mergeSort(int[] values, int[] buffer, int from, int to, double[] keys){
+		if(to - from < 2)
+			return;
+		int mid = (from + to) >>> 1;
+		mergeSort(values, buffer, from, mid, keys);
+		mergeSort(values, buffer, mid, to, keys);
+		if(keys[values[mid-1]] <= keys[values[mid]])
+			return;
+		System.arraycopy(values, from, buffer, from, to - from);
+		int i = from;
+		int j = mid;
+		for(int k=from;k<to;k++){
+			if(j >= to || (i < mid && keys[buffer[i]] <= keys[buffer[j]]))
+				values[k] = buffer[i++];
+			else
+				values[k] = buffer[j++];
+		}
+	}
+
+}
@@ -7,14 +7,18 @@ package problem;
  */
 public class Station {
 
+	/** Index of the station in the list of stations */
+	public final int idx;
 	/** Name of this station */
 	public final String name;
 	
 	/**
 	 * Create a ground station
+	 * @param idx
 	 * @param name
 	 */
-	public Station(String name){
+	public Station(int idx, String name){
+		this.idx = idx;
 		this.name = name;
 	}
 		
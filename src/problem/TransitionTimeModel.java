@@ -0,0 +1,27 @@
+package problem;
+
+import java.util.List;
+
+/**
+ * Interface for models estimating the minimum transition time required by a satellite between two acquisitions
+ * @author cpralet
+ *
+ */
+public interface TransitionTimeModel {
+
+	/**
+	 * 
+	 * @param a1 
+	 * @param a2
+	 * @return an estimation of the minimum transition time between two acquisitions realized in given windows 
+	 */
+	public double getTransitionTime(AcquisitionWindow a1, AcquisitionWindow a2);
+
+	/**
+	 * 
+	 * @param windows acquisition windows (of a same satellite)
+	 * @return an upper bound on the transition time between any two of these windows, in both orders
+	 */
+	public double getMaxTransitionTime(List<AcquisitionWindow> windows);
+
+}
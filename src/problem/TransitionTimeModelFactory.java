@@ -0,0 +1,19 @@
+package problem;
+
+/**
+ * Interface for building the transition time model of a planning problem from its acquisition windows.
+ * As models are indexed by window, they cannot be given before the windows exist: a factory is set on the problem
+ * while it is built, called when the problem is frozen, and reused for the problems derived from it (see ProblemUpdate).
+ * @author cpralet
+ *
+ */
+public interface TransitionTimeModelFactory {
+
+	/**
+	 * 
+	 * @param pb problem whose acquisition windows are all added
+	 * @return the transition time model of the problem
+	 */
+	public TransitionTimeModel create(PlanningProblem pb);
+
+}
@@ -0,0 +1,428 @@
+package solver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+
+import javax.xml.stream.FactoryConfigurationError;
+import javax.xml.stream.XMLStreamException;
+
+import params.Params;
+import problem.AcquisitionWindow;
+import problem.PlanningProblem;
+import problem.ProblemParserXML;
+import problem.Satellite;
+
+/**
+ * Acquisition planner which solves the acquisition problem of each satellite separately and exactly, without any
+ * external solver. For one satellite, it maximizes the number of candidate acquisitions realized, each acquisition
+ * being realized in at most one of its windows on the satellite. As in SatellitePlan, acquisitions are sequenced by
+ * increasing earliest start time of their windows (then by increasing index), and the search does not branch on the
+ * order: plans are only optimal among the sequences following this order (see SatelliteRelaxation), a timeline in
+ * another order possibly realizing more acquisitions.
+ *
+ * Bounds: the constraint "at most one window per acquisition" is relaxed in a Lagrangian way, the weight of a window
+ * being 1 minus the multiplier of its acquisition. Multipliers are multiples of 1/LAMBDA_LEVELS in [0,1], so that
+ * weights are integers once scaled, and the relaxed problem is solved by dynamic programming (SatelliteRelaxation).
+ * Multipliers are adjusted by a few subgradient iterations in each node.
+ *
+ * Search: best-first branch and bound. When the sequence of the relaxation realizes an acquisition several times,
+ * one child node is created for each window of this acquisition, in which all other windows of the acquisition are
+ * forbidden. Incumbent solutions are obtained by removing duplicate windows from relaxed sequences and greedily
+ * inserting allowed windows.
+ * @author cpralet
+ *
+ */
+public class AcquisitionPlannerBranchAndBound {
+
+	/** Lagrangian multipliers are multiples of 1/LAMBDA_LEVELS */
+	private static final int LAMBDA_LEVELS = 16;
+	/** Number of subgradient iterations at the root node */
+	private static final int ROOT_ITERATIONS = 60;
+	/** Number of subgradient iterations at the other nodes */
+	private static final int NODE_ITERATIONS = 4;
+	/** Initial subgradient step at the nodes other than the root (in number of levels) */
+	private static final int NODE_STEP = 2;
+	/** Number of consecutive iterations without improvement of the bound after which the step is halved */
+	private static final int STEP_PATIENCE = 2;
+
+	/** Planning problem for which this acquisition planner is used */
+	private final PlanningProblem planningProblem;
+	/** Plan of each satellite (indexed by satellite idx) */
+	private final SatellitePlan[] satellitePlans;
+	/** True if the plan of each satellite is proven optimal among the sequences ordered by earliest start time */
+	private final boolean[] optimal;
+	/** Best upper bound found for each satellite */
+	private final int[] upperBounds;
+	/** Number of nodes explored for each satellite */
+	private final long[] nNodes;
+
+	/**
+	 * Build an acquisition planner for a planning problem
+	 * @param planningProblem
+	 */
+	public AcquisitionPlannerBranchAndBound(PlanningProblem planningProblem){
+		this.planningProblem = planningProblem;
+		int nSatellites = planningProblem.satellites.size();
+		satellitePlans = new SatellitePlan[nSatellites];
+		for(Satellite satellite : planningProblem.satellites)
+			satellitePlans[satellite.idx] = new SatellitePlan(planningProblem, satellite);
+		optimal = new boolean[nSatellites];
+		upperBounds = new int[nSatellites];
+		nNodes = new long[nSatellites];
+	}
+
+	/**
+	 * Plan all satellites one after the other, acquisitions planned on a satellite being excluded from the next ones
+	 * @param timeLimit time limit for each satellite (in seconds)
+	 */
+	public void planAcquisitions(double timeLimit){
+		BitSet excluded = new BitSet(planningProblem.candidateAcquisitions.size());
+		for(Satellite satellite : planningProblem.satellites){
+			planSatellite(satellite, excluded, timeLimit);
+			SatellitePlan plan = satellitePlans[satellite.idx];
+			for(int i=0;i<plan.size();i++)
+				excluded.set(plan.getAcqWindow(i).candidateAcquisition.idx);
+		}
+	}
+
+	/**
+	 * Compute a plan for a satellite which is optimal among the sequences ordered by earliest start time (or the best
+	 * plan found within the time limit)
+	 * @param satellite
+	 * @param excluded candidate acquisitions which must not be planned on the satellite
+	 * @param timeLimit time limit (in seconds)
+	 */
+	public void planSatellite(Satellite satellite, BitSet excluded, double timeLimit){
+		long endTime = System.nanoTime() + (long) (timeLimit * 1e9);
+		SatelliteProblem sp = new SatelliteProblem(satellite, excluded);
+
+		// open nodes, explored by decreasing bound, then by decreasing depth
+		PriorityQueue<Node> open = new PriorityQueue<Node>(16, new Comparator<Node>(){
+			@Override
+			public int compare(Node n0, Node n1) {
+				if(n0.bound != n1.bound)
+					return n1.bound - n0.bound;
+				return n1.depth - n0.depth;
+			}
+		});
+		int[] best = new int[0];
+		Node root = new Node(new BitSet(sp.n), new byte[sp.nCandidates], Integer.MAX_VALUE, 0);
+		best = root.solve(sp, best, ROOT_ITERATIONS, LAMBDA_LEVELS/2);
+		open.add(root);
+		long explored = 0;
+		while(!open.isEmpty() && System.nanoTime() < endTime){
+			Node node = open.poll();
+			if(node.bound <= best.length){
+				open.clear(); // all remaining nodes are dominated by the incumbent
+				break;
+			}
+			explored++;
+			int duplicated = sp.findDuplicatedCandidate(node.sequence);
+			if(duplicated < 0){
+				// the Lagrangian sequence is feasible but does not prove optimality: branch on the plain relaxation
+				int[] sequence = sp.solveRelaxation(node.forbidden, new byte[sp.nCandidates]);
+				duplicated = sp.findDuplicatedCandidate(sequence);
+				if(duplicated < 0){
+					// the plain relaxation is feasible, hence optimal for this node
+					if(sequence.length > best.length)
+						best = sequence;
+					continue;
+				}
+			}
+			int[] candidateWindows = sp.candidateWindows[duplicated];
+			for(int keep : candidateWindows){
+				if(node.forbidden.get(keep))
+					continue;
+				BitSet forbidden = (BitSet) node.forbidden.clone();
+				for(int other : candidateWindows){
+					if(other != keep)
+						forbidden.set(other);
+				}
+				Node child = new Node(forbidden, node.lambdas, node.bound, node.depth+1);
+				best = child.solve(sp, best, NODE_ITERATIONS, NODE_STEP);
+				if(child.bound > best.length)
+					open.add(child);
+			}
+		}
+		int upperBound = best.length;
+		if(!open.isEmpty())
+			upperBound = Math.max(upperBound, open.peek().bound);
+
+		SatellitePlan plan = satellitePlans[satellite.idx];
+		plan.clear();
+		for(int pos : best){
+			if(!plan.add(sp.windows[pos]))
+				throw new IllegalStateException("Infeasible sequence for " + satellite);
+		}
+		optimal[satellite.idx] = upperBound == best.length;
+		upperBounds[satellite.idx] = upperBound;
+		nNodes[satellite.idx] = explored;
+	}
+
+	/**
+	 * @param satellite
+	 * @return true if the plan of the satellite has been proven optimal among the sequences ordered by earliest start time
+	 */
+	public boolean isOptimal(Satellite satellite){
+		return optimal[satellite.idx];
+	}
+
+	/**
+	 * @param satellite
+	 * @return the best upper bound on the number of acquisitions which can be realized by the satellite, windows being
+	 * realized by increasing earliest start time
+	 */
+	public int getUpperBound(Satellite satellite){
+		return upperBounds[satellite.idx];
+	}
+
+	/**
+	 * Print the result obtained for each satellite (bounds and optimality being restricted to the sequences ordered by
+	 * earliest start time)
+	 */
+	public void printStatistics(){
+		for(Satellite satellite : planningProblem.satellites){
+			System.out.println(satellite.name + ": " + satellitePlans[satellite.idx].size() + " acquisitions (upper bound " + upperBounds[satellite.idx]
+					+ (optimal[satellite.idx] ? ", optimal in earliest start order" : "") + ", " + nNodes[satellite.idx] + " nodes)");
+		}
+	}
+
+	/**
+	 * @return the solution plan corresponding to the current acquisition plan
+	 */
+	public SolutionPlan getSolutionPlan(){
+		SolutionPlan plan = new SolutionPlan(planningProblem);
+		for(SatellitePlan satellitePlan : satellitePlans)
+			plan.addSatellitePlan(satellitePlan);
+		return plan;
+	}
+
+	/**
+	 * Write the acquisition plan of a given satellite in a file
+	 * @param satellite
+	 * @param solutionFilename
+	 * @throws IOException
+	 */
+	public void writePlan(Satellite satellite, String solutionFilename) throws IOException{
+		satellitePlans[satellite.idx].writePlan(solutionFilename);
+	}
+
+	/**
+	 * Data of the acquisition problem of one satellite
+	 */
+	private class SatelliteProblem {
+		final Satellite satellite;
+		/** Relaxation of the problem, without the constraint "at most one window per acquisition" */
+		final SatelliteRelaxation relaxation;
+		/** Windows of the satellite, sorted by increasing earliest start time then by increasing index */
+		final AcquisitionWindow[] windows;
+		/** Number of windows */
+		final int n;
+		/** Local index of the candidate acquisition of each window */
+		final int[] candidates;
+		/** Number of candidate acquisitions having a window on the satellite */
+		final int nCandidates;
+		/** Positions of the windows of each candidate acquisition (indexed by local index) */
+		final int[][] candidateWindows;
+
+		SatelliteProblem(Satellite satellite, BitSet excluded){
+			this.satellite = satellite;
+			List<AcquisitionWindow> list = new ArrayList<AcquisitionWindow>();
+			for(AcquisitionWindow w : planningProblem.acquisitionWindows){
+				if(w.satellite == satellite && !excluded.get(w.candidateAcquisition.idx))
+					list.add(w);
+			}
+			relaxation = new SatelliteRelaxation(planningProblem, list);
+			windows = relaxation.windows;
+			n = relaxation.n;
+
+			int[] localIdx = new int[planningProblem.candidateAcquisitions.size()];
+			Arrays.fill(localIdx, -1);
+			candidates = new int[n];
+			int nc = 0;
+			for(int pos=0;pos<n;pos++){
+				int c = windows[pos].candidateAcquisition.idx;
+				if(localIdx[c] < 0)
+					localIdx[c] = nc++;
+				candidates[pos] = localIdx[c];
+			}
+			nCandidates = nc;
+			int[] counts = new int[nCandidates];
+			for(int pos=0;pos<n;pos++)
+				counts[candidates[pos]]++;
+			candidateWindows = new int[nCandidates][];
+			for(int c=0;c<nCandidates;c++)
+				candidateWindows[c] = new int[counts[c]];
+			for(int pos=n-1;pos>=0;pos--)
+				candidateWindows[candidates[pos]][--counts[candidates[pos]]] = pos;
+		}
+
+		/**
+		 * Sequence of allowed windows of maximum weight, possibly realizing an acquisition several times
+		 * @param forbidden positions of the windows which cannot be selected
+		 * @param lambdas multiplier of each candidate acquisition (in number of levels)
+		 * @return the positions of the windows of the sequence
+		 */
+		int[] solveRelaxation(BitSet forbidden, byte[] lambdas){
+			int[] weights = new int[n];
+			for(int pos=0;pos<n;pos++){
+				if(!forbidden.get(pos))
+					weights[pos] = LAMBDA_LEVELS - lambdas[candidates[pos]];
+			}
+			return relaxation.solve(weights);
+		}
+
+		/**
+		 * @param sequence
+		 * @param lambdas
+		 * @return the Lagrangian upper bound associated with the optimal sequence of a relaxation
+		 */
+		int getBound(int[] sequence, byte[] lambdas){
+			long value = 0;
+			for(int pos : sequence)
+				value += LAMBDA_LEVELS - lambdas[candidates[pos]];
+			for(int c=0;c<nCandidates;c++)
+				value += lambdas[c];
+			return (int) (value / LAMBDA_LEVELS);
+		}
+
+		/**
+		 * @param sequence
+		 * @return the local index of a candidate acquisition realized several times in a sequence, or -1 if there is none
+		 */
+		int findDuplicatedCandidate(int[] sequence){
+			BitSet seen = new BitSet(nCandidates);
+			for(int pos : sequence){
+				if(seen.get(candidates[pos]))
+					return candidates[pos];
+				seen.set(candidates[pos]);
+			}
+			return -1;
+		}
+
+		/**
+		 * Build a feasible sequence from a relaxed one: duplicate windows are removed, then all allowed windows
+		 * of unrealized acquisitions are greedily inserted
+		 * @param sequence
+		 * @param forbidden
+		 * @return the positions of the windows of the feasible sequence
+		 */
+		int[] repair(int[] sequence, BitSet forbidden){
+			SatellitePlan plan = new SatellitePlan(planningProblem, satellite);
+			BitSet realized = new BitSet(nCandidates);
+			for(int pos : sequence){
+				if(!realized.get(candidates[pos]) && plan.add(windows[pos]))
+					realized.set(candidates[pos]);
+			}
+			for(int pos=0;pos<n;pos++){
+				if(!forbidden.get(pos) && !realized.get(candidates[pos]) && plan.add(windows[pos]))
+					realized.set(candidates[pos]);
+			}
+			// positions in the plan order, which is the order of the windows array
+			int[] result = new int[plan.size()];
+			int i = 0;
+			for(int pos=0;pos<n && i<result.length;pos++){
+				if(plan.getAcqWindow(i) == windows[pos])
+					result[i++] = pos;
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Node of the branch and bound
+	 */
+	private static class Node {
+		/** Positions of the windows forbidden in this node */
+		final BitSet forbidden;
+		/** Depth of the node in the search tree */
+		final int depth;
+		/** Lagrangian multipliers giving the best bound (in number of levels, indexed by local candidate index) */
+		byte[] lambdas;
+		/** Optimal sequence of the relaxation giving the best bound */
+		int[] sequence;
+		/** Upper bound on the number of acquisitions realized in this node */
+		int bound;
+
+		Node(BitSet forbidden, byte[] lambdas, int bound, int depth){
+			this.forbidden = forbidden;
+			this.lambdas = lambdas;
+			this.bound = bound;
+			this.depth = depth;
+		}
+
+		/**
+		 * Compute the bound of the node by subgradient iterations, starting from the multipliers of its parent
+		 * @param sp
+		 * @param incumbent
+		 * @param nIterations
+		 * @param step initial step (in number of levels), halved when the bound does not improve
+		 * @return the new incumbent, built from the sequences of the relaxations
+		 */
+		int[] solve(SatelliteProblem sp, int[] incumbent, int nIterations, int step){
+			byte[] current = lambdas.clone();
+			int[] counts = new int[sp.nCandidates];
+			int nNonImproving = 0;
+			for(int it=0;it<nIterations;it++){
+				int[] relaxed = sp.solveRelaxation(forbidden, current);
+				int relaxedBound = sp.getBound(relaxed, current);
+				if(sequence == null || relaxedBound < bound){
+					lambdas = current.clone();
+					sequence = relaxed;
+					bound = relaxedBound;
+					nNonImproving = 0;
+				}
+				else if(++nNonImproving == STEP_PATIENCE){
+					if(step == 1)
+						break; // the bound does not improve anymore
+					step /= 2;
+					nNonImproving = 0;
+				}
+				int[] repaired = sp.repair(relaxed, forbidden);
+				if(repaired.length > incumbent.length)
+					incumbent = repaired;
+				if(bound <= incumbent.length)
+					break;
+
+				// subgradient step: decrease the multipliers of unrealized acquisitions, increase the ones of duplicates
+				Arrays.fill(counts, 0);
+				for(int pos : relaxed)
+					counts[sp.candidates[pos]]++;
+				boolean changed = false;
+				for(int c=0;c<sp.nCandidates;c++){
+					int lambda = Math.min(LAMBDA_LEVELS, Math.max(0, current[c] - step * (1 - counts[c])));
+					if(lambda != current[c]){
+						current[c] = (byte) lambda;
+						changed = true;
+					}
+				}
+				if(!changed)
+					break;
+			}
+			return incumbent;
+		}
+	}
+
+	public static void main(String[] args) throws XMLStreamException, FactoryConfigurationError, IOException, InterruptedException, ExecutionException{
+		ProblemParserXML parser = new ProblemParserXML();
+		PlanningProblem pb = parser.read(Params.systemDataFile,Params.planningDataFile);
+		pb.printStatistics();
+		AcquisitionPlannerBranchAndBound planner = new AcquisitionPlannerBranchAndBound(pb);
+		planner.planAcquisitions(Params.exactSolverTimeLimit);
+		planner.printStatistics();
+		AcquisitionUpperBounds upperBounds = new AcquisitionUpperBounds(pb);
+		upperBounds.computeLagrangianBound(Params.upperBoundIterations, Params.n_threads);
+		upperBounds.printGap(planner.getSolutionPlan());
+		for(Satellite satellite : pb.satellites){
+			planner.writePlan(satellite, "output/solutionAcqPlan_"+satellite.name+".txt");
+		}
+		System.out.println("Acquisition planning done");
+	}
+
+}
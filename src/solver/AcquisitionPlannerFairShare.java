@@ -0,0 +1,358 @@
+package solver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import javax.xml.stream.FactoryConfigurationError;
+import javax.xml.stream.XMLStreamException;
+
+import params.Params;
+import problem.AcquisitionWindow;
+import problem.CandidateAcquisition;
+import problem.PlanningProblem;
+import problem.ProblemParserXML;
+import problem.Satellite;
+import problem.SortedWindowIndex;
+import problem.User;
+
+/**
+ * Acquisition planner which shares the capacity of the satellites between users according to their quotas
+ * (User.quota being the fraction of the planned acquisitions each user is entitled to).
+ * The greedy insertion considers priority levels by increasing priority; within a level, the windows of each user are
+ * considered by increasing cloud probability, and the next window tried is the one of the user having the smallest
+ * virtual finish time (nPlanned(u)+1)/quota(u) (weighted fair queuing), so that no user can take all the capacity.
+ * A rebalancing pass then swaps windows of users over their quota for windows of users under their quota which are
+ * close to them on the same satellite and have a priority at least as good.
+ * Per-user accounting is done in O(1) by the PlanScore of the plan.
+ * @author cpralet
+ *
+ */
+public class AcquisitionPlannerFairShare {
+
+	/** Planning problem for which this acquisition planner is used */
+	private final PlanningProblem planningProblem;
+	/** Plan of each satellite (indexed by satellite idx) */
+	private final SatellitePlan[] satellitePlans;
+	/** Acquisition windows of each satellite (indexed by satellite idx), sorted by increasing earliest start time */
+	private final int[][] satelliteWindows;
+	/** Earliest start times of the acquisition windows of each satellite (same order as satelliteWindows) */
+	private final double[][] satelliteEarliestStarts;
+	/** Maximum span (latest start + duration - earliest start) of the acquisition windows of each satellite */
+	private final double[] maxWindowSpans;
+	/** Candidate acquisitions of each user (indexed by user idx) */
+	private final int[][] userCandidates;
+	/** Index of the window selected for each candidate acquisition (-1 if the acquisition is not planned) */
+	private final int[] selectedWindows;
+	/** Score of the current plan, including the per-user counts */
+	private final PlanScore score;
+	/** Number of swaps made by the last rebalancing */
+	private int nSwaps;
+
+	/**
+	 * Build a fair-share acquisition planner for a planning problem
+	 * @param planningProblem
+	 */
+	public AcquisitionPlannerFairShare(PlanningProblem planningProblem){
+		this.planningProblem = planningProblem;
+		int nSatellites = planningProblem.satellites.size();
+		int nUsers = planningProblem.users.size();
+		satellitePlans = new SatellitePlan[nSatellites];
+		for(Satellite satellite : planningProblem.satellites)
+			satellitePlans[satellite.idx] = new SatellitePlan(planningProblem, satellite);
+
+		// windows of each satellite sorted by earliest start time
+		List<List<AcquisitionWindow>> windowsBySatellite = new ArrayList<List<AcquisitionWindow>>();
+		for(int s=0;s<nSatellites;s++)
+			windowsBySatellite.add(new ArrayList<AcquisitionWindow>());
+		for(AcquisitionWindow w : planningProblem.acquisitionWindows)
+			windowsBySatellite.get(w.satellite.idx).add(w);
+		satelliteWindows = new int[nSatellites][];
+		satelliteEarliestStarts = new double[nSatellites][];
+		maxWindowSpans = new double[nSatellites];
+		for(int s=0;s<nSatellites;s++){
+			List<AcquisitionWindow> windows = windowsBySatellite.get(s);
+			AcquisitionWindow[] sorted = windows.toArray(new AcquisitionWindow[windows.size()]);
+			Arrays.sort(sorted, new Comparator<AcquisitionWindow>(){
+				@Override
+				public int compare(AcquisitionWindow w0, AcquisitionWindow w1) {
+					return Double.compare(w0.earliestStart, w1.earliestStart);
+				}
+			});
+			satelliteWindows[s] = new int[sorted.length];
+			satelliteEarliestStarts[s] = new double[sorted.length];
+			for(int i=0;i<sorted.length;i++){
+				satelliteWindows[s][i] = sorted[i].idx;
+				satelliteEarliestStarts[s][i] = sorted[i].earliestStart;
+				maxWindowSpans[s] = Math.max(maxWindowSpans[s], sorted[i].latestStart + sorted[i].duration - sorted[i].earliestStart);
+			}
+		}
+
+		// candidate acquisitions of each user
+		int[] nUserCandidates = new int[nUsers];
+		for(CandidateAcquisition a : planningProblem.candidateAcquisitions)
+			nUserCandidates[a.user.idx]++;
+		userCandidates = new int[nUsers][];
+		for(int u=0;u<nUsers;u++)
+			userCandidates[u] = new int[nUserCandidates[u]];
+		Arrays.fill(nUserCandidates, 0);
+		for(CandidateAcquisition a : planningProblem.candidateAcquisitions)
+			userCandidates[a.user.idx][nUserCandidates[a.user.idx]++] = a.idx;
+
+		selectedWindows = new int[planningProblem.candidateAcquisitions.size()];
+		Arrays.fill(selectedWindows, -1);
+		score = new PlanScore(planningProblem);
+	}
+
+	/**
+	 * Greedy insertion by priority level, the users sharing each level by weighted fair queuing on their quotas
+	 */
+	public void planAcquisitions(){
+		SortedWindowIndex windowIndex = planningProblem.getSortedWindowIndex();
+		int nUsers = planningProblem.users.size();
+		int[] cursors = new int[nUsers];
+		int[] ends = new int[nUsers];
+		for(int p=0;p<windowIndex.getNumberOfPriorities();p++){
+			// windows of the level split by user, each user keeping the order of the index (increasing cloud probability)
+			int start = windowIndex.getPriorityStart(p);
+			int end = windowIndex.getPriorityEnd(p);
+			Arrays.fill(ends, 0);
+			for(int pos=start;pos<end;pos++)
+				ends[planningProblem.getAcquisitionWindow(windowIndex.getWindowIdx(pos)).candidateAcquisition.user.idx]++;
+			int[][] userWindows = new int[nUsers][];
+			for(int u=0;u<nUsers;u++)
+				userWindows[u] = new int[ends[u]];
+			Arrays.fill(ends, 0);
+			for(int pos=start;pos<end;pos++){
+				int windowIdx = windowIndex.getWindowIdx(pos);
+				int u = planningProblem.getAcquisitionWindow(windowIdx).candidateAcquisition.user.idx;
+				userWindows[u][ends[u]++] = windowIdx;
+			}
+			Arrays.fill(cursors, 0);
+
+			while(true){
+				// user with the smallest virtual finish time among the users having windows left
+				int best = -1;
+				double bestTime = 0;
+				for(int u=0;u<nUsers;u++){
+					if(cursors[u] >= ends[u])
+						continue;
+					double quota = planningProblem.users.get(u).quota;
+					double time = quota > 0 ? (score.getNumberOfPlanned(u) + 1) / quota : Double.POSITIVE_INFINITY;
+					if(best < 0 || time < bestTime){
+						best = u;
+						bestTime = time;
+					}
+				}
+				if(best < 0)
+					break;
+				AcquisitionWindow w = planningProblem.getAcquisitionWindow(userWindows[best][cursors[best]++]);
+				if(selectedWindows[w.candidateAcquisition.idx] >= 0)
+					continue;
+				if(satellitePlans[w.satellite.idx].add(w))
+					select(w);
+			}
+		}
+	}
+
+	/**
+	 * Swap windows of users over their quota for windows of users under their quota, until no user is over its quota
+	 * or no swap is possible. The windows of a user over its quota are tried by decreasing priority value and cloud
+	 * probability, each one being replaced if possible by a window of another user, of at most the same priority value,
+	 * close to it on the same satellite, and which does not get over its quota (plus the tolerance) with the swap.
+	 * As a swap keeps the number of planned acquisitions, it strictly decreases the quota excess of the user losing the
+	 * window without creating an excess for the user getting one, so the rebalancing ends; the number of passes is
+	 * also bounded by the number of planned acquisitions.
+	 * @param tolerance tolerance on the fraction of the plan given to each user beyond its quota
+	 * @return the number of swaps made
+	 */
+	public int rebalance(double tolerance){
+		nSwaps = 0;
+		int maxPasses = score.getNumberOfPlanned();
+		boolean swapped = true;
+		for(int pass=0;swapped && pass<maxPasses;pass++){
+			swapped = false;
+			for(User user : planningProblem.users){
+				if(!score.isOverQuota(user.idx, tolerance))
+					continue;
+				for(AcquisitionWindow w : getPlannedWindowsWorstFirst(user)){
+					if(!score.isOverQuota(user.idx, tolerance))
+						break;
+					if(swap(w, tolerance)){
+						nSwaps++;
+						swapped = true;
+					}
+				}
+			}
+		}
+		return nSwaps;
+	}
+
+	/**
+	 * @param user
+	 * @return the windows selected for the planned acquisitions of a user, by decreasing priority value then cloud probability
+	 */
+	private AcquisitionWindow[] getPlannedWindowsWorstFirst(User user){
+		List<AcquisitionWindow> windows = new ArrayList<AcquisitionWindow>();
+		for(int a : userCandidates[user.idx]){
+			if(selectedWindows[a] >= 0)
+				windows.add(planningProblem.getAcquisitionWindow(selectedWindows[a]));
+		}
+		AcquisitionWindow[] sorted = windows.toArray(new AcquisitionWindow[windows.size()]);
+		Arrays.sort(sorted, new Comparator<AcquisitionWindow>(){
+			@Override
+			public int compare(AcquisitionWindow w0, AcquisitionWindow w1) {
+				if(w0.candidateAcquisition.priority != w1.candidateAcquisition.priority)
+					return w1.candidateAcquisition.priority - w0.candidateAcquisition.priority;
+				return Double.compare(w1.cloudProba, w0.cloudProba);
+			}
+		});
+		return sorted;
+	}
+
+	/**
+	 * Try to replace a planned window by a window of a user which stays within its quota after the swap, close to it
+	 * on the same satellite
+	 * @param removed
+	 * @param tolerance
+	 * @return true if the swap has been made (otherwise the plan is unchanged)
+	 */
+	private boolean swap(AcquisitionWindow removed, double tolerance){
+		int s = removed.satellite.idx;
+		int priority = removed.candidateAcquisition.priority;
+
+		// replacement windows by increasing priority value and cloud probability (the number of planned acquisitions
+		// being the same after the swap, the user of the replacement gets a share (nPlanned(user)+1)/nPlanned)
+		int nPlanned = score.getNumberOfPlanned();
+		int from = lowerBound(satelliteEarliestStarts[s], removed.earliestStart - maxWindowSpans[s]);
+		int to = lowerBound(satelliteEarliestStarts[s], removed.latestStart + removed.duration + maxWindowSpans[s]);
+		List<AcquisitionWindow> replacements = new ArrayList<AcquisitionWindow>();
+		for(int i=from;i<to;i++){
+			AcquisitionWindow w = planningProblem.getAcquisitionWindow(satelliteWindows[s][i]);
+			CandidateAcquisition a = w.candidateAcquisition;
+			if(selectedWindows[a.idx] < 0 && a.priority <= priority && a.user != removed.candidateAcquisition.user
+					&& (score.getNumberOfPlanned(a.user.idx) + 1.) / nPlanned <= a.user.quota + tolerance)
+				replacements.add(w);
+		}
+		if(replacements.isEmpty())
+			return false;
+		AcquisitionWindow[] sorted = replacements.toArray(new AcquisitionWindow[replacements.size()]);
+		Arrays.sort(sorted, new Comparator<AcquisitionWindow>(){
+			@Override
+			public int compare(AcquisitionWindow w0, AcquisitionWindow w1) {
+				return Double.compare(w0.candidateAcquisition.priority + Params.priorityCloudProbaWeight * w0.cloudProba,
+						w1.candidateAcquisition.priority + Params.priorityCloudProbaWeight * w1.cloudProba);
+			}
+		});
+
+		SatellitePlan plan = satellitePlans[s];
+		plan.remove(removed);
+		unselect(removed);
+		for(AcquisitionWindow w : sorted){
+			if(plan.add(w)){
+				select(w);
+				return true;
+			}
+		}
+		plan.add(removed);
+		select(removed);
+		return false;
+	}
+
+	/**
+	 * Record the selection of a window
+	 * @param w
+	 */
+	private void select(AcquisitionWindow w){
+		selectedWindows[w.candidateAcquisition.idx] = w.idx;
+		score.add(w);
+	}
+
+	/**
+	 * Record the removal of a window from the plan
+	 * @param w
+	 */
+	private void unselect(AcquisitionWindow w){
+		selectedWindows[w.candidateAcquisition.idx] = -1;
+		score.remove(w);
+	}
+
+	/**
+	 * @param values sorted values
+	 * @param value
+	 * @return the first position whose value is greater than or equal to a given value
+	 */
+	private static int lowerBound(double[] values, double value){
+		int lo = 0;
+		int hi = values.length;
+		while(lo < hi){
+			int mid = (lo + hi) >>> 1;
+			if(values[mid] < value)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * @return the score of the current plan
+	 */
+	public PlanScore getScore(){
+		return score;
+	}
+
+	/**
+	 * @return the solution plan corresponding to the current acquisition plan
+	 */
+	public SolutionPlan getSolutionPlan(){
+		SolutionPlan plan = new SolutionPlan(planningProblem);
+		for(SatellitePlan satellitePlan : satellitePlans)
+			plan.addSatellitePlan(satellitePlan);
+		return plan;
+	}
+
+	/**
+	 * Write the acquisition plan of a given satellite in a file
+	 * @param satellite
+	 * @param solutionFilename
+	 * @throws IOException
+	 */
+	public void writePlan(Satellite satellite, String solutionFilename) throws IOException{
+		satellitePlans[satellite.idx].writePlan(solutionFilename);
+	}
+
+	/**
+	 * Print the score of the plan and, for each user, its share of the plan compared with its quota
+	 * @param tolerance tolerance on the fraction of the plan given to each user beyond its quota
+	 */
+	public void printQuotaCompliance(double tolerance){
+		System.out.println(score);
+		System.out.println("Swaps made by the last rebalancing: " + nSwaps);
+		for(User user : planningProblem.users){
+			System.out.println("\t" + user.name + ": " + score.getNumberOfPlanned(user.idx) + " planned, share " + score.getShare(user.idx)
+					+ " (quota " + user.quota + ", " + (score.isOverQuota(user.idx, tolerance) ? "over quota" : "compliant") + ")"
+					+ ", mean priority " + score.getMeanPriority(user.idx) + ", mean cloud probability " + score.getMeanCloudProba(user.idx));
+		}
+	}
+
+	public static void main(String[] args) throws XMLStreamException, FactoryConfigurationError, IOException, InterruptedException, ExecutionException{
+		ProblemParserXML parser = new ProblemParserXML();
+		PlanningProblem pb = parser.read(Params.systemDataFile,Params.planningDataFile);
+		pb.printStatistics();
+		AcquisitionPlannerFairShare planner = new AcquisitionPlannerFairShare(pb);
+		planner.planAcquisitions();
+		planner.rebalance(Params.quotaTolerance);
+		planner.printQuotaCompliance(Params.quotaTolerance);
+		AcquisitionUpperBounds upperBounds = new AcquisitionUpperBounds(pb);
+		upperBounds.computeLagrangianBound(Params.upperBoundIterations, Params.n_threads);
+		upperBounds.printGap(planner.getSolutionPlan());
+		for(Satellite satellite : pb.satellites){
+			planner.writePlan(satellite, "output/solutionAcqPlan_"+satellite.name+".txt");
+		}
+	}
+
+}
@@ -1,15 +1,10 @@
 package solver;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.BitSet;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
 import javax.xml.stream.FactoryConfigurationError;
 import javax.xml.stream.XMLStreamException;
@@ -21,6 +16,7 @@ import problem.CandidateAcquisition;
 import problem.PlanningProblem;
 import problem.ProblemParserXML;
 import problem.Satellite;
+import problem.SortedWindowIndex;
 
 
 /**
@@ -35,6 +31,8 @@ public class AcquisitionPlannerGreedySimpleAcquisitions {
 	private final PlanningProblem planningProblem;
 	/** Data structure used for storing the plan of each satellite */
 	private final Map<Satellite,SatellitePlan> satellitePlans;
+	/** Score of the current plan, updated at each acquisition window added */
+	private final PlanScore score;
 
 	
 	/**
@@ -45,8 +43,9 @@ public class AcquisitionPlannerGreedySimpleAcquisitions {
 		this.planningProblem = planningProblem;
 		satellitePlans = new HashMap<Satellite,SatellitePlan>();
 		for(Satellite satellite : planningProblem.satellites){
-			satellitePlans.put(satellite, new SatellitePlan());
+			satellitePlans.put(satellite, new SatellitePlan(planningProblem, satellite));
 		}
+		score = new PlanScore(planningProblem);
 	}
 
 	/**
@@ -55,151 +54,60 @@ public class AcquisitionPlannerGreedySimpleAcquisitions {
 	 */
 	public void planAcquisitions(){
 		
-		List<CandidateAcquisition> candidateAcquisitions = new ArrayList<CandidateAcquisition>(planningProblem.candidateAcquisitions);
-        int nCandidates = candidateAcquisitions.size();
-		int nPlanned = 0;
-        
-        // Comparator used to sort the list
-        
-		// Map<CandidateAcquisition,CandidateAcquisition> simpleCandidateAcquisitions = new HashMap<CandidateAcquisition,CandidateAcquisition>();
-		// for(CandidateAcquisition acq : candidateAcquisitions){
-		// 	for(AcquisitionWindow w : acq.acquisitionWindows){
-		// 		CandidateAcquisition temp_acq = new CandidateAcquisition(acq.name, acq.user, acq.priority, acq.longitude, acq.latitude, acq.idx);
-		// 		temp_acq.acquisitionWindows.add(w);
-		// 		simpleCandidateAcquisitions.put(temp_acq, acq);
-		// 	}
-		// }
-
-		List<CandidateAcquisition> simpleCandidateAcquisitions = new ArrayList<CandidateAcquisition>();
-		for(CandidateAcquisition acq : candidateAcquisitions){
-				for(AcquisitionWindow w : acq.acquisitionWindows){
-					CandidateAcquisition temp_acq = new CandidateAcquisition(acq.name, acq.user, acq.priority, acq.longitude, acq.latitude, acq.idx);
-					temp_acq.acquisitionWindows.add(w);
-					simpleCandidateAcquisitions.add(temp_acq);
+		int nCandidates = planningProblem.candidateAcquisitions.size();
+
+		// rank acquisition windows by priority and cloud probability of the corresponding acquisition: windows of each
+		// priority level are already sorted by cloud probability in the window index of the problem, and these sorted
+		// levels are merged according to the weighted key priority + priorityCloudProbaWeight * cloudProba
+		SortedWindowIndex windowIndex = planningProblem.getSortedWindowIndex();
+		int nPriorities = windowIndex.getNumberOfPriorities();
+		int[] cursors = new int[nPriorities];
+		for(int p=0;p<nPriorities;p++)
+			cursors[p] = windowIndex.getPriorityStart(p);
+		BitSet plannedAcquisitions = new BitSet(nCandidates);
+
+		while(true){
+			// select the best acquisition window left (smallest key, then smallest index)
+			int best = -1;
+			double bestKey = 0;
+			for(int p=0;p<nPriorities;p++){
+				if(cursors[p] >= windowIndex.getPriorityEnd(p))
+					continue;
+				double key = p + Params.priorityCloudProbaWeight * windowIndex.getCloudProba(cursors[p]);
+				if(best < 0 || key < bestKey || (key == bestKey && windowIndex.getWindowIdx(cursors[p]) < windowIndex.getWindowIdx(cursors[best]))){
+					best = p;
+					bestKey = key;
 				}
 			}
-
-			
-		Collections.sort(simpleCandidateAcquisitions,new Comparator<CandidateAcquisition>(){
-			public int compare(CandidateAcquisition a1,CandidateAcquisition a2){
-					return (int) (1000*(a1.priority - a2.priority + Params.priorityCloudProbaWeight * (a1.acquisitionWindows.get(0).cloudProba - a2.acquisitionWindows.get(0).cloudProba)));
-			}});
-
-		while(!simpleCandidateAcquisitions.isEmpty()){
-            // select one candidate acquisition by priority and cloudProba
-            
-            // randomize in order to test the solver:
-            //Collections.shuffle(candidateAcquisitions);
-
-            // Collections.sort(candidateAcquisitions,new Comparator<CandidateAcquisition>(){
-            //     public int compare(CandidateAcquisition a1,CandidateAcquisition a2){
-            //           return a1.priority - a2.priority;
-            //     }});
-            // CandidateAcquisition a = candidateAcquisitions.remove(0);                
-            
-			// List<CandidateAcquisition> simpleCandidateAcquisitionsKeys = new ArrayList<CandidateAcquisition>();
-			// for (CandidateAcquisition a : simpleCandidateAcquisitions.keySet()) {
-			// 	simpleCandidateAcquisitionsKeys.add(a);
-			//   }
-
-			CandidateAcquisition a = simpleCandidateAcquisitions.remove(0);
-
-
-
-            // try to plan one acquisition window for this acquisition (and stop once a feasible acquisition window is found
-            for(AcquisitionWindow acqWindow : a.acquisitionWindows){
-				Satellite satellite = acqWindow.satellite;
-				SatellitePlan satellitePlan = satellitePlans.get(satellite);
-				satellitePlan.add(acqWindow);
-				if(satellitePlan.isFeasible()){
-					nPlanned++;
-					a.selectedAcquisitionWindow = acqWindow;
-					List <CandidateAcquisition> removeList = new ArrayList<CandidateAcquisition>();
-					for(CandidateAcquisition acq : simpleCandidateAcquisitions){
-						if (acq.name.equals(a.name)) {
-							removeList.add(acq);
-						}
-					}
-					simpleCandidateAcquisitions.removeAll(removeList);
-				}
-				else
-					satellitePlan.remove(acqWindow);
+			if(best < 0)
+				break;
+			AcquisitionWindow acqWindow = planningProblem.getAcquisitionWindow(windowIndex.getWindowIdx(cursors[best]++));
+
+			// skip windows of acquisitions already planned
+			CandidateAcquisition a = acqWindow.candidateAcquisition;
+			if(plannedAcquisitions.get(a.idx))
+				continue;
+
+			// try to plan the acquisition in this window
+			SatellitePlan satellitePlan = satellitePlans.get(acqWindow.satellite);
+			if(satellitePlan.add(acqWindow)){
+				score.add(acqWindow);
+				plannedAcquisitions.set(a.idx);
 			}
-        }
-		System.out.println("nPlanned: " + nPlanned + "/" + nCandidates);
-	}
-
-
-	private class SatellitePlan {
-
-		/** Acquisitions to be realized by the satellite */
-		private List<AcquisitionWindow> acqWindows;
-		/** Map defining the start time of each acquisition in the solution schedule */
-		private Map<AcquisitionWindow,Double> startTimes;
-
-
-		public SatellitePlan(){
-			acqWindows = new ArrayList<AcquisitionWindow>();
-			startTimes = new HashMap<AcquisitionWindow,Double>();
 		}
+	}
 
-		public double getStart(AcquisitionWindow aw){
-			return startTimes.get(aw);
-		}
-
-		public List<AcquisitionWindow> getAcqWindows(){
-			return acqWindows;
-		}
-
-		public void add(AcquisitionWindow aw){
-			acqWindows.add(aw);
-		}
-
-		public void remove(AcquisitionWindow aw){
-			acqWindows.remove(aw);
-			startTimes.remove(aw);
-		}
-
-		/**
-		 * 
-		 * @return true if the list of acquisition windows is evaluated as being feasible from a temporal point of view
-		 */
-		public boolean isFeasible(){
-
-			// sort acquisition windows by increasing start times
-			Collections.sort(acqWindows,startTimeComparator);
-
-			// initialize the forward traversal of the acquisition windows by considering the first one 
-			AcquisitionWindow prevAcqWindow = acqWindows.get(0);
-			if(planningProblem.horizonStart > prevAcqWindow.latestStart)
-				return false;		
-			double startTime = Math.max(planningProblem.horizonStart,prevAcqWindow.earliestStart);
-			startTimes.put(prevAcqWindow,startTime);
-			double prevEndTime = startTime + prevAcqWindow.duration;
 
-			// traverse all acquisition windows and check that each acquisition can be realized (taking into account roll angle transitions) 
-			for(int i=1;i<acqWindows.size();i++){
-				AcquisitionWindow acqWindow = acqWindows.get(i);
-				double rollAngleTransitionTime = planningProblem.getTransitionTime(prevAcqWindow, acqWindow);
-				startTime = Math.max(prevEndTime+rollAngleTransitionTime,acqWindow.earliestStart);
-				if(startTime > acqWindow.latestStart) // sequence of acquisition windows not feasible
-					return false;
-				startTimes.put(acqWindow,startTime);
-				prevEndTime = startTime + acqWindow.duration;
-				prevAcqWindow = acqWindow;
-			}		
-			return true;
-		}
+	/**
+	 * @return the solution plan corresponding to the current acquisition plan
+	 */
+	public SolutionPlan getSolutionPlan(){
+		SolutionPlan plan = new SolutionPlan(planningProblem);
+		for(Satellite satellite : planningProblem.satellites)
+			plan.addSatellitePlan(satellitePlans.get(satellite));
+		return plan;
 	}
 
-	/** Comparator used for sorting acquisition windows by increasing earliest start time */
-	private final Comparator<AcquisitionWindow> startTimeComparator = new Comparator<AcquisitionWindow>(){
-		@Override
-		public int compare(AcquisitionWindow w0, AcquisitionWindow w1) {
-			return Double.compare(w0.earliestStart, w1.earliestStart);
-		}		
-	};
-
 	/**
 	 * Write the acquisition plan of a given satellite in a file
 	 * @param satellite
@@ -207,15 +115,7 @@ public class AcquisitionPlannerGreedySimpleAcquisitions {
 	 * @throws IOException
 	 */
 	public void writePlan(Satellite satellite, String solutionFilename) throws IOException{
-		PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(solutionFilename, false)));
-		SatellitePlan plan = satellitePlans.get(satellite);
-		for(AcquisitionWindow aw : plan.getAcqWindows()){
-			double start = plan.getStart(aw);
-			writer.write(aw.candidateAcquisition.idx + " " + aw.idx + " " + start + " " + (start+aw.duration) + 
-					 " " + aw.candidateAcquisition.name + "\n");
-		}
-		writer.flush();
-		writer.close();
+		satellitePlans.get(satellite).writePlan(solutionFilename);
 	}
 
 	// public void printScores(PlanningProblem pb){
@@ -233,25 +133,23 @@ public class AcquisitionPlannerGreedySimpleAcquisitions {
 	// 	System.out.println(cloud_score);
 	// }
 
+	/**
+	 * @return the score of the current plan
+	 */
+	public PlanScore getScore(){
+		return score;
+	}
+
+	/**
+	 * Print the score of the current plan (maintained incrementally, without rescanning the satellite plans)
+	 * @param pb
+	 */
 	public void printScores(PlanningProblem pb){
-		// double prio_score = 0;
-		double cloud_score = 0;
-		int size = 0;
-		for (Satellite sat : pb.satellites){
-			SatellitePlan plan = satellitePlans.get(sat);
-			int local_size = plan.getAcqWindows().size();
-			for(AcquisitionWindow aw : plan.getAcqWindows()){
-				// prio_score  += 1 - aw.candidateAcquisition.priority;
-				cloud_score += aw.cloudProba;
-			}
-			size += local_size;
-		}
-		System.out.println("Mean cloud probability : ");
-		System.out.println(cloud_score/size);
+		System.out.println(score);
 	}
 
 	
-	public static void main(String[] args) throws XMLStreamException, FactoryConfigurationError, IOException{
+	public static void main(String[] args) throws XMLStreamException, FactoryConfigurationError, IOException, InterruptedException, ExecutionException{
 		ProblemParserXML parser = new ProblemParserXML(); 
 		PlanningProblem pb = parser.read(Params.systemDataFile,Params.planningDataFile);
 		pb.printStatistics();
@@ -261,6 +159,9 @@ public class AcquisitionPlannerGreedySimpleAcquisitions {
 			planner.writePlan(satellite, "output/solutionAcqPlan_"+satellite.name+".txt");
 		}
 		planner.printScores(pb);
+		AcquisitionUpperBounds upperBounds = new AcquisitionUpperBounds(pb);
+		upperBounds.computeLagrangianBound(Params.upperBoundIterations, Params.n_threads);
+		upperBounds.printGap(planner.getSolutionPlan());
 	}
 	
 }
@@ -0,0 +1,516 @@
+package solver;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.stream.FactoryConfigurationError;
+import javax.xml.stream.XMLStreamException;
+
+import params.Params;
+import problem.AcquisitionWindow;
+import problem.CandidateAcquisition;
+import problem.PlanningProblem;
+import problem.ProblemParserXML;
+import problem.Satellite;
+
+/**
+ * Acquisition planner based on a large neighbourhood search, which improves an existing acquisition plan until a
+ * wall-clock time budget is exhausted.
+ * At each iteration, several time slices [t,t+delta] are randomly chosen on randomly chosen satellites. All windows
+ * of the satellite plans starting in these slices are removed (destroy), then each slice is greedily refilled with
+ * the windows of unplanned acquisitions starting in the slice, considered by increasing value of
+ * priority + priorityCloudProbaWeight * cloudProba plus a random noise (repair).
+ * Slices of different satellites are repaired in parallel: before the repair, each unplanned acquisition is given
+ * to the first satellite (in satellite index order) having one of its windows in its slices, so that no acquisition
+ * can be planned twice. Slices of a same satellite are repaired sequentially by the same task.
+ * The new plan is kept if its score (planned fraction - mean priority - mean cloud probability, as in the random
+ * process planner, minus the quota excess penalty of PlanScore) does not decrease, otherwise the destroyed windows
+ * are restored.
+ * @author cpralet
+ *
+ */
+public class AcquisitionPlannerLNS {
+
+	/** Planning problem for which this acquisition planner is used */
+	private final PlanningProblem planningProblem;
+	/** Plan of each satellite (indexed by satellite idx) */
+	private final SatellitePlan[] satellitePlans;
+	/** Acquisition windows of each satellite (indexed by satellite idx), sorted by increasing earliest start time */
+	private final int[][] satelliteWindows;
+	/** Earliest start times of the acquisition windows of each satellite (same order as satelliteWindows) */
+	private final double[][] satelliteEarliestStarts;
+	/** Index of the window selected for each candidate acquisition (-1 if the acquisition is not planned) */
+	private final int[] selectedWindows;
+	/** Slice task owning each unplanned candidate acquisition during the current repair (-1 if none) */
+	private final int[] owners;
+	/** Number of candidate acquisitions of the problem */
+	private final int nCandidates;
+	/** Score of the current plan, updated when the result of an iteration is accepted */
+	private final PlanScore planScore;
+
+	/** Improvement trace (one line per improvement of the score) */
+	private final List<String> trace;
+	/** Number of iterations and of accepted iterations of the last search */
+	private long nIterations;
+	private long nAccepted;
+	/** Upper bounds used for stopping the search when the score gap is small (null if not used) */
+	private AcquisitionUpperBounds upperBounds;
+	/** Score gap below which the search stops */
+	private double gapTolerance;
+
+	/**
+	 * Build a large neighbourhood search planner starting from an existing acquisition plan
+	 * @param plan initial acquisition plan (all its acquisitions must be feasible together)
+	 */
+	public AcquisitionPlannerLNS(SolutionPlan plan){
+		this.planningProblem = plan.pb;
+		int nSatellites = planningProblem.satellites.size();
+		nCandidates = planningProblem.candidateAcquisitions.size();
+
+		satellitePlans = new SatellitePlan[nSatellites];
+		for(Satellite satellite : planningProblem.satellites)
+			satellitePlans[satellite.idx] = new SatellitePlan(planningProblem, satellite);
+
+		// windows of each satellite sorted by earliest start time
+		AcquisitionWindow[] sorted = planningProblem.acquisitionWindows.toArray(new AcquisitionWindow[planningProblem.acquisitionWindows.size()]);
+		Arrays.sort(sorted, new Comparator<AcquisitionWindow>(){
+			@Override
+			public int compare(AcquisitionWindow w0, AcquisitionWindow w1) {
+				return Double.compare(w0.earliestStart, w1.earliestStart);
+			}
+		});
+		int[] nWindows = new int[nSatellites];
+		for(AcquisitionWindow w : sorted)
+			nWindows[w.satellite.idx]++;
+		satelliteWindows = new int[nSatellites][];
+		satelliteEarliestStarts = new double[nSatellites][];
+		for(int s=0;s<nSatellites;s++){
+			satelliteWindows[s] = new int[nWindows[s]];
+			satelliteEarliestStarts[s] = new double[nWindows[s]];
+		}
+		int[] fill = new int[nSatellites];
+		for(AcquisitionWindow w : sorted){
+			int s = w.satellite.idx;
+			satelliteWindows[s][fill[s]] = w.idx;
+			satelliteEarliestStarts[s][fill[s]++] = w.earliestStart;
+		}
+
+		// initial plan
+		selectedWindows = new int[nCandidates];
+		Arrays.fill(selectedWindows, -1);
+		owners = new int[nCandidates];
+		Arrays.fill(owners, -1);
+		planScore = new PlanScore(planningProblem);
+		for(int i=0;i<plan.getNumberOfPlannedAcquisitions();i++){
+			CandidateAcquisition a = plan.getPlannedAcquisition(i);
+			AcquisitionWindow w = plan.getSelectedAcquisitionWindow(a);
+			if(!satellitePlans[w.satellite.idx].add(w))
+				throw new IllegalArgumentException("Initial plan infeasible: " + w);
+			selectedWindows[a.idx] = w.idx;
+			planScore.add(w);
+		}
+		trace = new ArrayList<String>();
+	}
+
+	/**
+	 * Stop the next searches as soon as the gap between the score and its upper bound is below a given tolerance.
+	 * The Lagrangian bound only holds for windows realized by increasing earliest start time, but so do all the plans
+	 * this search can reach, as they are built with SatellitePlan: no better plan is missed by stopping.
+	 * @param upperBounds
+	 * @param gapTolerance
+	 */
+	public void setUpperBounds(AcquisitionUpperBounds upperBounds, double gapTolerance){
+		this.upperBounds = upperBounds;
+		this.gapTolerance = gapTolerance;
+	}
+
+	/**
+	 * @return true if the gap between the current score and its upper bound is below the tolerance
+	 */
+	private boolean isGapClosed(){
+		return upperBounds != null && upperBounds.getScoreGap(getScore()) <= gapTolerance;
+	}
+
+	/**
+	 * Improve the plan by large neighbourhood search
+	 * @param timeBudget wall-clock time budget (in seconds)
+	 * @param nSlices number of time slices destroyed at each iteration
+	 * @param sliceDuration duration of each time slice (in seconds)
+	 * @param rand random generator used for choosing slices and repair noises
+	 * @param nThreads number of threads used for repairing slices
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public void improve(double timeBudget, int nSlices, double sliceDuration, Random rand, int nThreads) throws InterruptedException, ExecutionException{
+		long startTime = System.nanoTime();
+		long endTime = startTime + (long) (timeBudget * 1e9);
+		double bestScore = getScore();
+		nIterations = 0;
+		nAccepted = 0;
+		addTraceLine(0, bestScore);
+		int nSatellites = satellitePlans.length;
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+		try {
+			while(System.nanoTime() < endTime && !isGapClosed()){
+				nIterations++;
+
+				// choose the slices, grouped by satellite (one repair task per satellite)
+				SliceTask[] tasksBySatellite = new SliceTask[nSatellites];
+				for(int k=0;k<nSlices;k++){
+					int s = rand.nextInt(nSatellites);
+					double start = planningProblem.getHorizonStart() + rand.nextDouble() * Math.max(0, planningProblem.getHorizonEnd() - planningProblem.getHorizonStart() - sliceDuration);
+					if(tasksBySatellite[s] == null)
+						tasksBySatellite[s] = new SliceTask(s, rand.nextLong());
+					tasksBySatellite[s].addSlice(start, start + sliceDuration);
+				}
+				List<SliceTask> tasks = new ArrayList<SliceTask>();
+				for(SliceTask task : tasksBySatellite){
+					if(task != null)
+						tasks.add(task);
+				}
+
+				// destroy, then give each unplanned acquisition to the first task which can realize it
+				for(SliceTask task : tasks)
+					task.destroy();
+				for(int t=0;t<tasks.size();t++)
+					tasks.get(t).collectRepairWindows(t);
+
+				// repair the slices of all satellites in parallel
+				for(Future<Void> future : executor.invokeAll(tasks))
+					future.get();
+
+				int deltaPlanned = 0;
+				double deltaPriority = 0;
+				double deltaCloudProba = 0;
+				int[] deltaPlannedForUser = new int[planningProblem.users.size()];
+				for(SliceTask task : tasks){
+					deltaPlanned += task.deltaPlanned;
+					deltaPriority += task.deltaPriority;
+					deltaCloudProba += task.deltaCloudProba;
+					for(int u=0;u<deltaPlannedForUser.length;u++)
+						deltaPlannedForUser[u] += task.deltaPlannedForUser[u];
+				}
+				double currentScore = getScore();
+				double newScore = planScore.evaluateDelta(deltaPlanned, deltaPriority, deltaCloudProba, deltaPlannedForUser);
+				if(newScore >= currentScore){
+					nAccepted++;
+					for(SliceTask task : tasks)
+						task.commit();
+					if(newScore > bestScore){
+						bestScore = newScore;
+						addTraceLine(System.nanoTime() - startTime, newScore);
+					}
+				}
+				else {
+					// all repairs must be undone before restoring destroyed windows, as a window removed from a
+					// satellite may have been replaced by a window of the same acquisition on another satellite
+					for(SliceTask task : tasks)
+						task.undoRepair();
+					for(SliceTask task : tasks)
+						task.undoDestroy();
+				}
+				for(SliceTask task : tasks)
+					task.releaseOwnership();
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * @return the current score (planned fraction - mean priority - mean cloud probability with the weights of Params, the higher the better)
+	 */
+	public double getScore(){
+		return planScore.getValue();
+	}
+
+	/**
+	 * Destroy and repair task associated with the slices of one satellite
+	 */
+	private class SliceTask implements Callable<Void> {
+		/** Satellite index */
+		final int s;
+		/** Random generator used for the repair noises */
+		final Random rand;
+		/** Time slices of the satellite (start and end of each slice) */
+		double[] sliceStarts = new double[2];
+		double[] sliceEnds = new double[2];
+		int nSlices;
+		/** Windows removed from the plan by the destroy step */
+		int[] removed = new int[16];
+		int nRemoved;
+		/** Windows considered by the repair step */
+		int[] repairWindows = new int[16];
+		int nRepairWindows;
+		/** Windows inserted by the repair step */
+		int[] inserted;
+		int nInserted;
+		/** Index of this task in the current iteration */
+		int taskIdx;
+		/** Variations of the number of planned acquisitions and of the running sums */
+		int deltaPlanned;
+		double deltaPriority;
+		double deltaCloudProba;
+		/** Variation of the number of planned acquisitions of each user (indexed by user idx) */
+		final int[] deltaPlannedForUser = new int[planningProblem.users.size()];
+
+		SliceTask(int s, long seed){
+			this.s = s;
+			this.rand = new Random(seed);
+		}
+
+		void addSlice(double start, double end){
+			if(nSlices == sliceStarts.length){
+				sliceStarts = Arrays.copyOf(sliceStarts, 2*nSlices);
+				sliceEnds = Arrays.copyOf(sliceEnds, 2*nSlices);
+			}
+			sliceStarts[nSlices] = start;
+			sliceEnds[nSlices++] = end;
+		}
+
+		boolean inSlices(double t){
+			for(int k=0;k<nSlices;k++){
+				if(t >= sliceStarts[k] && t <= sliceEnds[k])
+					return true;
+			}
+			return false;
+		}
+
+		/**
+		 * Remove from the plan of the satellite all windows starting in the slices
+		 */
+		void destroy(){
+			SatellitePlan plan = satellitePlans[s];
+			nRemoved = 0;
+			for(int i=0;i<plan.size();i++){
+				if(inSlices(plan.getStart(i))){
+					if(nRemoved == removed.length)
+						removed = Arrays.copyOf(removed, 2*nRemoved);
+					removed[nRemoved++] = plan.getAcqWindowIdx(i);
+				}
+			}
+			deltaPlanned = 0;
+			deltaPriority = 0;
+			deltaCloudProba = 0;
+			Arrays.fill(deltaPlannedForUser, 0);
+			for(int k=0;k<nRemoved;k++){
+				AcquisitionWindow w = planningProblem.getAcquisitionWindow(removed[k]);
+				plan.remove(w);
+				selectedWindows[w.candidateAcquisition.idx] = -1;
+				deltaPlanned--;
+				deltaPriority -= w.candidateAcquisition.priority;
+				deltaCloudProba -= w.cloudProba;
+				deltaPlannedForUser[w.candidateAcquisition.user.idx]--;
+			}
+		}
+
+		/**
+		 * Collect the windows of the satellite starting in the slices whose acquisition is unplanned and not owned by another task
+		 * @param taskIdx
+		 */
+		void collectRepairWindows(int taskIdx){
+			this.taskIdx = taskIdx;
+			nRepairWindows = 0;
+			int[] windows = satelliteWindows[s];
+			double[] starts = satelliteEarliestStarts[s];
+			for(int k=0;k<nSlices;k++){
+				for(int i=lowerBound(starts, sliceStarts[k]);i<windows.length && starts[i] <= sliceEnds[k];i++){
+					AcquisitionWindow w = planningProblem.getAcquisitionWindow(windows[i]);
+					int a = w.candidateAcquisition.idx;
+					if(selectedWindows[a] >= 0 || (owners[a] >= 0 && owners[a] != taskIdx))
+						continue;
+					owners[a] = taskIdx;
+					if(nRepairWindows == repairWindows.length)
+						repairWindows = Arrays.copyOf(repairWindows, 2*nRepairWindows);
+					repairWindows[nRepairWindows++] = windows[i];
+				}
+			}
+		}
+
+		/**
+		 * Repair step: greedy insertion of the windows collected, by increasing noisy key, as long as insertions improve the score
+		 */
+		@Override
+		public Void call() {
+			SatellitePlan plan = satellitePlans[s];
+			double[] keys = new double[nRepairWindows];
+			Integer[] order = new Integer[nRepairWindows];
+			for(int i=0;i<nRepairWindows;i++){
+				AcquisitionWindow w = planningProblem.getAcquisitionWindow(repairWindows[i]);
+				keys[i] = w.candidateAcquisition.priority + Params.priorityCloudProbaWeight * w.cloudProba + Params.lnsRepairNoise * rand.nextDouble();
+				order[i] = i;
+			}
+			final double[] sortKeys = keys;
+			Arrays.sort(order, new Comparator<Integer>(){
+				@Override
+				public int compare(Integer i0, Integer i1) {
+					return Double.compare(sortKeys[i0], sortKeys[i1]);
+				}
+			});
+			inserted = new int[nRepairWindows];
+			nInserted = 0;
+			for(int i : order){
+				AcquisitionWindow w = planningProblem.getAcquisitionWindow(repairWindows[i]);
+				CandidateAcquisition a = w.candidateAcquisition;
+				if(selectedWindows[a.idx] >= 0) // acquisitions owned by this task only
+					continue;
+				// only insert windows which improve the score (estimated from the variations due to this task only)
+				double value = planScore.evaluateDelta(deltaPlanned, deltaPriority, deltaCloudProba, deltaPlannedForUser);
+				deltaPlannedForUser[a.user.idx]++;
+				double newValue = planScore.evaluateDelta(deltaPlanned+1, deltaPriority+a.priority, deltaCloudProba+w.cloudProba, deltaPlannedForUser);
+				if(newValue < value || !plan.add(w)){
+					deltaPlannedForUser[a.user.idx]--;
+					continue;
+				}
+				selectedWindows[a.idx] = w.idx;
+				inserted[nInserted++] = w.idx;
+				deltaPlanned++;
+				deltaPriority += a.priority;
+				deltaCloudProba += w.cloudProba;
+			}
+			return null;
+		}
+
+		/**
+		 * Account in the score of the plan for the windows removed and inserted by this task (once the iteration is accepted)
+		 */
+		void commit(){
+			for(int k=0;k<nRemoved;k++)
+				planScore.remove(planningProblem.getAcquisitionWindow(removed[k]));
+			for(int k=0;k<nInserted;k++)
+				planScore.add(planningProblem.getAcquisitionWindow(inserted[k]));
+		}
+
+		/**
+		 * Remove from the plan of the satellite the windows inserted by the repair step
+		 */
+		void undoRepair(){
+			SatellitePlan plan = satellitePlans[s];
+			for(int k=0;k<nInserted;k++){
+				AcquisitionWindow w = planningProblem.getAcquisitionWindow(inserted[k]);
+				plan.remove(w);
+				selectedWindows[w.candidateAcquisition.idx] = -1;
+			}
+		}
+
+		/**
+		 * Restore in the plan of the satellite the windows removed by the destroy step
+		 */
+		void undoDestroy(){
+			SatellitePlan plan = satellitePlans[s];
+			for(int k=0;k<nRemoved;k++){
+				AcquisitionWindow w = planningProblem.getAcquisitionWindow(removed[k]);
+				if(!plan.add(w))
+					throw new IllegalStateException("Cannot restore window " + w);
+				selectedWindows[w.candidateAcquisition.idx] = w.idx;
+			}
+		}
+
+		/**
+		 * Release the acquisitions owned by this task
+		 */
+		void releaseOwnership(){
+			for(int i=0;i<nRepairWindows;i++)
+				owners[planningProblem.getAcquisitionWindow(repairWindows[i]).candidateAcquisition.idx] = -1;
+		}
+	}
+
+	/**
+	 * @param values sorted values
+	 * @param value
+	 * @return the first position whose value is greater than or equal to a given value
+	 */
+	private static int lowerBound(double[] values, double value){
+		int lo = 0;
+		int hi = values.length;
+		while(lo < hi){
+			int mid = (lo + hi) >>> 1;
+			if(values[mid] < value)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	private void addTraceLine(long elapsedNanos, double score){
+		trace.add(elapsedNanos / 1e6 + " " + nIterations + " " + planScore.getNumberOfPlanned() + " " + planScore.getMeanPriority()
+				+ " " + planScore.getMeanCloudProba() + " " + score);
+	}
+
+	/**
+	 * @return the solution plan corresponding to the current acquisition plan
+	 */
+	public SolutionPlan getSolutionPlan(){
+		SolutionPlan plan = new SolutionPlan(planningProblem);
+		for(SatellitePlan satellitePlan : satellitePlans)
+			plan.addSatellitePlan(satellitePlan);
+		return plan;
+	}
+
+	/**
+	 * Print the statistics of the last search
+	 */
+	public void printStatistics(){
+		System.out.println("nPlanned: " + planScore.getNumberOfPlanned() + "/" + nCandidates + ", iterations: " + nIterations
+				+ " (" + nAccepted + " accepted), score: " + getScore());
+	}
+
+	/**
+	 * Write the improvement trace in a file, one line per improvement:
+	 * elapsed time (ms), iteration, number of planned acquisitions, mean priority, mean cloud probability, score
+	 * @param traceFilename
+	 * @throws IOException
+	 */
+	public void writeTrace(String traceFilename) throws IOException{
+		PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(traceFilename, false)));
+		for(String line : trace)
+			writer.write(line + "\n");
+		writer.flush();
+		writer.close();
+	}
+
+	/**
+	 * Write the acquisition plan of a given satellite in a file
+	 * @param satellite
+	 * @param solutionFilename
+	 * @throws IOException
+	 */
+	public void writePlan(Satellite satellite, String solutionFilename) throws IOException{
+		satellitePlans[satellite.idx].writePlan(solutionFilename);
+	}
+
+	public static void main(String[] args) throws XMLStreamException, FactoryConfigurationError, IOException, InterruptedException, ExecutionException{
+		ProblemParserXML parser = new ProblemParserXML();
+		PlanningProblem pb = parser.read(Params.systemDataFile,Params.planningDataFile);
+		// start from the acquisition plan produced by a greedy planner
+		SolutionPlan plan = new SolutionPlan(pb);
+		for(Satellite satellite : pb.satellites)
+			plan.readAcquisitionPlan("output/solutionAcqPlan_"+satellite.name+".txt");
+		AcquisitionPlannerLNS planner = new AcquisitionPlannerLNS(plan);
+		AcquisitionUpperBounds upperBounds = new AcquisitionUpperBounds(pb);
+		upperBounds.computeLagrangianBound(Params.upperBoundIterations, Params.n_threads);
+		planner.setUpperBounds(upperBounds, Params.scoreGapTolerance);
+		planner.improve(Params.lnsTimeBudget, Params.lnsNumberOfSlices, Params.lnsSliceDuration, new Random(Params.randomSeed), Params.n_threads);
+		planner.printStatistics();
+		upperBounds.printGap(planner.getSolutionPlan());
+		planner.writeTrace("output/lnsTrace.txt");
+		for(Satellite satellite : pb.satellites)
+			planner.writePlan(satellite, "output/solutionAcqPlan_"+satellite.name+".txt");
+		System.out.println("Acquisition planning done");
+	}
+
+}
@@ -0,0 +1,474 @@
+package solver;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+
+import javax.xml.stream.FactoryConfigurationError;
+import javax.xml.stream.XMLStreamException;
+
+import params.Params;
+import problem.AcquisitionWindow;
+import problem.CandidateAcquisition;
+import problem.PlanningProblem;
+import problem.ProblemParserXML;
+import problem.Satellite;
+
+/**
+ * Anytime acquisition planner which improves an existing acquisition plan (typically produced by a greedy planner)
+ * by local search, until a wall-clock time budget is exhausted.
+ * At each iteration, one of the following moves is randomly chosen and applied:
+ * - insert: insert an unplanned candidate acquisition in one of its windows;
+ * - remove-and-reinsert: remove a planned window and greedily insert unplanned acquisitions having windows around it on the same satellite;
+ * - swap-window: realize a planned acquisition in one of its windows on another satellite;
+ * - shift: realize a planned acquisition in another of its windows on the same satellite.
+ * Feasibility is checked incrementally by the satellite plans, and the score of a move is computed in constant time
+ * from running sums (number of planned acquisitions, sum of priorities, sum of cloud probabilities), using the same criteria
+ * as the random process planner (planned fraction, mean priority, mean cloud probability, see PlanScore). When the
+ * quota weight of Params is positive, moves are also evaluated on the quota excess of the users, so that the search
+ * favours plans respecting the user quotas.
+ * Moves which decrease the score are undone. Each improvement of the best score is recorded in a trace.
+ * @author cpralet
+ *
+ */
+public class AcquisitionPlannerLocalSearch {
+
+	/** Planning problem for which this acquisition planner is used */
+	private final PlanningProblem planningProblem;
+	/** Plan of each satellite (indexed by satellite idx) */
+	private final SatellitePlan[] satellitePlans;
+	/** Acquisition windows of each satellite (indexed by satellite idx), sorted by increasing earliest start time */
+	private final int[][] satelliteWindows;
+	/** Earliest start times of the acquisition windows of each satellite (same order as satelliteWindows) */
+	private final double[][] satelliteEarliestStarts;
+	/** Largest distance between the earliest start time and the end of the latest acquisition, for each satellite */
+	private final double[] maxWindowSpans;
+	/** Index of the window selected for each candidate acquisition (-1 if the acquisition is not planned) */
+	private final int[] selectedWindows;
+	/** Planned candidate acquisitions */
+	private final IntSet planned;
+	/** Unplanned candidate acquisitions having at least one acquisition window */
+	private final IntSet unplanned;
+	/** Number of candidate acquisitions of the problem */
+	private final int nCandidates;
+	/** Score of the current plan, updated at each selection and unselection */
+	private final PlanScore planScore;
+
+	/** Improvement trace (one line per improvement of the score) */
+	private final List<String> trace;
+	/** Number of iterations of the last search */
+	private long nIterations;
+	/** Upper bounds used for stopping the search when the score gap is small (null if not used) */
+	private AcquisitionUpperBounds upperBounds;
+	/** Score gap below which the search stops */
+	private double gapTolerance;
+	/** Number of moves tried and accepted, per type of move */
+	private final long[] nTried;
+	private final long[] nAccepted;
+
+	private static final int INSERT = 0;
+	private static final int REMOVE_REINSERT = 1;
+	private static final int SWAP_WINDOW = 2;
+	private static final int SHIFT = 3;
+	private static final String[] MOVE_NAMES = {"insert", "remove-reinsert", "swap-window", "shift"};
+
+	/**
+	 * Build a local search planner starting from an existing acquisition plan
+	 * @param plan initial acquisition plan (all its acquisitions must be feasible together)
+	 */
+	public AcquisitionPlannerLocalSearch(SolutionPlan plan){
+		this.planningProblem = plan.pb;
+		int nSatellites = planningProblem.satellites.size();
+		nCandidates = planningProblem.candidateAcquisitions.size();
+
+		satellitePlans = new SatellitePlan[nSatellites];
+		for(Satellite satellite : planningProblem.satellites)
+			satellitePlans[satellite.idx] = new SatellitePlan(planningProblem, satellite);
+
+		// windows of each satellite sorted by earliest start time
+		List<List<AcquisitionWindow>> windowsBySatellite = new ArrayList<List<AcquisitionWindow>>();
+		for(int s=0;s<nSatellites;s++)
+			windowsBySatellite.add(new ArrayList<AcquisitionWindow>());
+		for(AcquisitionWindow w : planningProblem.acquisitionWindows)
+			windowsBySatellite.get(w.satellite.idx).add(w);
+		satelliteWindows = new int[nSatellites][];
+		satelliteEarliestStarts = new double[nSatellites][];
+		maxWindowSpans = new double[nSatellites];
+		for(int s=0;s<nSatellites;s++){
+			List<AcquisitionWindow> windows = windowsBySatellite.get(s);
+			double[] starts = new double[windows.size()];
+			AcquisitionWindow[] sorted = windows.toArray(new AcquisitionWindow[windows.size()]);
+			Arrays.sort(sorted, new Comparator<AcquisitionWindow>(){
+				@Override
+				public int compare(AcquisitionWindow w0, AcquisitionWindow w1) {
+					return Double.compare(w0.earliestStart, w1.earliestStart);
+				}
+			});
+			satelliteWindows[s] = new int[sorted.length];
+			for(int i=0;i<sorted.length;i++){
+				satelliteWindows[s][i] = sorted[i].idx;
+				starts[i] = sorted[i].earliestStart;
+				maxWindowSpans[s] = Math.max(maxWindowSpans[s], sorted[i].latestStart + sorted[i].duration - sorted[i].earliestStart);
+			}
+			satelliteEarliestStarts[s] = starts;
+		}
+
+		// initial plan
+		selectedWindows = new int[nCandidates];
+		Arrays.fill(selectedWindows, -1);
+		planned = new IntSet(nCandidates);
+		unplanned = new IntSet(nCandidates);
+		planScore = new PlanScore(planningProblem);
+		for(int i=0;i<plan.getNumberOfPlannedAcquisitions();i++){
+			CandidateAcquisition a = plan.getPlannedAcquisition(i);
+			AcquisitionWindow w = plan.getSelectedAcquisitionWindow(a);
+			if(!satellitePlans[w.satellite.idx].add(w))
+				throw new IllegalArgumentException("Initial plan infeasible: " + w);
+			select(a, w);
+		}
+		for(CandidateAcquisition a : planningProblem.candidateAcquisitions){
+			if(selectedWindows[a.idx] < 0 && !a.acquisitionWindows.isEmpty())
+				unplanned.add(a.idx);
+		}
+
+		trace = new ArrayList<String>();
+		nTried = new long[MOVE_NAMES.length];
+		nAccepted = new long[MOVE_NAMES.length];
+	}
+
+	/**
+	 * Stop the next searches as soon as the gap between the score and its upper bound is below a given tolerance.
+	 * The Lagrangian bound only holds for windows realized by increasing earliest start time, but so do all the plans
+	 * this search can reach, as they are built with SatellitePlan: no better plan is missed by stopping.
+	 * @param upperBounds
+	 * @param gapTolerance
+	 */
+	public void setUpperBounds(AcquisitionUpperBounds upperBounds, double gapTolerance){
+		this.upperBounds = upperBounds;
+		this.gapTolerance = gapTolerance;
+	}
+
+	/**
+	 * @return true if the gap between the current score and its upper bound is below the tolerance
+	 */
+	private boolean isGapClosed(){
+		return upperBounds != null && upperBounds.getScoreGap(getScore()) <= gapTolerance;
+	}
+
+	/**
+	 * Improve the plan by local search
+	 * @param timeBudget wall-clock time budget (in seconds)
+	 * @param rand random generator used for choosing moves
+	 */
+	public void improve(double timeBudget, Random rand){
+		long startTime = System.nanoTime();
+		long endTime = startTime + (long) (timeBudget * 1e9);
+		double bestScore = getScore();
+		nIterations = 0;
+		addTraceLine(0, bestScore);
+		while(System.nanoTime() < endTime && !isGapClosed()){
+			nIterations++;
+			double r = rand.nextDouble();
+			int move = r < 0.4 ? INSERT : r < 0.7 ? REMOVE_REINSERT : r < 0.85 ? SWAP_WINDOW : SHIFT;
+			boolean accepted;
+			switch(move){
+			case INSERT: accepted = insertMove(rand); break;
+			case REMOVE_REINSERT: accepted = removeReinsertMove(rand); break;
+			case SWAP_WINDOW: accepted = changeWindowMove(rand, false); break;
+			default: accepted = changeWindowMove(rand, true); break;
+			}
+			nTried[move]++;
+			if(accepted){
+				nAccepted[move]++;
+				double score = getScore();
+				if(score > bestScore){
+					bestScore = score;
+					addTraceLine(System.nanoTime() - startTime, score);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the current score (planned fraction - mean priority - mean cloud probability with the weights of Params, the higher the better)
+	 */
+	public double getScore(){
+		return planScore.getValue();
+	}
+
+	/**
+	 * Insert a random unplanned acquisition in its best feasible window (if this improves the score)
+	 * @param rand
+	 * @return true if the move has been applied
+	 */
+	private boolean insertMove(Random rand){
+		if(unplanned.size() == 0)
+			return false;
+		CandidateAcquisition a = planningProblem.getCandidateAcquisition(unplanned.get(rand.nextInt(unplanned.size())));
+		AcquisitionWindow best = null;
+		for(AcquisitionWindow w : a.acquisitionWindows){
+			if((best == null || w.cloudProba < best.cloudProba) && satellitePlans[w.satellite.idx].canAdd(w))
+				best = w;
+		}
+		if(best == null)
+			return false;
+		double delta = planScore.evaluateChange(null, best) - getScore();
+		if(delta < 0)
+			return false;
+		satellitePlans[best.satellite.idx].add(best);
+		select(a, best);
+		return true;
+	}
+
+	/**
+	 * Remove a random planned window, then greedily insert unplanned acquisitions whose windows are close to it on the
+	 * same satellite (the removed acquisition being tried last). The move is undone if the score decreases.
+	 * @param rand
+	 * @return true if the move has been applied
+	 */
+	private boolean removeReinsertMove(Random rand){
+		if(planned.size() == 0)
+			return false;
+		double score = getScore();
+		CandidateAcquisition removed = planningProblem.getCandidateAcquisition(planned.get(rand.nextInt(planned.size())));
+		AcquisitionWindow removedWindow = planningProblem.getAcquisitionWindow(selectedWindows[removed.idx]);
+		int s = removedWindow.satellite.idx;
+		SatellitePlan plan = satellitePlans[s];
+		plan.remove(removedWindow);
+		unselect(removed);
+
+		// windows of the satellite which may use the room freed, tried in random order
+		int from = lowerBound(satelliteEarliestStarts[s], removedWindow.earliestStart - maxWindowSpans[s]);
+		int to = lowerBound(satelliteEarliestStarts[s], removedWindow.latestStart + removedWindow.duration + maxWindowSpans[s]);
+		int[] neighbourhood = Arrays.copyOfRange(satelliteWindows[s], from, to);
+		for(int i=neighbourhood.length;i>1;i--){
+			int j = rand.nextInt(i);
+			int tmp = neighbourhood[i-1];
+			neighbourhood[i-1] = neighbourhood[j];
+			neighbourhood[j] = tmp;
+		}
+		int[] inserted = new int[neighbourhood.length];
+		int nInserted = 0;
+		for(int windowIdx : neighbourhood){
+			AcquisitionWindow w = planningProblem.getAcquisitionWindow(windowIdx);
+			if(w.candidateAcquisition == removed || selectedWindows[w.candidateAcquisition.idx] >= 0)
+				continue;
+			if(plan.add(w)){
+				select(w.candidateAcquisition, w);
+				inserted[nInserted++] = windowIdx;
+			}
+		}
+		if(plan.add(removedWindow))
+			select(removed, removedWindow);
+
+		if(nInserted > 0 && getScore() >= score)
+			return true;
+
+		// undo the move
+		for(int k=0;k<nInserted;k++){
+			AcquisitionWindow w = planningProblem.getAcquisitionWindow(inserted[k]);
+			plan.remove(w);
+			unselect(w.candidateAcquisition);
+		}
+		if(selectedWindows[removed.idx] < 0){
+			plan.add(removedWindow);
+			select(removed, removedWindow);
+		}
+		return false;
+	}
+
+	/**
+	 * Realize a random planned acquisition in another of its windows, either on another satellite (swap-window move)
+	 * or on the same satellite (shift move), if this does not decrease the score
+	 * @param rand
+	 * @param sameSatellite
+	 * @return true if the move has been applied
+	 */
+	private boolean changeWindowMove(Random rand, boolean sameSatellite){
+		if(planned.size() == 0)
+			return false;
+		CandidateAcquisition a = planningProblem.getCandidateAcquisition(planned.get(rand.nextInt(planned.size())));
+		int nWindows = a.acquisitionWindows.size();
+		if(nWindows < 2)
+			return false;
+		AcquisitionWindow current = planningProblem.getAcquisitionWindow(selectedWindows[a.idx]);
+		AcquisitionWindow target = a.acquisitionWindows.get(rand.nextInt(nWindows));
+		if(target == current || (target.satellite == current.satellite) != sameSatellite)
+			return false;
+		double delta = planScore.evaluateChange(current, target) - getScore();
+		if(delta < 0)
+			return false;
+		SatellitePlan currentPlan = satellitePlans[current.satellite.idx];
+		SatellitePlan targetPlan = satellitePlans[target.satellite.idx];
+		if(!sameSatellite && !targetPlan.canAdd(target))
+			return false;
+		currentPlan.remove(current);
+		unselect(a);
+		if(targetPlan.add(target)){
+			select(a, target);
+			return true;
+		}
+		currentPlan.add(current);
+		select(a, current);
+		return false;
+	}
+
+	/**
+	 * Record the selection of a window for a candidate acquisition
+	 * @param a
+	 * @param w
+	 */
+	private void select(CandidateAcquisition a, AcquisitionWindow w){
+		selectedWindows[a.idx] = w.idx;
+		unplanned.remove(a.idx);
+		planned.add(a.idx);
+		planScore.add(w);
+	}
+
+	/**
+	 * Record the removal of a candidate acquisition from the plan
+	 * @param a
+	 */
+	private void unselect(CandidateAcquisition a){
+		AcquisitionWindow w = planningProblem.getAcquisitionWindow(selectedWindows[a.idx]);
+		selectedWindows[a.idx] = -1;
+		planned.remove(a.idx);
+		unplanned.add(a.idx);
+		planScore.remove(w);
+	}
+
+	/**
+	 * @param values sorted values
+	 * @param value
+	 * @return the first position whose value is greater than or equal to a given value
+	 */
+	private static int lowerBound(double[] values, double value){
+		int lo = 0;
+		int hi = values.length;
+		while(lo < hi){
+			int mid = (lo + hi) >>> 1;
+			if(values[mid] < value)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	private void addTraceLine(long elapsedNanos, double score){
+		trace.add(elapsedNanos / 1e6 + " " + nIterations + " " + planScore.getNumberOfPlanned() + " " + planScore.getMeanPriority()
+				+ " " + planScore.getMeanCloudProba() + " " + score);
+	}
+
+	/**
+	 * @return the solution plan corresponding to the current acquisition plan
+	 */
+	public SolutionPlan getSolutionPlan(){
+		SolutionPlan plan = new SolutionPlan(planningProblem);
+		for(SatellitePlan satellitePlan : satellitePlans)
+			plan.addSatellitePlan(satellitePlan);
+		return plan;
+	}
+
+	/**
+	 * Print the statistics of the last search
+	 */
+	public void printStatistics(){
+		System.out.println("nPlanned: " + planned.size() + "/" + nCandidates + ", iterations: " + nIterations + ", score: " + getScore());
+		for(int move=0;move<MOVE_NAMES.length;move++)
+			System.out.println("\t" + MOVE_NAMES[move] + ": " + nAccepted[move] + "/" + nTried[move] + " accepted");
+	}
+
+	/**
+	 * Write the improvement trace in a file, one line per improvement:
+	 * elapsed time (ms), iteration, number of planned acquisitions, mean priority, mean cloud probability, score
+	 * @param traceFilename
+	 * @throws IOException
+	 */
+	public void writeTrace(String traceFilename) throws IOException{
+		PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(traceFilename, false)));
+		for(String line : trace)
+			writer.write(line + "\n");
+		writer.flush();
+		writer.close();
+	}
+
+	/**
+	 * Write the acquisition plan of a given satellite in a file
+	 * @param satellite
+	 * @param solutionFilename
+	 * @throws IOException
+	 */
+	public void writePlan(Satellite satellite, String solutionFilename) throws IOException{
+		satellitePlans[satellite.idx].writePlan(solutionFilename);
+	}
+
+	/**
+	 * Set of integers in [0,n) supporting constant-time insertion, removal and random access
+	 */
+	private static class IntSet {
+		private final int[] elements;
+		private final int[] positions;
+		private int size;
+
+		IntSet(int n){
+			elements = new int[n];
+			positions = new int[n];
+			Arrays.fill(positions, -1);
+			size = 0;
+		}
+
+		int size(){
+			return size;
+		}
+
+		int get(int i){
+			return elements[i];
+		}
+
+		void add(int value){
+			if(positions[value] >= 0)
+				return;
+			positions[value] = size;
+			elements[size++] = value;
+		}
+
+		void remove(int value){
+			int pos = positions[value];
+			if(pos < 0)
+				return;
+			int last = elements[--size];
+			elements[pos] = last;
+			positions[last] = pos;
+			positions[value] = -1;
+		}
+	}
+
+	public static void main(String[] args) throws XMLStreamException, FactoryConfigurationError, IOException, InterruptedException, ExecutionException{
+		ProblemParserXML parser = new ProblemParserXML();
+		PlanningProblem pb = parser.read(Params.systemDataFile,Params.planningDataFile);
+		// start from the acquisition plan produced by a greedy planner
+		SolutionPlan plan = new SolutionPlan(pb);
+		for(Satellite satellite : pb.satellites)
+			plan.readAcquisitionPlan("output/solutionAcqPlan_"+satellite.name+".txt");
+		AcquisitionPlannerLocalSearch planner = new AcquisitionPlannerLocalSearch(plan);
+		AcquisitionUpperBounds upperBounds = new AcquisitionUpperBounds(pb);
+		upperBounds.computeLagrangianBound(Params.upperBoundIterations, Params.n_threads);
+		planner.setUpperBounds(upperBounds, Params.scoreGapTolerance);
+		planner.improve(Params.localSearchTimeBudget, new Random(Params.randomSeed));
+		planner.printStatistics();
+		upperBounds.printGap(planner.getSolutionPlan());
+		planner.writeTrace("output/localSearchTrace.txt");
+		for(Satellite satellite : pb.satellites)
+			planner.writePlan(satellite, "output/solutionAcqPlan_"+satellite.name+".txt");
+		System.out.println("Acquisition planning done");
+	}
+
+}
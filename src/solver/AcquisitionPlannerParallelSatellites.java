@@ -0,0 +1,336 @@
+package solver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import javax.xml.stream.FactoryConfigurationError;
+import javax.xml.stream.XMLStreamException;
+
+import params.Params;
+import problem.AcquisitionWindow;
+import problem.PlanningProblem;
+import problem.ProblemParserXML;
+import problem.Satellite;
+import problem.SortedWindowIndex;
+
+/**
+ * Acquisition planner which plans all satellites in parallel, one worker per satellite.
+ * Each worker greedily inserts the windows of its satellite in increasing order of priority and cloud probability
+ * (order of the window index of the problem). The only coupling between satellites is that a candidate acquisition
+ * must be realized at most once: workers claim candidate acquisitions in a lock-free claim array, in which each
+ * worker writes the position of its window in the window index whenever this position is smaller than the current
+ * claim (atomic minimum).
+ * Planning proceeds by rounds. During a round, each worker tentatively inserts windows and claims their candidate
+ * acquisitions; then each worker keeps the windows whose claim has been won and removes the others. Workers which
+ * lost some windows scan their windows again in the next round. As the winner of a candidate acquisition is the window
+ * with the best position, and as each round only depends on the state reached at the end of the previous round, the
+ * plan obtained does not depend on the number of threads nor on the scheduling of the workers.
+ * @author cpralet
+ *
+ */
+public class AcquisitionPlannerParallelSatellites {
+
+	/** Claim value of a candidate acquisition which is not claimed */
+	private static final int NOT_CLAIMED = Integer.MAX_VALUE;
+
+	/** Planning problem for which this acquisition planner is used */
+	private final PlanningProblem planningProblem;
+	/** Ordering of the acquisition windows by priority and cloud probability */
+	private final SortedWindowIndex windowIndex;
+	/** Plan of each satellite (indexed by satellite idx) */
+	private final SatellitePlan[] satellitePlans;
+	/** Worker associated with each satellite (indexed by satellite idx) */
+	private final Worker[] workers;
+	/** Best position (in the window index) of a window claiming each candidate acquisition */
+	private final AtomicIntegerArray claims;
+	/** Candidate acquisitions definitively assigned to a satellite (only modified between two phases) */
+	private final BitSet committed;
+	/** Number of rounds of the last planning */
+	private int nRounds;
+
+	/**
+	 * Build an acquisition planner for a planning problem
+	 * @param planningProblem
+	 */
+	public AcquisitionPlannerParallelSatellites(PlanningProblem planningProblem){
+		this.planningProblem = planningProblem;
+		windowIndex = planningProblem.getSortedWindowIndex();
+		int nSatellites = planningProblem.satellites.size();
+
+		// windows of each satellite, in the order of the window index
+		int[] nWindows = new int[nSatellites];
+		for(AcquisitionWindow w : planningProblem.acquisitionWindows)
+			nWindows[w.satellite.idx]++;
+		int[][] positions = new int[nSatellites][];
+		for(int s=0;s<nSatellites;s++)
+			positions[s] = new int[nWindows[s]];
+		int[] fill = new int[nSatellites];
+		for(int pos=0;pos<windowIndex.size();pos++){
+			int s = planningProblem.getAcquisitionWindow(windowIndex.getWindowIdx(pos)).satellite.idx;
+			positions[s][fill[s]++] = pos;
+		}
+
+		satellitePlans = new SatellitePlan[nSatellites];
+		workers = new Worker[nSatellites];
+		for(Satellite satellite : planningProblem.satellites){
+			satellitePlans[satellite.idx] = new SatellitePlan(planningProblem, satellite);
+			workers[satellite.idx] = new Worker(satellitePlans[satellite.idx], positions[satellite.idx]);
+		}
+		claims = new AtomicIntegerArray(planningProblem.candidateAcquisitions.size());
+		committed = new BitSet(planningProblem.candidateAcquisitions.size());
+	}
+
+	/**
+	 * Planning function which runs the workers of all satellites in parallel
+	 * @param nThreads number of threads used
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public void planAcquisitions(int nThreads) throws InterruptedException, ExecutionException{
+		for(int i=0;i<claims.length();i++)
+			claims.set(i, NOT_CLAIMED);
+
+		List<Callable<Void>> proposals = new ArrayList<Callable<Void>>();
+		List<Callable<Void>> resolutions = new ArrayList<Callable<Void>>();
+		for(final Worker worker : workers){
+			proposals.add(new Callable<Void>(){
+				@Override
+				public Void call() {
+					worker.propose();
+					return null;
+				}
+			});
+			resolutions.add(new Callable<Void>(){
+				@Override
+				public Void call() {
+					worker.resolve();
+					return null;
+				}
+			});
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+		try {
+			nRounds = 0;
+			while(true){
+				runPhase(executor, proposals);
+				int nTentative = 0;
+				for(Worker worker : workers)
+					nTentative += worker.nTentative;
+				if(nTentative == 0)
+					break;
+				nRounds++;
+				runPhase(executor, resolutions);
+				// commit the candidate acquisitions won during this round
+				for(Worker worker : workers){
+					for(int k=0;k<worker.nWon;k++)
+						committed.set(worker.won[k]);
+				}
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+		System.out.println("nPlanned: " + committed.cardinality() + "/" + planningProblem.candidateAcquisitions.size());
+	}
+
+	/**
+	 * Run one phase of all workers and wait for the end of the phase
+	 * @param executor
+	 * @param tasks
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	private static void runPhase(ExecutorService executor, List<Callable<Void>> tasks) throws InterruptedException, ExecutionException{
+		for(Future<Void> future : executor.invokeAll(tasks))
+			future.get(); // propagate the exceptions raised by the workers
+	}
+
+	/**
+	 * Claim a candidate acquisition for the window placed at a given position in the window index
+	 * @param candidateIdx
+	 * @param pos
+	 * @return the number of failed compare-and-set operations
+	 */
+	private int claim(int candidateIdx, int pos){
+		int nFailures = 0;
+		while(true){
+			int current = claims.get(candidateIdx);
+			if(current <= pos || claims.compareAndSet(candidateIdx, current, pos))
+				return nFailures;
+			nFailures++;
+		}
+	}
+
+	/**
+	 * @return the number of rounds of the last planning
+	 */
+	public int getNumberOfRounds(){
+		return nRounds;
+	}
+
+	/**
+	 * @return the number of windows removed because their candidate acquisition was won by another satellite
+	 */
+	public long getContention(){
+		long n = 0;
+		for(Worker worker : workers)
+			n += worker.nLost;
+		return n;
+	}
+
+	/**
+	 * @return the number of insertion attempts on windows already tried during a previous round
+	 */
+	public long getRetries(){
+		long n = 0;
+		for(Worker worker : workers)
+			n += worker.nRetries;
+		return n;
+	}
+
+	/**
+	 * @return the number of failed compare-and-set operations on the claim array
+	 */
+	public long getClaimFailures(){
+		long n = 0;
+		for(Worker worker : workers)
+			n += worker.nClaimFailures;
+		return n;
+	}
+
+	/**
+	 * Print the statistics of the last planning
+	 */
+	public void printStatistics(){
+		System.out.println("Rounds: " + nRounds + ", contention: " + getContention() + " windows lost, retries: " + getRetries()
+				+ ", failed claims: " + getClaimFailures());
+	}
+
+	/**
+	 * @return the solution plan corresponding to the current acquisition plan
+	 */
+	public SolutionPlan getSolutionPlan(){
+		SolutionPlan plan = new SolutionPlan(planningProblem);
+		for(SatellitePlan satellitePlan : satellitePlans)
+			plan.addSatellitePlan(satellitePlan);
+		return plan;
+	}
+
+	/**
+	 * Write the acquisition plan of a given satellite in a file
+	 * @param satellite
+	 * @param solutionFilename
+	 * @throws IOException
+	 */
+	public void writePlan(Satellite satellite, String solutionFilename) throws IOException{
+		satellitePlans[satellite.idx].writePlan(solutionFilename);
+	}
+
+	/**
+	 * Worker planning the acquisitions of one satellite
+	 */
+	private class Worker {
+		/** Plan of the satellite */
+		final SatellitePlan plan;
+		/** Positions in the window index of the windows of the satellite, in increasing order */
+		final int[] positions;
+		/** Candidate acquisitions currently realized in the plan of the satellite (tentatively or definitively) */
+		final BitSet held;
+		/** Windows (positions in the positions array) already tried during a previous round */
+		final BitSet tried;
+		/** Windows (positions in the positions array) tentatively inserted during the current round */
+		final int[] tentative;
+		int nTentative;
+		/** Candidate acquisitions won during the current round */
+		final int[] won;
+		int nWon;
+		/** True if the windows of the satellite must be scanned during the next round */
+		boolean dirty;
+		long nLost;
+		long nRetries;
+		long nClaimFailures;
+
+		Worker(SatellitePlan plan, int[] positions){
+			this.plan = plan;
+			this.positions = positions;
+			held = new BitSet(planningProblem.candidateAcquisitions.size());
+			tried = new BitSet(positions.length);
+			tentative = new int[positions.length];
+			won = new int[positions.length];
+			dirty = true;
+		}
+
+		/**
+		 * Tentatively insert windows of the satellite and claim their candidate acquisitions.
+		 * Nothing is done if no window was lost since the last scan: the plan has only grown since then, so
+		 * windows rejected during the last scan are still rejected.
+		 */
+		void propose(){
+			nTentative = 0;
+			if(!dirty)
+				return;
+			dirty = false;
+			for(int i=0;i<positions.length;i++){
+				AcquisitionWindow w = planningProblem.getAcquisitionWindow(windowIndex.getWindowIdx(positions[i]));
+				int candidateIdx = w.candidateAcquisition.idx;
+				if(committed.get(candidateIdx) || held.get(candidateIdx))
+					continue;
+				if(tried.get(i))
+					nRetries++;
+				else
+					tried.set(i);
+				if(plan.add(w)){
+					held.set(candidateIdx);
+					tentative[nTentative++] = i;
+					nClaimFailures += claim(candidateIdx, positions[i]);
+				}
+			}
+		}
+
+		/**
+		 * Keep the windows whose claim has been won and remove the other ones
+		 */
+		void resolve(){
+			nWon = 0;
+			for(int k=0;k<nTentative;k++){
+				int pos = positions[tentative[k]];
+				AcquisitionWindow w = planningProblem.getAcquisitionWindow(windowIndex.getWindowIdx(pos));
+				int candidateIdx = w.candidateAcquisition.idx;
+				if(claims.get(candidateIdx) == pos)
+					won[nWon++] = candidateIdx;
+				else {
+					plan.remove(w);
+					held.clear(candidateIdx);
+					nLost++;
+					dirty = true;
+				}
+			}
+		}
+	}
+
+	public static void main(String[] args) throws XMLStreamException, FactoryConfigurationError, IOException, InterruptedException, ExecutionException{
+		ProblemParserXML parser = new ProblemParserXML();
+		PlanningProblem pb = parser.read(Params.systemDataFile,Params.planningDataFile);
+		pb.printStatistics();
+		AcquisitionPlannerParallelSatellites planner = new AcquisitionPlannerParallelSatellites(pb);
+		planner.planAcquisitions(Params.n_threads);
+		planner.printStatistics();
+		AcquisitionUpperBounds upperBounds = new AcquisitionUpperBounds(pb);
+		upperBounds.computeLagrangianBound(Params.upperBoundIterations, Params.n_threads);
+		upperBounds.printGap(planner.getSolutionPlan());
+		for(Satellite satellite : pb.satellites){
+			planner.writePlan(satellite, "output/solutionAcqPlan_"+satellite.name+".txt");
+		}
+		System.out.println("Acquisition planning done");
+	}
+
+}
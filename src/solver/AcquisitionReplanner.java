@@ -0,0 +1,334 @@
+package solver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import javax.xml.stream.FactoryConfigurationError;
+import javax.xml.stream.XMLStreamException;
+
+import params.Params;
+import problem.AcquisitionWindow;
+import problem.CandidateAcquisition;
+import problem.PlanningProblem;
+import problem.ProblemParserXML;
+import problem.ProblemUpdate;
+import problem.Satellite;
+
+/**
+ * Acquisition planner which maintains an acquisition plan while the problem changes during the day (new candidate
+ * acquisitions, withdrawn candidate acquisitions, updated cloud probabilities, shortened horizon, see ProblemUpdate).
+ * At each update, the timelines of the satellites are transferred to the updated problem without being rebuilt, and
+ * the plan is repaired locally: the acquisitions which are new, which lost their window, whose windows are close to a
+ * window removed from a timeline, or whose cloud probabilities changed are greedily (re)inserted by increasing
+ * priority and cloud probability; planned acquisitions whose cloud probabilities changed are moved to a window having
+ * a smaller cloud probability when possible. Other acquisitions of the plan are never moved.
+ * @author cpralet
+ *
+ */
+public class AcquisitionReplanner {
+
+	/** Current planning problem */
+	private PlanningProblem planningProblem;
+	/** Plan of each satellite (indexed by satellite idx) */
+	private SatellitePlan[] satellitePlans;
+	/** Index of the window selected for each candidate acquisition (-1 if the acquisition is not planned) */
+	private int[] selectedWindows;
+	/** Score of the current plan */
+	private PlanScore score;
+	/** Statistics on the last update */
+	private int nLost;
+	private int nAffected;
+	private int nInserted;
+	private int nMoved;
+	private long updateNanos;
+
+	/**
+	 * Build a replanner starting from an existing acquisition plan
+	 * @param plan initial acquisition plan (all its acquisitions must be feasible together)
+	 */
+	public AcquisitionReplanner(SolutionPlan plan){
+		planningProblem = plan.pb;
+		satellitePlans = new SatellitePlan[planningProblem.satellites.size()];
+		for(Satellite satellite : planningProblem.satellites)
+			satellitePlans[satellite.idx] = new SatellitePlan(planningProblem, satellite);
+		selectedWindows = new int[planningProblem.candidateAcquisitions.size()];
+		Arrays.fill(selectedWindows, -1);
+		score = new PlanScore(planningProblem);
+		for(int i=0;i<plan.getNumberOfPlannedAcquisitions();i++){
+			CandidateAcquisition a = plan.getPlannedAcquisition(i);
+			AcquisitionWindow w = plan.getSelectedAcquisitionWindow(a);
+			if(!satellitePlans[w.satellite.idx].add(w))
+				throw new IllegalArgumentException("Initial plan infeasible: " + w);
+			select(w);
+		}
+	}
+
+	/**
+	 * Apply changes to the problem and repair the plan
+	 * @param update
+	 */
+	public void update(ProblemUpdate update){
+		long startTime = System.nanoTime();
+		PlanningProblem oldProblem = planningProblem;
+		ProblemUpdate.UpdatedProblem updated = update.apply(oldProblem);
+		PlanningProblem newProblem = updated.problem;
+		int nSatellites = newProblem.satellites.size();
+
+		// windows kept in the timelines: windows clipped by the new horizon are kept as long as they still fit, the
+		// acquisitions of the windows removed are replanned
+		int[] keptWindows = new int[oldProblem.acquisitionWindows.size()];
+		for(int w=0;w<keptWindows.length;w++)
+			keptWindows[w] = updated.getWindowIndex(w);
+		SatellitePlan[] newPlans = new SatellitePlan[nSatellites];
+		for(int s=0;s<nSatellites;s++)
+			newPlans[s] = new SatellitePlan(satellitePlans[s], newProblem, keptWindows);
+
+		int nNewCandidates = newProblem.candidateAcquisitions.size();
+		int[] newSelectedWindows = new int[nNewCandidates];
+		Arrays.fill(newSelectedWindows, -1);
+		PlanScore newScore = new PlanScore(newProblem);
+		BitSet affected = new BitSet(nNewCandidates);
+		affected.set(updated.firstNewCandidate, nNewCandidates);
+		nLost = 0;
+		// time ranges freed in the timelines (start and end of each range, per satellite)
+		List<List<double[]>> freedRanges = new ArrayList<List<double[]>>();
+		for(int s=0;s<nSatellites;s++)
+			freedRanges.add(new ArrayList<double[]>());
+		for(int a=0;a<selectedWindows.length;a++){
+			if(selectedWindows[a] < 0)
+				continue;
+			AcquisitionWindow oldWindow = oldProblem.getAcquisitionWindow(selectedWindows[a]);
+			int w = keptWindows[oldWindow.idx];
+			if(w >= 0 && newPlans[oldWindow.satellite.idx].contains(newProblem.getAcquisitionWindow(w))){
+				AcquisitionWindow newWindow = newProblem.getAcquisitionWindow(w);
+				newSelectedWindows[newWindow.candidateAcquisition.idx] = w;
+				newScore.add(newWindow);
+				if(newWindow.cloudProba != oldWindow.cloudProba)
+					affected.set(newWindow.candidateAcquisition.idx);
+				continue;
+			}
+			nLost++;
+			freedRanges.get(oldWindow.satellite.idx).add(new double[]{oldWindow.earliestStart, oldWindow.latestStart + oldWindow.duration});
+			int c = updated.getCandidateIndex(a);
+			if(c >= 0)
+				affected.set(c);
+		}
+
+		// unplanned acquisitions whose cloud probabilities changed or which have a window close to a freed time range
+		double[] maxWindowSpans = new double[nSatellites];
+		for(AcquisitionWindow w : newProblem.acquisitionWindows)
+			maxWindowSpans[w.satellite.idx] = Math.max(maxWindowSpans[w.satellite.idx], w.latestStart + w.duration - w.earliestStart);
+		for(int s=0;s<nSatellites;s++){
+			Collections.sort(freedRanges.get(s), RANGE_COMPARATOR);
+		}
+		for(AcquisitionWindow oldWindow : oldProblem.acquisitionWindows){
+			int w = updated.getWindowIndex(oldWindow.idx);
+			if(w < 0)
+				continue;
+			AcquisitionWindow newWindow = newProblem.getAcquisitionWindow(w);
+			int a = newWindow.candidateAcquisition.idx;
+			if(newSelectedWindows[a] >= 0 || affected.get(a))
+				continue;
+			int s = newWindow.satellite.idx;
+			if(newWindow.cloudProba != oldWindow.cloudProba
+					|| overlaps(freedRanges.get(s), newWindow.earliestStart - maxWindowSpans[s], newWindow.latestStart + newWindow.duration + maxWindowSpans[s]))
+				affected.set(a);
+		}
+
+		planningProblem = newProblem;
+		satellitePlans = newPlans;
+		selectedWindows = newSelectedWindows;
+		score = newScore;
+		nAffected = affected.cardinality();
+		repair(affected);
+		updateNanos = System.nanoTime() - startTime;
+	}
+
+	/** Ordering of time ranges by increasing start */
+	private static final Comparator<double[]> RANGE_COMPARATOR = new Comparator<double[]>(){
+		@Override
+		public int compare(double[] r0, double[] r1) {
+			return Double.compare(r0[0], r1[0]);
+		}
+	};
+
+	/**
+	 * @param ranges time ranges sorted by increasing start
+	 * @param start
+	 * @param end
+	 * @return true if one of the ranges intersects [start,end]
+	 */
+	private static boolean overlaps(List<double[]> ranges, double start, double end){
+		// last range starting before end
+		int lo = 0;
+		int hi = ranges.size();
+		while(lo < hi){
+			int mid = (lo + hi) >>> 1;
+			if(ranges.get(mid)[0] <= end)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		for(int i=lo-1;i>=0;i--){
+			if(ranges.get(i)[1] >= start)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Repair the plan: greedy insertion of the unplanned affected acquisitions, then move of the planned affected
+	 * acquisitions to windows having a smaller cloud probability
+	 * @param affected indices of the affected candidate acquisitions
+	 */
+	private void repair(BitSet affected){
+		nInserted = 0;
+		nMoved = 0;
+		List<AcquisitionWindow> windows = new ArrayList<AcquisitionWindow>();
+		List<CandidateAcquisition> planned = new ArrayList<CandidateAcquisition>();
+		for(int a=affected.nextSetBit(0);a>=0;a=affected.nextSetBit(a+1)){
+			if(selectedWindows[a] >= 0)
+				planned.add(planningProblem.getCandidateAcquisition(a));
+			else
+				windows.addAll(planningProblem.getCandidateAcquisition(a).acquisitionWindows);
+		}
+		AcquisitionWindow[] sorted = windows.toArray(new AcquisitionWindow[windows.size()]);
+		Arrays.sort(sorted, WINDOW_COMPARATOR);
+		for(AcquisitionWindow w : sorted){
+			if(selectedWindows[w.candidateAcquisition.idx] >= 0)
+				continue;
+			if(satellitePlans[w.satellite.idx].add(w)){
+				select(w);
+				nInserted++;
+			}
+		}
+
+		for(CandidateAcquisition a : planned){
+			AcquisitionWindow current = planningProblem.getAcquisitionWindow(selectedWindows[a.idx]);
+			AcquisitionWindow[] candidates = a.acquisitionWindows.toArray(new AcquisitionWindow[a.acquisitionWindows.size()]);
+			Arrays.sort(candidates, WINDOW_COMPARATOR);
+			for(AcquisitionWindow w : candidates){
+				if(w.cloudProba >= current.cloudProba)
+					break;
+				SatellitePlan currentPlan = satellitePlans[current.satellite.idx];
+				SatellitePlan plan = satellitePlans[w.satellite.idx];
+				if(plan != currentPlan && !plan.canAdd(w))
+					continue;
+				currentPlan.remove(current);
+				unselect(current);
+				if(plan.add(w)){
+					select(w);
+					nMoved++;
+					break;
+				}
+				currentPlan.add(current);
+				select(current);
+			}
+		}
+	}
+
+	/** Ordering of acquisition windows by increasing priority and cloud probability (then by increasing index) */
+	private static final Comparator<AcquisitionWindow> WINDOW_COMPARATOR = new Comparator<AcquisitionWindow>(){
+		@Override
+		public int compare(AcquisitionWindow w0, AcquisitionWindow w1) {
+			int cmp = Double.compare(w0.candidateAcquisition.priority + Params.priorityCloudProbaWeight * w0.cloudProba,
+					w1.candidateAcquisition.priority + Params.priorityCloudProbaWeight * w1.cloudProba);
+			return cmp != 0 ? cmp : w0.idx - w1.idx;
+		}
+	};
+
+	/**
+	 * Record the selection of a window
+	 * @param w
+	 */
+	private void select(AcquisitionWindow w){
+		selectedWindows[w.candidateAcquisition.idx] = w.idx;
+		score.add(w);
+	}
+
+	/**
+	 * Record the removal of a window from the plan
+	 * @param w
+	 */
+	private void unselect(AcquisitionWindow w){
+		selectedWindows[w.candidateAcquisition.idx] = -1;
+		score.remove(w);
+	}
+
+	/**
+	 * @return the current planning problem (the one obtained after the last update)
+	 */
+	public PlanningProblem getPlanningProblem(){
+		return planningProblem;
+	}
+
+	/**
+	 * @return the score of the current plan
+	 */
+	public PlanScore getScore(){
+		return score;
+	}
+
+	/**
+	 * @return the solution plan corresponding to the current acquisition plan
+	 */
+	public SolutionPlan getSolutionPlan(){
+		SolutionPlan plan = new SolutionPlan(planningProblem);
+		for(SatellitePlan satellitePlan : satellitePlans)
+			plan.addSatellitePlan(satellitePlan);
+		return plan;
+	}
+
+	/**
+	 * Write the acquisition plan of a given satellite in a file
+	 * @param satellite
+	 * @param solutionFilename
+	 * @throws IOException
+	 */
+	public void writePlan(Satellite satellite, String solutionFilename) throws IOException{
+		satellitePlans[satellite.idx].writePlan(solutionFilename);
+	}
+
+	/**
+	 * Print the statistics of the last update
+	 */
+	public void printStatistics(){
+		System.out.println("Update: " + updateNanos / 1e6 + " ms, " + nLost + " planned windows lost, " + nAffected + " acquisitions affected, "
+				+ nInserted + " inserted, " + nMoved + " moved");
+		System.out.println(score);
+	}
+
+	public static void main(String[] args) throws XMLStreamException, FactoryConfigurationError, IOException{
+		ProblemParserXML parser = new ProblemParserXML();
+		PlanningProblem pb = parser.read(Params.systemDataFile,Params.planningDataFile);
+		pb.printStatistics();
+		AcquisitionPlannerGreedySimpleAcquisitions greedy = new AcquisitionPlannerGreedySimpleAcquisitions(pb);
+		greedy.planAcquisitions();
+		AcquisitionReplanner replanner = new AcquisitionReplanner(greedy.getSolutionPlan());
+
+		// example of update: some withdrawn acquisitions, some new cloud probabilities, one new acquisition and a shorter horizon
+		Random rand = new Random(Params.randomSeed);
+		ProblemUpdate update = new ProblemUpdate();
+		for(int k=0;k<10;k++)
+			update.removeCandidateAcquisition(pb.getCandidateAcquisition(rand.nextInt(pb.candidateAcquisitions.size())));
+		for(int k=0;k<100;k++)
+			update.setCloudProba(pb.getAcquisitionWindow(rand.nextInt(pb.acquisitionWindows.size())), rand.nextInt(5) * 0.2);
+		CandidateAcquisition model = pb.getCandidateAcquisition(rand.nextInt(pb.candidateAcquisitions.size()));
+		int a = update.addCandidateAcquisition(model.name + "_new", model.user, 0, model.longitude, model.latitude);
+		for(AcquisitionWindow w : model.acquisitionWindows)
+			update.addAcquisitionWindow(a, w.satellite, w.earliestStart, w.latestStart, w.duration, w.zenithAngle, w.rollAngle, w.cloudProba, w.volume);
+		update.setHorizonEnd(pb.getHorizonEnd() - 0.1 * (pb.getHorizonEnd() - pb.getHorizonStart()));
+		replanner.update(update);
+		replanner.printStatistics();
+		for(Satellite satellite : replanner.getPlanningProblem().satellites){
+			replanner.writePlan(satellite, "output/solutionAcqPlan_"+satellite.name+".txt");
+		}
+	}
+
+}
@@ -0,0 +1,353 @@
+package solver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.stream.FactoryConfigurationError;
+import javax.xml.stream.XMLStreamException;
+
+import params.Params;
+import problem.AcquisitionWindow;
+import problem.CandidateAcquisition;
+import problem.PlanningProblem;
+import problem.ProblemParserXML;
+import problem.Satellite;
+
+/**
+ * Class used for computing upper bounds on the number of acquisitions which can be planned and on the score of an
+ * acquisition plan (planned fraction - mean priority - mean cloud probability), in order to report the optimality
+ * gap of the plans produced by the planners. Three bounds are computed on the number of planned acquisitions:
+ * - candidate cap: number of candidate acquisitions having at least one window which can be realized alone;
+ * - interval scheduling: for each satellite, transition times are ignored and each window is reduced to its core
+ * [latest start, earliest start + duration], which is covered whatever the start time of the acquisition; the
+ * maximum number of disjoint cores is computed greedily, windows having an empty core being counted apart;
+ * - Lagrangian relaxation: the constraint "at most one window per candidate acquisition" is relaxed with multipliers
+ * (multiples of 1/LAMBDA_LEVELS in [0,1]), the relaxed problem being solved exactly for each satellite in parallel by
+ * SatelliteRelaxation, and the multipliers being adjusted by subgradient iterations.
+ * The score bound is derived from the best bound on the number of planned acquisitions K: for each k<=K, the mean
+ * priority and the mean cloud probability of k planned acquisitions are at least the means of the k smallest
+ * priorities and of the k smallest cloud probabilities of the candidate acquisitions (the score weights of PlanScore
+ * being assumed nonnegative).
+ * The candidate cap and the interval scheduling bound hold for any plan. As SatelliteRelaxation only builds sequences
+ * ordered by earliest start time, the Lagrangian bound (and the score bound when it is the best one) only holds for
+ * plans whose windows are realized in this order, which is the case of all plans built with SatellitePlan, hence of
+ * the plans of all the planners; a plan realizing its windows in another order may exceed it.
+ * @author cpralet
+ *
+ */
+public class AcquisitionUpperBounds {
+
+	/** Lagrangian multipliers are multiples of 1/LAMBDA_LEVELS */
+	private static final int LAMBDA_LEVELS = 16;
+	/** Number of consecutive iterations without improvement of the bound after which the step is halved */
+	private static final int STEP_PATIENCE = 2;
+
+	/** Planning problem for which the bounds are computed */
+	private final PlanningProblem planningProblem;
+	/** Candidate acquisitions having at least one window which can be realized alone */
+	private final boolean[] realizable;
+	/** Smallest cloud probability of the windows of each candidate acquisition which can be realized alone */
+	private final double[] minCloudProbas;
+	/** Bound given by the number of candidate acquisitions which can be realized */
+	private int candidateCap;
+	/** Bound given by interval scheduling without transitions */
+	private int intervalSchedulingBound;
+	/** Bound given by the Lagrangian relaxation (Integer.MAX_VALUE if not computed) */
+	private int lagrangianBound;
+	/** Bound on the score */
+	private double scoreBound;
+
+	/**
+	 * Compute the candidate cap and the interval scheduling bound of a planning problem
+	 * @param planningProblem
+	 */
+	public AcquisitionUpperBounds(PlanningProblem planningProblem){
+		this.planningProblem = planningProblem;
+		int nCandidates = planningProblem.candidateAcquisitions.size();
+		realizable = new boolean[nCandidates];
+		minCloudProbas = new double[nCandidates];
+		Arrays.fill(minCloudProbas, Double.POSITIVE_INFINITY);
+		for(AcquisitionWindow w : planningProblem.acquisitionWindows){
+			if(isRealizable(w)){
+				int c = w.candidateAcquisition.idx;
+				realizable[c] = true;
+				minCloudProbas[c] = Math.min(minCloudProbas[c], w.cloudProba);
+			}
+		}
+		candidateCap = 0;
+		for(int c=0;c<nCandidates;c++){
+			if(realizable[c])
+				candidateCap++;
+		}
+		intervalSchedulingBound = 0;
+		for(Satellite satellite : planningProblem.satellites)
+			intervalSchedulingBound += computeIntervalSchedulingBound(satellite);
+		lagrangianBound = Integer.MAX_VALUE;
+		scoreBound = computeScoreBound(getPlannedUpperBound());
+	}
+
+	/**
+	 * @param w
+	 * @return true if the window can be realized when it is the only acquisition of its satellite
+	 */
+	private boolean isRealizable(AcquisitionWindow w){
+		return Math.max(planningProblem.getHorizonStart(), w.earliestStart) <= w.latestStart;
+	}
+
+	/**
+	 * @param satellite
+	 * @return an upper bound on the number of acquisitions realized by a satellite, obtained by interval scheduling on
+	 * the cores of its windows (transition times and the uniqueness of the acquisitions being ignored)
+	 */
+	private int computeIntervalSchedulingBound(Satellite satellite){
+		List<double[]> cores = new ArrayList<double[]>();
+		int nWithoutCore = 0;
+		for(AcquisitionWindow w : planningProblem.acquisitionWindows){
+			if(w.satellite != satellite || !isRealizable(w))
+				continue;
+			double coreEnd = Math.max(planningProblem.getHorizonStart(), w.earliestStart) + w.duration;
+			if(w.latestStart < coreEnd)
+				cores.add(new double[]{w.latestStart, coreEnd});
+			else
+				nWithoutCore++;
+		}
+		double[][] sorted = cores.toArray(new double[cores.size()][]);
+		Arrays.sort(sorted, new Comparator<double[]>(){
+			@Override
+			public int compare(double[] c0, double[] c1) {
+				return Double.compare(c0[1], c1[1]);
+			}
+		});
+		int nDisjoint = 0;
+		double lastEnd = Double.NEGATIVE_INFINITY;
+		for(double[] core : sorted){
+			if(core[0] >= lastEnd){
+				nDisjoint++;
+				lastEnd = core[1];
+			}
+		}
+		return nWithoutCore + nDisjoint;
+	}
+
+	/**
+	 * Compute the Lagrangian bound, the relaxed problems of the satellites being solved in parallel
+	 * @param nIterations maximum number of subgradient iterations
+	 * @param nThreads number of threads used
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public void computeLagrangianBound(int nIterations, int nThreads) throws InterruptedException, ExecutionException{
+		int nCandidates = planningProblem.candidateAcquisitions.size();
+		int nSatellites = planningProblem.satellites.size();
+
+		// relaxation of each satellite, and candidate acquisition of each window of the relaxation
+		final SatelliteRelaxation[] relaxations = new SatelliteRelaxation[nSatellites];
+		final int[][] candidates = new int[nSatellites][];
+		for(Satellite satellite : planningProblem.satellites){
+			List<AcquisitionWindow> windows = new ArrayList<AcquisitionWindow>();
+			for(AcquisitionWindow w : planningProblem.acquisitionWindows){
+				if(w.satellite == satellite && isRealizable(w))
+					windows.add(w);
+			}
+			SatelliteRelaxation relaxation = new SatelliteRelaxation(planningProblem, windows);
+			relaxations[satellite.idx] = relaxation;
+			candidates[satellite.idx] = new int[relaxation.n];
+			for(int pos=0;pos<relaxation.n;pos++)
+				candidates[satellite.idx][pos] = relaxation.windows[pos].candidateAcquisition.idx;
+		}
+
+		final int[] lambdas = new int[nCandidates];
+		final int[][] sequences = new int[nSatellites][];
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for(int s=0;s<nSatellites;s++){
+			final int sat = s;
+			tasks.add(new Callable<Void>(){
+				@Override
+				public Void call() {
+					int[] weights = new int[relaxations[sat].n];
+					for(int pos=0;pos<weights.length;pos++)
+						weights[pos] = LAMBDA_LEVELS - lambdas[candidates[sat][pos]];
+					sequences[sat] = relaxations[sat].solve(weights);
+					return null;
+				}
+			});
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+		try {
+			int[] counts = new int[nCandidates];
+			int step = LAMBDA_LEVELS / 2;
+			int nNonImproving = 0;
+			for(int it=0;it<nIterations;it++){
+				for(Future<Void> future : executor.invokeAll(tasks))
+					future.get();
+
+				// value of the Lagrangian function
+				long value = 0;
+				Arrays.fill(counts, 0);
+				for(int s=0;s<nSatellites;s++){
+					for(int pos : sequences[s]){
+						int c = candidates[s][pos];
+						value += LAMBDA_LEVELS - lambdas[c];
+						counts[c]++;
+					}
+				}
+				for(int c=0;c<nCandidates;c++)
+					value += lambdas[c];
+				int bound = (int) (value / LAMBDA_LEVELS);
+				if(bound < lagrangianBound){
+					lagrangianBound = bound;
+					nNonImproving = 0;
+				}
+				else if(++nNonImproving == STEP_PATIENCE){
+					if(step == 1)
+						break; // the bound does not improve anymore
+					step /= 2;
+					nNonImproving = 0;
+				}
+
+				// subgradient step: decrease the multipliers of unrealized acquisitions, increase the ones of duplicates
+				boolean changed = false;
+				for(int c=0;c<nCandidates;c++){
+					if(!realizable[c])
+						continue;
+					int lambda = Math.min(LAMBDA_LEVELS, Math.max(0, lambdas[c] - step * (1 - counts[c])));
+					if(lambda != lambdas[c]){
+						lambdas[c] = lambda;
+						changed = true;
+					}
+				}
+				if(!changed)
+					break;
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+		scoreBound = computeScoreBound(getPlannedUpperBound());
+	}
+
+	/**
+	 * @param maxPlanned upper bound on the number of planned acquisitions
+	 * @return an upper bound on the score of the plans containing at most maxPlanned acquisitions
+	 */
+	private double computeScoreBound(int maxPlanned){
+		PlanScore score = new PlanScore(planningProblem);
+		double[] priorities = new double[candidateCap];
+		double[] cloudProbas = new double[candidateCap];
+		int k = 0;
+		for(CandidateAcquisition a : planningProblem.candidateAcquisitions){
+			if(realizable[a.idx]){
+				priorities[k] = a.priority;
+				cloudProbas[k++] = minCloudProbas[a.idx];
+			}
+		}
+		Arrays.sort(priorities);
+		Arrays.sort(cloudProbas);
+		double bound = PlanScore.EMPTY_PLAN_VALUE;
+		double sumPriority = 0;
+		double sumCloudProba = 0;
+		for(int n=1;n<=Math.min(maxPlanned, candidateCap);n++){
+			sumPriority += priorities[n-1];
+			sumCloudProba += cloudProbas[n-1];
+			bound = Math.max(bound, score.evaluate(n, sumPriority, sumCloudProba));
+		}
+		return bound;
+	}
+
+	/**
+	 * @return the number of candidate acquisitions having at least one window which can be realized alone
+	 */
+	public int getCandidateCap(){
+		return candidateCap;
+	}
+
+	/**
+	 * @return the bound obtained by interval scheduling on the cores of the windows
+	 */
+	public int getIntervalSchedulingBound(){
+		return intervalSchedulingBound;
+	}
+
+	/**
+	 * @return the bound obtained by Lagrangian relaxation (Integer.MAX_VALUE if it has not been computed), valid for
+	 * plans whose windows are realized by increasing earliest start time on each satellite
+	 */
+	public int getLagrangianBound(){
+		return lagrangianBound;
+	}
+
+	/**
+	 * @return the best upper bound on the number of acquisitions which can be planned (restricted to plans whose windows
+	 * are realized by increasing earliest start time when the Lagrangian bound has been computed)
+	 */
+	public int getPlannedUpperBound(){
+		return Math.min(candidateCap, Math.min(intervalSchedulingBound, lagrangianBound));
+	}
+
+	/**
+	 * @return the upper bound on the score
+	 */
+	public double getScoreUpperBound(){
+		return scoreBound;
+	}
+
+	/**
+	 * @param score
+	 * @return the difference between the score bound and a given score
+	 */
+	public double getScoreGap(double score){
+		return scoreBound - score;
+	}
+
+	/**
+	 * Print the gap of an acquisition plan, for the number of planned acquisitions and for the score
+	 * @param plan
+	 */
+	public void printGap(SolutionPlan plan){
+		int nPlanned = plan.getNumberOfPlannedAcquisitions();
+		PlanScore planScore = new PlanScore(planningProblem);
+		for(int i=0;i<nPlanned;i++)
+			planScore.add(plan.getSelectedAcquisitionWindow(plan.getPlannedAcquisition(i)));
+		double score = planScore.getValue();
+		int plannedBound = getPlannedUpperBound();
+		System.out.println("Planned: " + nPlanned + " (upper bound " + plannedBound + ", gap "
+				+ (plannedBound == 0 ? 0. : 100. * (plannedBound - nPlanned) / plannedBound) + " %)"
+				+ ", score: " + score + " (upper bound " + scoreBound + ", gap " + getScoreGap(score) + ")"
+				+ (lagrangianBound == Integer.MAX_VALUE ? "" : ", bounds restricted to windows realized by increasing earliest start time"));
+	}
+
+	/**
+	 * Print the bounds computed
+	 */
+	public void printBounds(){
+		System.out.println("Upper bounds on the number of planned acquisitions: candidate cap " + candidateCap
+				+ ", interval scheduling " + intervalSchedulingBound
+				+ (lagrangianBound == Integer.MAX_VALUE ? "" : ", Lagrangian relaxation " + lagrangianBound
+						+ " (windows realized by increasing earliest start time)"));
+		System.out.println("Upper bound on the score: " + scoreBound);
+	}
+
+	public static void main(String[] args) throws XMLStreamException, FactoryConfigurationError, IOException, InterruptedException, ExecutionException{
+		ProblemParserXML parser = new ProblemParserXML();
+		PlanningProblem pb = parser.read(Params.systemDataFile,Params.planningDataFile);
+		pb.printStatistics();
+		AcquisitionUpperBounds bounds = new AcquisitionUpperBounds(pb);
+		bounds.computeLagrangianBound(Params.upperBoundIterations, Params.n_threads);
+		bounds.printBounds();
+		// gap of the current acquisition plan
+		SolutionPlan plan = new SolutionPlan(pb);
+		for(Satellite satellite : pb.satellites)
+			plan.readAcquisitionPlan("output/solutionAcqPlan_"+satellite.name+".txt");
+		bounds.printGap(plan);
+	}
+
+}
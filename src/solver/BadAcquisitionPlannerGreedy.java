@@ -1,16 +1,12 @@
 package solver;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ExecutionException;
 
 import javax.xml.stream.FactoryConfigurationError;
 import javax.xml.stream.XMLStreamException;
@@ -45,7 +41,7 @@ public class BadAcquisitionPlannerGreedy {
 		this.planningProblem = planningProblem;
 		satellitePlans = new HashMap<Satellite,SatellitePlan>();
 		for(Satellite satellite : planningProblem.satellites){
-			satellitePlans.put(satellite, new SatellitePlan());
+			satellitePlans.put(satellite, new SatellitePlan(planningProblem, satellite));
 		}
 	}
 
@@ -69,90 +65,26 @@ public class BadAcquisitionPlannerGreedy {
 			for(AcquisitionWindow acqWindow : a.acquisitionWindows){
 				Satellite satellite = acqWindow.satellite;
 				SatellitePlan satellitePlan = satellitePlans.get(satellite);
-				satellitePlan.add(acqWindow);
-				if(satellitePlan.isFeasible()){
+				if(satellitePlan.add(acqWindow)){
 					nPlanned++;
-					a.selectedAcquisitionWindow = acqWindow;
 					break;
 				}
-				else
-					satellitePlan.remove(acqWindow);
 			}
 		}
 		System.out.println("nPlanned: " + nPlanned + "/" + nCandidates);
 	}
 
 
-	private class SatellitePlan {
-
-		/** Acquisitions to be realized by the satellite */
-		private List<AcquisitionWindow> acqWindows;
-		/** Map defining the start time of each acquisition in the solution schedule */
-		private Map<AcquisitionWindow,Double> startTimes;
-
-
-		public SatellitePlan(){
-			acqWindows = new ArrayList<AcquisitionWindow>();
-			startTimes = new HashMap<AcquisitionWindow,Double>();
-		}
-
-		public double getStart(AcquisitionWindow aw){
-			return startTimes.get(aw);
-		}
-
-		public List<AcquisitionWindow> getAcqWindows(){
-			return acqWindows;
-		}
-
-		public void add(AcquisitionWindow aw){
-			acqWindows.add(aw);
-		}
-
-		public void remove(AcquisitionWindow aw){
-			acqWindows.remove(aw);
-			startTimes.remove(aw);
-		}
-
-		/**
-		 * 
-		 * @return true if the list of acquisition windows is evaluated as being feasible from a temporal point of view
-		 */
-		public boolean isFeasible(){
-
-			// sort acquisition windows by increasing start times
-			Collections.sort(acqWindows,startTimeComparator);
-
-			// initialize the forward traversal of the acquisition windows by considering the first one 
-			AcquisitionWindow prevAcqWindow = acqWindows.get(0);
-			if(planningProblem.horizonStart > prevAcqWindow.latestStart)
-				return false;		
-			double startTime = Math.max(planningProblem.horizonStart,prevAcqWindow.earliestStart);
-			startTimes.put(prevAcqWindow,startTime);
-			double prevEndTime = startTime + prevAcqWindow.duration;
-
-			// traverse all acquisition windows and check that each acquisition can be realized (taking into account roll angle transitions) 
-			for(int i=1;i<acqWindows.size();i++){
-				AcquisitionWindow acqWindow = acqWindows.get(i);
-				double rollAngleTransitionTime = planningProblem.getTransitionTime(prevAcqWindow, acqWindow);
-				startTime = Math.max(prevEndTime+rollAngleTransitionTime,acqWindow.earliestStart);
-				if(startTime > acqWindow.latestStart) // sequence of acquisition windows not feasible
-					return false;
-				startTimes.put(acqWindow,startTime);
-				prevEndTime = startTime + acqWindow.duration;
-				prevAcqWindow = acqWindow;
-			}		
-			return true;
-		}
+	/**
+	 * @return the solution plan corresponding to the current acquisition plan
+	 */
+	public SolutionPlan getSolutionPlan(){
+		SolutionPlan plan = new SolutionPlan(planningProblem);
+		for(Satellite satellite : planningProblem.satellites)
+			plan.addSatellitePlan(satellitePlans.get(satellite));
+		return plan;
 	}
 
-	/** Comparator used for sorting acquisition windows by increasing earliest start time */
-	private final Comparator<AcquisitionWindow> startTimeComparator = new Comparator<AcquisitionWindow>(){
-		@Override
-		public int compare(AcquisitionWindow w0, AcquisitionWindow w1) {
-			return Double.compare(w0.earliestStart, w1.earliestStart);
-		}		
-	};
-
 	/**
 	 * Write the acquisition plan of a given satellite in a file
 	 * @param satellite
@@ -160,15 +92,7 @@ public class BadAcquisitionPlannerGreedy {
 	 * @throws IOException
 	 */
 	public void writePlan(Satellite satellite, String solutionFilename) throws IOException{
-		PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(solutionFilename, false)));
-		SatellitePlan plan = satellitePlans.get(satellite);
-		for(AcquisitionWindow aw : plan.getAcqWindows()){
-			double start = plan.getStart(aw);
-			writer.write(aw.candidateAcquisition.idx + " " + aw.idx + " " + start + " " + (start+aw.duration) + 
-					 " " + aw.candidateAcquisition.name + "\n");
-		}
-		writer.flush();
-		writer.close();
+		satellitePlans.get(satellite).writePlan(solutionFilename);
 	}
 
 	public void printScores(PlanningProblem pb){
@@ -176,7 +100,8 @@ public class BadAcquisitionPlannerGreedy {
 		double cloud_score = 0;
 		for (Satellite sat : pb.satellites){
 			SatellitePlan plan = satellitePlans.get(sat);
-			for(AcquisitionWindow aw : plan.getAcqWindows()){
+			for(int i=0;i<plan.size();i++){
+				AcquisitionWindow aw = plan.getAcqWindow(i);
 				prio_score  += 1 - aw.candidateAcquisition.priority;
 				cloud_score += 1 - aw.cloudProba;
 
@@ -187,7 +112,7 @@ public class BadAcquisitionPlannerGreedy {
 	}
 
 	
-	public static void main(String[] args) throws XMLStreamException, FactoryConfigurationError, IOException{
+	public static void main(String[] args) throws XMLStreamException, FactoryConfigurationError, IOException, InterruptedException, ExecutionException{
 		ProblemParserXML parser = new ProblemParserXML(); 
 		PlanningProblem pb = parser.read(Params.systemDataFile,Params.planningDataFile);
 		pb.printStatistics();
@@ -197,6 +122,9 @@ public class BadAcquisitionPlannerGreedy {
 			planner.writePlan(satellite, "output/solutionAcqPlan_"+satellite.name+".txt");
 		}
 		planner.printScores(pb);
+		AcquisitionUpperBounds upperBounds = new AcquisitionUpperBounds(pb);
+		upperBounds.computeLagrangianBound(Params.upperBoundIterations, Params.n_threads);
+		upperBounds.printGap(planner.getSolutionPlan());
 		System.out.println("Acquisition planning done");
 	}
 	
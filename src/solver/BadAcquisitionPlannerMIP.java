@@ -5,7 +5,14 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.xml.stream.FactoryConfigurationError;
 import javax.xml.stream.XMLStreamException;
@@ -16,11 +23,13 @@ import problem.CandidateAcquisition;
 import problem.PlanningProblem;
 import problem.ProblemParserXML;
 import problem.Satellite;
+import utils.DatFileWriter;
 
 /**
  * Acquisition planner which solves the acquisition problem for each satellite separately,
  * and which only tries to maximize the number of acquisitions realized. To do this, this
- * planner generates OPL data files.
+ * planner generates OPL data files, either for acqPlanning.mod (dense matrix of transition times) or for
+ * acqPlanningSparse.mod (only the transitions between windows which can be successive).
  * @author cpralet
  *
  */
@@ -36,6 +45,20 @@ public class BadAcquisitionPlannerMIP {
 	 */
 	public static void writeDatFile(PlanningProblem pb, Satellite satellite, 
 			String datFilename, String solutionFilename) throws IOException{
+		writeDatFile(pb, new ConflictGraph(pb), satellite, datFilename, solutionFilename);
+	}
+
+	/**
+	 * Write a .dat file which represents the acquisition planning problem for a particular satellite
+	 * @param pb planning problem
+	 * @param conflictGraph conflicts between the acquisition windows of the problem
+	 * @param satellite satellite for which the acquisition plan must be built
+	 * @param datFilename name of the .dat file generated
+	 * @param solutionFilename name of the file in which CPLEX solution will be written
+	 * @throws IOException
+	 */
+	public static void writeDatFile(PlanningProblem pb, ConflictGraph conflictGraph, Satellite satellite, 
+			String datFilename, String solutionFilename) throws IOException{
 		// generate OPL data (only for the satellite selected)
 		PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(datFilename, false)));
 
@@ -122,6 +145,25 @@ public class BadAcquisitionPlannerMIP {
 		}
 		writer.write("\n];");
 
+		// write the pairs of acquisition windows which can never be both selected (positions in the arrays above, starting from 1)
+		int[] positions = new int[pb.acquisitionWindows.size()];
+		for(int i=0;i<nAcquisitionWindows;i++){
+			positions[acquisitionWindows.get(i).idx] = i+1;
+		}
+		writer.write("\nConflictingPairs = {");
+		boolean firstPair = true;
+		for(int i=0;i<nAcquisitionWindows;i++){
+			int idx = acquisitionWindows.get(i).idx;
+			for(int k=0;k<conflictGraph.getDegree(idx);k++){
+				int j = positions[conflictGraph.getNeighbour(idx, k)] - 1;
+				if(j > i){
+					writer.write((firstPair ? "" : ",") + "<" + (i+1) + "," + (j+1) + ">");
+					firstPair = false;
+				}
+			}
+		}
+		writer.write("};");
+
 		// write the name of the file in which the result will be written
 		writer.write("\nOutputFile = \"" + solutionFilename + "\";");
 
@@ -130,14 +172,177 @@ public class BadAcquisitionPlannerMIP {
 		writer.close();		
 	}
 
-	public static void main(String[] args) throws XMLStreamException, FactoryConfigurationError, IOException{
+	/**
+	 * Write a .dat file which represents the acquisition planning problem for a particular satellite, in the sparse
+	 * format of acqPlanningSparse.mod: transition times are only written for the pairs of windows (a1,a2) such that
+	 * EarliestStartTime[a1] + Duration[a1] + TransitionTimes[a1][a2] < LatestStartTime[a2], which are the only pairs
+	 * that can be successive in a plan
+	 * @param pb planning problem
+	 * @param conflictGraph conflicts between the acquisition windows of the problem
+	 * @param satellite satellite for which the acquisition plan must be built
+	 * @param datFilename name of the .dat file generated
+	 * @param solutionFilename name of the file in which CPLEX solution will be written
+	 * @throws IOException
+	 */
+	public static void writeSparseDatFile(PlanningProblem pb, ConflictGraph conflictGraph, Satellite satellite,
+			String datFilename, String solutionFilename) throws IOException{
+		// get all acquisition windows involved in the problem
+		List<AcquisitionWindow> list = new ArrayList<AcquisitionWindow>();
+		for(AcquisitionWindow w : pb.acquisitionWindows){
+			if(w.satellite == satellite){
+				list.add(w);
+			}
+		}
+		final AcquisitionWindow[] acquisitionWindows = list.toArray(new AcquisitionWindow[list.size()]);
+		int nAcquisitionWindows = acquisitionWindows.length;
+
+		DatFileWriter writer = new DatFileWriter(datFilename);
+		try {
+			// write the number of acquisition windows
+			writer.write("NacquisitionWindowsForSat = ").write(nAcquisitionWindows).write(';');
+
+			// write the data associated with each acquisition window
+			writer.write("\nAcquisitionWindowIdx = [");
+			for(int i=0;i<nAcquisitionWindows;i++){
+				if(i != 0) writer.write(',');
+				writer.write(acquisitionWindows[i].idx);
+			}
+			writer.write("];\nCandidateAcquisitionIdx = [");
+			for(int i=0;i<nAcquisitionWindows;i++){
+				if(i != 0) writer.write(',');
+				writer.write(acquisitionWindows[i].candidateAcquisition.idx);
+			}
+			writer.write("];\nEarliestStartTime = [");
+			for(int i=0;i<nAcquisitionWindows;i++){
+				if(i != 0) writer.write(',');
+				writer.write(acquisitionWindows[i].earliestStart);
+			}
+			writer.write("];\nLatestStartTime = [");
+			for(int i=0;i<nAcquisitionWindows;i++){
+				if(i != 0) writer.write(',');
+				writer.write(acquisitionWindows[i].latestStart);
+			}
+			writer.write("];\nDuration = [");
+			for(int i=0;i<nAcquisitionWindows;i++){
+				if(i != 0) writer.write(',');
+				writer.write(acquisitionWindows[i].duration);
+			}
+			writer.write("];");
+
+			// write the transitions between windows which can be successive (positions in the arrays above, starting from 1).
+			// As transition times are nonnegative, a1 can only precede a2 if EarliestStartTime[a1] < LatestStartTime[a2]:
+			// windows are sorted by earliest start time so that the possible predecessors of a2 form a prefix
+			Integer[] byEarliestStart = new Integer[nAcquisitionWindows];
+			for(int i=0;i<nAcquisitionWindows;i++)
+				byEarliestStart[i] = i;
+			Arrays.sort(byEarliestStart, new Comparator<Integer>(){
+				@Override
+				public int compare(Integer i0, Integer i1) {
+					return Double.compare(acquisitionWindows[i0].earliestStart, acquisitionWindows[i1].earliestStart);
+				}
+			});
+			writer.write("\nTransitions = {");
+			boolean firstTransition = true;
+			for(int j=0;j<nAcquisitionWindows;j++){
+				AcquisitionWindow a2 = acquisitionWindows[j];
+				for(int k=0;k<nAcquisitionWindows;k++){
+					int i = byEarliestStart[k];
+					AcquisitionWindow a1 = acquisitionWindows[i];
+					if(a1.earliestStart >= a2.latestStart)
+						break;
+					if(i == j)
+						continue;
+					double transitionTime = pb.getTransitionTime(a1, a2);
+					if(a1.earliestStart + a1.duration + transitionTime < a2.latestStart){
+						if(!firstTransition) writer.write(',');
+						writer.write('<').write(i+1).write(',').write(j+1).write(',').write(transitionTime).write('>');
+						firstTransition = false;
+					}
+				}
+			}
+			writer.write("};");
+
+			// write the pairs of acquisition windows which can never be both selected
+			int[] positions = new int[pb.acquisitionWindows.size()];
+			for(int i=0;i<nAcquisitionWindows;i++){
+				positions[acquisitionWindows[i].idx] = i+1;
+			}
+			writer.write("\nConflictingPairs = {");
+			boolean firstPair = true;
+			for(int i=0;i<nAcquisitionWindows;i++){
+				int idx = acquisitionWindows[i].idx;
+				for(int k=0;k<conflictGraph.getDegree(idx);k++){
+					int j = positions[conflictGraph.getNeighbour(idx, k)] - 1;
+					if(j > i){
+						if(!firstPair) writer.write(',');
+						writer.write('<').write(i+1).write(',').write(j+1).write('>');
+						firstPair = false;
+					}
+				}
+			}
+			writer.write("};");
+
+			// write the name of the file in which the result will be written
+			writer.write("\nOutputFile = \"").write(solutionFilename).write("\";");
+		}
+		finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Write the sparse .dat files of all satellites in parallel, one task per satellite
+	 * @param pb planning problem
+	 * @param conflictGraph conflicts between the acquisition windows of the problem
+	 * @param datFilenamePrefix prefix of the .dat files generated (followed by the satellite name and ".dat")
+	 * @param solutionFilenamePrefix prefix of the files in which CPLEX solutions will be written (followed by the satellite name and ".txt")
+	 * @param nThreads number of threads used
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public static void writeSparseDatFiles(final PlanningProblem pb, final ConflictGraph conflictGraph, final String datFilenamePrefix,
+			final String solutionFilenamePrefix, int nThreads) throws IOException, InterruptedException{
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for(final Satellite satellite : pb.satellites){
+			tasks.add(new Callable<Void>(){
+				@Override
+				public Void call() throws IOException {
+					writeSparseDatFile(pb, conflictGraph, satellite, datFilenamePrefix+satellite.name+".dat",
+							solutionFilenamePrefix+satellite.name+".txt");
+					return null;
+				}
+			});
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+		try {
+			for(Future<Void> future : executor.invokeAll(tasks)){
+				try {
+					future.get();
+				} catch (ExecutionException e) {
+					if(e.getCause() instanceof IOException)
+						throw (IOException) e.getCause();
+					throw new RuntimeException(e.getCause());
+				}
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	public static void main(String[] args) throws XMLStreamException, FactoryConfigurationError, IOException, InterruptedException{
 		ProblemParserXML parser = new ProblemParserXML(); 
 		PlanningProblem pb = parser.read(Params.systemDataFile,Params.planningDataFile);
 		pb.printStatistics();
+		ConflictGraph conflictGraph = new ConflictGraph(pb);
+		if(Params.sparseDatFiles){
+			writeSparseDatFiles(pb, conflictGraph, "output/acqPlanningSparse_", "solutionAcqPlan_", Params.n_threads);
+			return;
+		}
 		for(Satellite satellite : pb.satellites){
 			String datFilename = "output/acqPlanning_"+satellite.name+".dat";
 			String solutionFilename = "solutionAcqPlan_"+satellite.name+".txt";
-			writeDatFile(pb, satellite, datFilename, solutionFilename);
+			writeDatFile(pb, conflictGraph, satellite, datFilename, solutionFilename);
 		}
 	}
 
@@ -33,10 +33,10 @@ import problem.Station;
  */
 public class BadDownloadPlanner {
 	
-	public static void planDownloads(SolutionPlan plan, String solutionFilename) throws IOException{
+	public static void planDownloads(final SolutionPlan plan, String solutionFilename) throws IOException{
 
 		PlanningProblem pb = plan.pb;
-		List<CandidateAcquisition> acqPlan = plan.plannedAcquisitions;
+		List<CandidateAcquisition> acqPlan = plan.getPlannedAcquisitions();
 
 		PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(solutionFilename, false)));
 
@@ -57,15 +57,15 @@ public class BadDownloadPlanner {
 			}
 			// get all planned acquisitions associated with this satellite
 			for(CandidateAcquisition a : acqPlan){
-				if(a.selectedAcquisitionWindow.satellite == satellite)
+				if(plan.getSatellite(a) == satellite)
 					candidateDownloads.add(a);
 			}
 			// sort acquisitions by increasing start time
 			Collections.sort(candidateDownloads, new Comparator<Acquisition>(){
 				@Override
 				public int compare(Acquisition a0, Acquisition a1) {
-					double start0 = a0.getAcquisitionTime(); 
-					double start1 = a1.getAcquisitionTime();
+					double start0 = plan.getAcquisitionTime(a0); 
+					double start1 = plan.getAcquisitionTime(a1);
 					if(start0 < start1)
 						return -1;
 					if(start0 > start1)
@@ -75,24 +75,8 @@ public class BadDownloadPlanner {
 
 			});
 
-			// sort download windows by increasing start time
-			List<DownloadWindow> downloadWindows = new ArrayList<DownloadWindow>();
-			for(DownloadWindow w : pb.downloadWindows){
-				if(w.satellite == satellite)
-					downloadWindows.add(w);
-			}
-			Collections.sort(downloadWindows, new Comparator<DownloadWindow>(){
-				@Override
-				public int compare(DownloadWindow a0, DownloadWindow a1) {
-					double start0 = a0.start; 
-					double start1 = a1.start;
-					if(start0 < start1)
-						return -1;
-					if(start0 > start1)
-						return 1;
-					return 0;
-				}
-			});			
+			// download windows by increasing start time
+			List<DownloadWindow> downloadWindows = pb.getDownloadWindowIndex().getWindows(satellite);
 			if(downloadWindows.isEmpty())
 				continue;
 
@@ -101,8 +85,8 @@ public class BadDownloadPlanner {
 			DownloadWindow currentWindow = downloadWindows.get(currentDownloadWindowIdx);
 			double currentTime = currentWindow.start;
 			for(Acquisition a : candidateDownloads){
-				currentTime = Math.max(currentTime, a.getAcquisitionTime());
-				double dlDuration = a.getVolume() / Params.downlinkRate;
+				currentTime = Math.max(currentTime, plan.getAcquisitionTime(a));
+				double dlDuration = plan.getVolume(a) / Params.downlinkRate;
 				while(currentTime + dlDuration > currentWindow.end){					
 					currentDownloadWindowIdx++;
 					if(currentDownloadWindowIdx < downloadWindows.size()){
@@ -0,0 +1,394 @@
+package solver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.stream.FactoryConfigurationError;
+import javax.xml.stream.XMLStreamException;
+
+import params.Params;
+import problem.AcquisitionWindow;
+import problem.CandidateAcquisition;
+import problem.PlanningProblem;
+import problem.ProblemParserXML;
+import problem.Satellite;
+import problem.User;
+import utils.SplitMix64;
+
+/**
+ * Class used for estimating by Monte Carlo simulation the number of usable images (acquisitions realized without
+ * clouds) of an acquisition plan, for each user and each priority level, with confidence intervals.
+ * In each scenario, the acquisition realized in window w is cloudy with probability w.cloudProba. Cloud outcomes are
+ * either independent, or spatially correlated through a Gaussian copula: the Earth is divided into cells of
+ * cellSize x cellSize radians (in longitude and latitude), each scenario draws one normal factor X_c per cell and one
+ * normal noise E_i per acquisition, and acquisition i is cloudy iff sqrt(rho) X_c + sqrt(1-rho) E_i is below the
+ * quantile of its cloud probability, which preserves the cloud probability of each acquisition.
+ * Acquisitions of the same cell having the same cloud probability form a class: given the factor of the cell, the
+ * acquisitions of a class are independently cloud-free with the same conditional probability, so that each scenario
+ * only evaluates one normal distribution function per class and draws one uniform number per acquisition.
+ * Scenarios are simulated in parallel by blocks, each scenario using its own random stream (split from the seed), so
+ * that results only depend on the seed and not on the number of threads.
+ * @author cpralet
+ *
+ */
+public class CloudOutcomeSimulator {
+
+	/** Number of scenarios simulated by each parallel task */
+	private static final int SCENARIOS_PER_TASK = 1024;
+	/** Quantile of the normal distribution used for 95% confidence intervals */
+	private static final double Z_95 = 1.959963984540054;
+	/** 2^53 (number of distinct values of the uniform integers drawn) */
+	private static final double TWO_POW_53 = 1L << 53;
+	/** The normal distribution function is tabulated over [-CDF_RANGE,CDF_RANGE] */
+	private static final double CDF_RANGE = 8;
+	/** Number of points of the table per unit */
+	private static final int CDF_RESOLUTION = 1024;
+	/** Values of the normal distribution function at the points of the table */
+	private static final double[] CDF_TABLE = new double[(int) (2 * CDF_RANGE * CDF_RESOLUTION) + 1];
+	static {
+		for(int k=0;k<CDF_TABLE.length;k++)
+			CDF_TABLE[k] = 0.5 * erfc(-(k / (double) CDF_RESOLUTION - CDF_RANGE) / Math.sqrt(2));
+	}
+
+	/** Planning problem */
+	private final PlanningProblem planningProblem;
+	/** Number of planned acquisitions simulated */
+	private final int n;
+	/** Cloud probability of the window selected for each planned acquisition */
+	private final double[] cloudProbas;
+	/** Group (user and priority) of each planned acquisition */
+	private final int[] groups;
+	/** Class (cell and cloud probability) of each planned acquisition */
+	private final int[] classes;
+	/** Number of classes */
+	private final int nClasses;
+	/** Cell of each class */
+	private final int[] classCells;
+	/** Cloud probability of each class */
+	private final double[] classCloudProbas;
+	/** Normal quantile of the cloud probability of each class */
+	private final double[] classThresholds;
+	/** Number of distinct cells */
+	private final int nCells;
+	/** Number of priority levels (priorities are in 0..nPriorities-1) */
+	private final int nPriorities;
+	/** Number of groups (one per user and priority level) */
+	private final int nGroups;
+	/** Correlation between the latent variables of two acquisitions of the same cell (0 for independent outcomes) */
+	private final double correlation;
+
+	/** Number of scenarios of the last simulation (0 if no simulation has been run) */
+	private int nScenarios;
+	/** Mean number of usable images of each group (the last entry is for the whole plan) */
+	private double[] means;
+	/** Sample variance of the number of usable images of each group (the last entry is for the whole plan) */
+	private double[] variances;
+
+	/**
+	 * Build a simulator for an acquisition plan
+	 * @param plan
+	 * @param cellSize size of the spatial cells in longitude and latitude (in radians)
+	 * @param correlation correlation of the cloud outcomes within a cell, in [0,1] (0 for independent outcomes)
+	 */
+	public CloudOutcomeSimulator(SolutionPlan plan, double cellSize, double correlation){
+		if(correlation < 0 || correlation > 1)
+			throw new IllegalArgumentException("Correlation out of [0,1]: " + correlation);
+		this.planningProblem = plan.pb;
+		this.correlation = correlation;
+		int maxPriority = 0;
+		for(CandidateAcquisition a : planningProblem.candidateAcquisitions)
+			maxPriority = Math.max(maxPriority, a.priority);
+		nPriorities = maxPriority + 1;
+		nGroups = planningProblem.users.size() * nPriorities;
+
+		n = plan.getNumberOfPlannedAcquisitions();
+		cloudProbas = new double[n];
+		groups = new int[n];
+		classes = new int[n];
+		Map<Long,Integer> cellIndices = new HashMap<Long,Integer>();
+		Map<Double,Integer> probaLevels = new HashMap<Double,Integer>();
+		Map<Long,Integer> classIndices = new HashMap<Long,Integer>();
+		List<Integer> cellOfClass = new ArrayList<Integer>();
+		List<Double> probaOfClass = new ArrayList<Double>();
+		for(int i=0;i<n;i++){
+			CandidateAcquisition a = plan.getPlannedAcquisition(i);
+			AcquisitionWindow w = plan.getSelectedAcquisitionWindow(a);
+			cloudProbas[i] = w.cloudProba;
+			groups[i] = a.user.idx * nPriorities + a.priority;
+			long key = ((long) Math.floor(a.longitude / cellSize) << 32) ^ ((long) Math.floor(a.latitude / cellSize) & 0xFFFFFFFFL);
+			Integer cell = cellIndices.get(key);
+			if(cell == null){
+				cell = cellIndices.size();
+				cellIndices.put(key, cell);
+			}
+			Integer level = probaLevels.get(w.cloudProba);
+			if(level == null){
+				level = probaLevels.size();
+				probaLevels.put(w.cloudProba, level);
+			}
+			long classKey = ((long) cell << 32) | level;
+			Integer c = classIndices.get(classKey);
+			if(c == null){
+				c = classIndices.size();
+				classIndices.put(classKey, c);
+				cellOfClass.add(cell);
+				probaOfClass.add(w.cloudProba);
+			}
+			classes[i] = c;
+		}
+		nCells = cellIndices.size();
+		nClasses = classIndices.size();
+		classCells = new int[nClasses];
+		classCloudProbas = new double[nClasses];
+		classThresholds = new double[nClasses];
+		for(int c=0;c<nClasses;c++){
+			classCells[c] = cellOfClass.get(c);
+			classCloudProbas[c] = probaOfClass.get(c);
+			classThresholds[c] = inverseNormal(classCloudProbas[c]);
+		}
+	}
+
+	/**
+	 * Simulate cloud outcomes
+	 * @param nScenarios number of scenarios
+	 * @param seed seed from which the random streams of all scenarios are split
+	 * @param nThreads number of threads used
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public void simulate(int nScenarios, final long seed, int nThreads) throws InterruptedException, ExecutionException{
+		List<Callable<double[]>> tasks = new ArrayList<Callable<double[]>>();
+		for(int first=0;first<nScenarios;first+=SCENARIOS_PER_TASK){
+			final int from = first;
+			final int to = Math.min(nScenarios, first + SCENARIOS_PER_TASK);
+			tasks.add(new Callable<double[]>(){
+				@Override
+				public double[] call() {
+					return simulateBlock(from, to, seed);
+				}
+			});
+		}
+
+		// sums and sums of squares are merged in the order of the blocks
+		double[] sums = new double[2 * (nGroups + 1)];
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+		try {
+			for(Future<double[]> future : executor.invokeAll(tasks)){
+				double[] blockSums = future.get();
+				for(int k=0;k<sums.length;k++)
+					sums[k] += blockSums[k];
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+
+		this.nScenarios = nScenarios;
+		means = new double[nGroups + 1];
+		variances = new double[nGroups + 1];
+		for(int g=0;g<=nGroups;g++){
+			double mean = sums[2*g] / nScenarios;
+			means[g] = mean;
+			variances[g] = nScenarios < 2 ? 0 : Math.max(0, (sums[2*g+1] - nScenarios * mean * mean) / (nScenarios - 1));
+		}
+	}
+
+	/**
+	 * Simulate a block of scenarios
+	 * @param from first scenario of the block
+	 * @param to scenario following the last one of the block
+	 * @param seed
+	 * @return for each group (and for the whole plan, last), the sum and the sum of squares of the number of usable images
+	 */
+	private double[] simulateBlock(int from, int to, long seed){
+		double[] sums = new double[2 * (nGroups + 1)];
+		int[] counts = new int[nGroups];
+		double[] factors = new double[nCells];
+		// an acquisition of class c is cloud-free iff a uniform 53-bit integer is below clearLimits[c], i.e. with the
+		// probability of class c to be cloud-free (given the factor of its cell)
+		long[] clearLimits = new long[nClasses];
+		double factorWeight = Math.sqrt(correlation);
+		double noiseWeight = Math.sqrt(1 - correlation);
+		boolean independent = correlation == 0;
+		if(independent){
+			for(int c=0;c<nClasses;c++)
+				clearLimits[c] = (long) Math.ceil((1 - classCloudProbas[c]) * TWO_POW_53);
+		}
+		SplitMix64 rand = new SplitMix64(0);
+		for(int scenario=from;scenario<to;scenario++){
+			rand.reset(seed, scenario);
+			if(!independent){
+				// P(sqrt(rho) X + sqrt(1-rho) E >= t | X) = Phi((sqrt(rho) X - t) / sqrt(1-rho))
+				for(int c=0;c<nCells;c++)
+					factors[c] = factorWeight * rand.nextGaussian();
+				for(int c=0;c<nClasses;c++)
+					clearLimits[c] = (long) Math.ceil(normalCdf((factors[classCells[c]] - classThresholds[c]) / noiseWeight) * TWO_POW_53);
+			}
+			// branch-free counting: the sign bit of r - limit is 1 iff r < limit
+			for(int i=0;i<n;i++)
+				counts[groups[i]] += (int) (((rand.nextLong() >>> 11) - clearLimits[classes[i]]) >>> 63);
+			int total = 0;
+			for(int g=0;g<nGroups;g++){
+				int count = counts[g];
+				if(count != 0){
+					total += count;
+					sums[2*g] += count;
+					sums[2*g+1] += (double) count * count;
+					counts[g] = 0;
+				}
+			}
+			sums[2*nGroups] += total;
+			sums[2*nGroups+1] += (double) total * total;
+		}
+		return sums;
+	}
+
+	/**
+	 * Quantile function of the standard normal distribution (rational approximation of Acklam, relative error below
+	 * 1.2e-9)
+	 * @param p probability
+	 * @return the value x such that P(X <= x) = p for X normally distributed
+	 */
+	static double inverseNormal(double p){
+		if(p <= 0)
+			return Double.NEGATIVE_INFINITY;
+		if(p >= 1)
+			return Double.POSITIVE_INFINITY;
+		double x;
+		if(p < 0.02425){
+			double q = Math.sqrt(-2 * Math.log(p));
+			x = (((((-7.784894002430293e-03*q - 3.223964580411365e-01)*q - 2.400758277161838e+00)*q - 2.549732539343734e+00)*q + 4.374664141464968e+00)*q + 2.938163982698783e+00)
+					/ ((((7.784695709041462e-03*q + 3.224671290700398e-01)*q + 2.445134137142996e+00)*q + 3.754408661907416e+00)*q + 1);
+		}
+		else if(p <= 1 - 0.02425){
+			double q = p - 0.5;
+			double r = q * q;
+			x = (((((-3.969683028665376e+01*r + 2.209460984245205e+02)*r - 2.759285104469687e+02)*r + 1.383577518672690e+02)*r - 3.066479806614716e+01)*r + 2.506628277459239e+00)*q
+					/ (((((-5.447609879822406e+01*r + 1.615858368580409e+02)*r - 1.556989798598866e+02)*r + 6.680131188771972e+01)*r - 1.328068155288572e+01)*r + 1);
+		}
+		else {
+			double q = Math.sqrt(-2 * Math.log(1 - p));
+			x = -(((((-7.784894002430293e-03*q - 3.223964580411365e-01)*q - 2.400758277161838e+00)*q - 2.549732539343734e+00)*q + 4.374664141464968e+00)*q + 2.938163982698783e+00)
+					/ ((((7.784695709041462e-03*q + 3.224671290700398e-01)*q + 2.445134137142996e+00)*q + 3.754408661907416e+00)*q + 1);
+		}
+		return x;
+	}
+
+	/**
+	 * Normal distribution function, interpolated linearly in a table (error of the order of 1e-7)
+	 * @param x
+	 * @return P(X <= x) for X normally distributed
+	 */
+	private static double normalCdf(double x){
+		if(x <= -CDF_RANGE)
+			return 0;
+		if(x >= CDF_RANGE)
+			return 1;
+		double pos = (x + CDF_RANGE) * CDF_RESOLUTION;
+		int k = (int) pos;
+		if(k == CDF_TABLE.length - 1)
+			return CDF_TABLE[k];
+		double frac = pos - k;
+		return CDF_TABLE[k] + frac * (CDF_TABLE[k+1] - CDF_TABLE[k]);
+	}
+
+	/**
+	 * Complementary error function (Chebyshev approximation of Numerical Recipes, relative error below 1.2e-7)
+	 * @param z
+	 * @return erfc(z)
+	 */
+	private static double erfc(double z){
+		double t = 1 / (1 + 0.5 * Math.abs(z));
+		double ans = t * Math.exp(-z*z - 1.26551223 + t*(1.00002368 + t*(0.37409196 + t*(0.09678418 + t*(-0.18628806
+				+ t*(0.27886807 + t*(-1.13520398 + t*(1.48851587 + t*(-0.82215223 + t*0.17087277)))))))));
+		return z >= 0 ? ans : 2 - ans;
+	}
+
+	/**
+	 * @return the expected number of usable images of the plan (exact, by linearity of expectation)
+	 */
+	public double getExactExpectedUsable(){
+		double expected = 0;
+		for(int i=0;i<n;i++)
+			expected += 1 - cloudProbas[i];
+		return expected;
+	}
+
+	/**
+	 * @return the estimated mean number of usable images of the plan
+	 */
+	public double getExpectedUsable(){
+		return means[nGroups];
+	}
+
+	/**
+	 * @return the half width of the 95% confidence interval on the mean number of usable images of the plan
+	 */
+	public double getConfidenceHalfWidth(){
+		return Z_95 * Math.sqrt(variances[nGroups] / nScenarios);
+	}
+
+	/**
+	 * @return the standard deviation of the number of usable images of the plan among scenarios
+	 */
+	public double getStandardDeviation(){
+		return Math.sqrt(variances[nGroups]);
+	}
+
+	/**
+	 * @param user
+	 * @param priority
+	 * @return the estimated mean number of usable images for a user and a priority level
+	 */
+	public double getExpectedUsable(User user, int priority){
+		return means[user.idx * nPriorities + priority];
+	}
+
+	/**
+	 * @param user
+	 * @param priority
+	 * @return the half width of the 95% confidence interval on the mean number of usable images for a user and a priority level
+	 */
+	public double getConfidenceHalfWidth(User user, int priority){
+		return Z_95 * Math.sqrt(variances[user.idx * nPriorities + priority] / nScenarios);
+	}
+
+	/**
+	 * Print the results of the last simulation
+	 */
+	public void printResults(){
+		System.out.println("Cloud simulation: " + nScenarios + " scenarios, " + n + " planned acquisitions, " + nCells + " cells, correlation " + correlation);
+		System.out.println("Usable images: " + getExpectedUsable() + " +/- " + getConfidenceHalfWidth()
+				+ " (exact expectation " + getExactExpectedUsable() + ", standard deviation " + getStandardDeviation() + ")");
+		for(User user : planningProblem.users){
+			for(int priority=0;priority<nPriorities;priority++){
+				int g = user.idx * nPriorities + priority;
+				if(means[g] > 0 || variances[g] > 0)
+					System.out.println("\t" + user.name + ", priority " + priority + ": " + means[g] + " +/- " + getConfidenceHalfWidth(user, priority));
+			}
+		}
+	}
+
+	public static void main(String[] args) throws XMLStreamException, FactoryConfigurationError, IOException, InterruptedException, ExecutionException{
+		ProblemParserXML parser = new ProblemParserXML();
+		PlanningProblem pb = parser.read(Params.systemDataFile,Params.planningDataFile);
+		pb.printStatistics();
+		SolutionPlan plan = new SolutionPlan(pb);
+		for(Satellite satellite : pb.satellites)
+			plan.readAcquisitionPlan("output/solutionAcqPlan_"+satellite.name+".txt");
+		CloudOutcomeSimulator simulator = new CloudOutcomeSimulator(plan, Params.cloudCellSize, Params.cloudCorrelation);
+		long start = System.nanoTime();
+		simulator.simulate(Params.cloudScenarios, Params.randomSeed, Params.n_threads);
+		System.out.println("Simulation time: " + (System.nanoTime() - start) / 1e9 + " s");
+		simulator.printResults();
+	}
+
+}
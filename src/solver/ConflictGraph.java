@@ -0,0 +1,176 @@
+package solver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import problem.AcquisitionWindow;
+import problem.PlanningProblem;
+import problem.Satellite;
+
+/**
+ * Class used for representing conflicts between acquisition windows of a same satellite.
+ * Two windows conflict when they cannot both be realized, whatever their order: the earliest end of one window
+ * plus the transition time exceeds the latest start time of the other, in both orders.
+ * Conflicts are computed once per satellite by sweeping windows sorted by increasing earliest start time, the sweep
+ * from a window stopping at its earliest end plus the bound on transition times given by the transition time model
+ * (TransitionTimeModel.getMaxTransitionTime), so that it is valid whatever the model. Conflicts are stored
+ * as a compact adjacency structure (offsets/neighbours arrays) indexed by the index of the acquisition windows.
+ * @author cpralet
+ *
+ */
+public class ConflictGraph {
+
+	/** Planning problem associated with this conflict graph */
+	private final PlanningProblem planningProblem;
+	/** Neighbours of window i are stored in neighbours[offsets[i]..offsets[i+1]-1] */
+	private final int[] offsets;
+	/** Indices of conflicting windows, sorted by increasing index for each window */
+	private final int[] neighbours;
+
+	/**
+	 * Build the conflict graph of all acquisition windows of a planning problem
+	 * @param planningProblem
+	 */
+	public ConflictGraph(PlanningProblem planningProblem){
+		this.planningProblem = planningProblem;
+		int nWindows = planningProblem.acquisitionWindows.size();
+
+		// group acquisition windows by satellite
+		Map<Satellite,List<AcquisitionWindow>> windowsBySatellite = new HashMap<Satellite,List<AcquisitionWindow>>();
+		for(Satellite satellite : planningProblem.satellites)
+			windowsBySatellite.put(satellite, new ArrayList<AcquisitionWindow>());
+		for(AcquisitionWindow w : planningProblem.acquisitionWindows)
+			windowsBySatellite.get(w.satellite).add(w);
+
+		// sweep the windows of each satellite and collect conflicting pairs (each pair twice, one per direction)
+		int[] degrees = new int[nWindows];
+		IntPairList pairs = new IntPairList();
+		for(Satellite satellite : planningProblem.satellites){
+			List<AcquisitionWindow> windows = windowsBySatellite.get(satellite);
+			if(windows.isEmpty())
+				continue;
+			Collections.sort(windows, earliestStartComparator);
+			double maxTransitionTime = planningProblem.getTransitionTimeModel().getMaxTransitionTime(windows);
+			for(int i=0;i<windows.size();i++){
+				AcquisitionWindow w1 = windows.get(i);
+				// beyond this time, a window can always be realized after w1
+				double sweepEnd = w1.earliestStart + w1.duration + maxTransitionTime;
+				for(int j=i+1;j<windows.size();j++){
+					AcquisitionWindow w2 = windows.get(j);
+					if(w2.earliestStart > sweepEnd)
+						break;
+					if(conflict(w1, w2)){
+						pairs.add(w1.idx, w2.idx);
+						degrees[w1.idx]++;
+						degrees[w2.idx]++;
+					}
+				}
+			}
+		}
+
+		// build the adjacency structure
+		offsets = new int[nWindows+1];
+		for(int i=0;i<nWindows;i++)
+			offsets[i+1] = offsets[i] + degrees[i];
+		neighbours = new int[offsets[nWindows]];
+		int[] fill = Arrays.copyOf(offsets, nWindows);
+		for(int k=0;k<pairs.size();k++){
+			int a = pairs.first(k);
+			int b = pairs.second(k);
+			neighbours[fill[a]++] = b;
+			neighbours[fill[b]++] = a;
+		}
+		for(int i=0;i<nWindows;i++)
+			Arrays.sort(neighbours, offsets[i], offsets[i+1]);
+	}
+
+	/**
+	 *
+	 * @param w1
+	 * @param w2
+	 * @return true if the two acquisition windows cannot be both realized, whatever their order
+	 */
+	private boolean conflict(AcquisitionWindow w1, AcquisitionWindow w2){
+		return w1.earliestStart + w1.duration + planningProblem.getTransitionTime(w1, w2) > w2.latestStart
+				&& w2.earliestStart + w2.duration + planningProblem.getTransitionTime(w2, w1) > w1.latestStart;
+	}
+
+	/**
+	 *
+	 * @param windowIdx
+	 * @return the number of windows conflicting with a given window
+	 */
+	public int getDegree(int windowIdx){
+		return offsets[windowIdx+1] - offsets[windowIdx];
+	}
+
+	/**
+	 *
+	 * @param windowIdx
+	 * @param k
+	 * @return the index of the kth window conflicting with a given window
+	 */
+	public int getNeighbour(int windowIdx, int k){
+		return neighbours[offsets[windowIdx] + k];
+	}
+
+	/**
+	 *
+	 * @param windowIdx1
+	 * @param windowIdx2
+	 * @return true if the two windows conflict
+	 */
+	public boolean conflict(int windowIdx1, int windowIdx2){
+		return Arrays.binarySearch(neighbours, offsets[windowIdx1], offsets[windowIdx1+1], windowIdx2) >= 0;
+	}
+
+	/**
+	 *
+	 * @return the total number of conflicting pairs
+	 */
+	public int getNumberOfConflicts(){
+		return neighbours.length / 2;
+	}
+
+	/** Comparator used for sorting acquisition windows by increasing earliest start time */
+	private static final Comparator<AcquisitionWindow> earliestStartComparator = new Comparator<AcquisitionWindow>(){
+		@Override
+		public int compare(AcquisitionWindow w0, AcquisitionWindow w1) {
+			return Double.compare(w0.earliestStart, w1.earliestStart);
+		}
+	};
+
+	/**
+	 * Growable list of pairs of integers stored in a single primitive array
+	 */
+	private static class IntPairList {
+		private int[] values = new int[64];
+		private int size = 0;
+
+		void add(int a, int b){
+			if(2*size+2 > values.length)
+				values = Arrays.copyOf(values, 2*values.length);
+			values[2*size] = a;
+			values[2*size+1] = b;
+			size++;
+		}
+
+		int size(){
+			return size;
+		}
+
+		int first(int k){
+			return values[2*k];
+		}
+
+		int second(int k){
+			return values[2*k+1];
+		}
+	}
+
+}
@@ -0,0 +1,190 @@
+package solver;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import params.Params;
+import problem.Acquisition;
+import problem.CandidateAcquisition;
+import problem.PlanningProblem;
+import problem.RecordedAcquisition;
+import problem.Satellite;
+
+/**
+ * Class used for representing the acquisitions waiting for being downloaded on each satellite, for download planners
+ * which consider time chronologically.
+ * The acquisitions of a satellite (recorded acquisitions and acquisitions of the plan) are released in increasing
+ * order of acquisition time, at the time they end (see release), into a queue ordered by increasing priority.
+ * As acquisitions enter the queue in chronological order and the queue pops elements having the same key in insertion
+ * order, acquisitions having the same priority are popped by increasing acquisition time. Choosing the next download of
+ * a satellite therefore takes O(log n), and downloaded acquisitions are recorded in a BitSet.
+ * @author cpralet
+ *
+ */
+public class DownloadBacklog {
+
+	/** Solution plan containing the acquisitions to download */
+	private final SolutionPlan plan;
+	/** Number of recorded acquisitions (candidate acquisitions are numbered after them in the BitSet) */
+	private final int nRecorded;
+	/** Acquisitions of each satellite (indexed by satellite idx), by increasing acquisition time */
+	private final List<List<Acquisition>> acquisitions;
+	/** Number of acquisitions of each satellite already released in its queue */
+	private final int[] nReleased;
+	/** Released acquisitions of each satellite which are not downloaded yet, by increasing priority then acquisition time */
+	private final List<RankedQueue<Acquisition>> queues;
+	/** Downloaded acquisitions */
+	private final BitSet downloaded;
+
+	/**
+	 * Create the backlog of the acquisitions of a solution plan (recorded acquisitions and planned acquisitions)
+	 * @param plan
+	 */
+	public DownloadBacklog(final SolutionPlan plan){
+		this.plan = plan;
+		PlanningProblem pb = plan.pb;
+		nRecorded = pb.recordedAcquisitions.size();
+		int nSatellites = pb.satellites.size();
+		acquisitions = new ArrayList<List<Acquisition>>();
+		queues = new ArrayList<RankedQueue<Acquisition>>();
+		for(int s=0;s<nSatellites;s++){
+			acquisitions.add(new ArrayList<Acquisition>());
+			queues.add(new RankedQueue<Acquisition>());
+		}
+		nReleased = new int[nSatellites];
+		downloaded = new BitSet(nRecorded + pb.candidateAcquisitions.size());
+
+		for(RecordedAcquisition a : pb.recordedAcquisitions)
+			acquisitions.get(a.satellite.idx).add(a);
+		for(CandidateAcquisition a : plan.getPlannedAcquisitions())
+			acquisitions.get(plan.getSatellite(a).idx).add(a);
+		for(List<Acquisition> list : acquisitions){
+			Collections.sort(list, new Comparator<Acquisition>(){
+				@Override
+				public int compare(Acquisition a0, Acquisition a1) {
+					return Double.compare(plan.getAcquisitionTime(a0), plan.getAcquisitionTime(a1));
+				}
+			});
+		}
+	}
+
+	/**
+	 * Release in the queue of a satellite all its acquisitions ending before a given time
+	 * @param satellite
+	 * @param time
+	 */
+	public void release(Satellite satellite, double time){
+		List<Acquisition> list = acquisitions.get(satellite.idx);
+		RankedQueue<Acquisition> queue = queues.get(satellite.idx);
+		int i = nReleased[satellite.idx];
+		while(i < list.size() && plan.getAcquisitionTime(list.get(i)) <= time){
+			Acquisition a = list.get(i++);
+			if(!isDownloaded(a))
+				queue.add(a, a.priority);
+		}
+		nReleased[satellite.idx] = i;
+	}
+
+	/**
+	 * @param satellite
+	 * @return the end time of the next acquisition of a satellite to be released (Double.POSITIVE_INFINITY if there is none)
+	 */
+	public double getNextReleaseTime(Satellite satellite){
+		List<Acquisition> list = acquisitions.get(satellite.idx);
+		int i = nReleased[satellite.idx];
+		return i < list.size() ? plan.getAcquisitionTime(list.get(i)) : Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * @param satellite
+	 * @return the released acquisition of a satellite to download next (null if there is none)
+	 */
+	public Acquisition peek(Satellite satellite){
+		return queues.get(satellite.idx).peek();
+	}
+
+	/**
+	 * Remove the acquisition to download next from the queue of a satellite, and record it as downloaded
+	 * @param satellite
+	 * @return the acquisition removed (null if there is none)
+	 */
+	public Acquisition poll(Satellite satellite){
+		Acquisition a = queues.get(satellite.idx).poll();
+		if(a != null)
+			downloaded.set(getIndex(a));
+		return a;
+	}
+
+	/**
+	 * Remove from the queue of a satellite the released acquisition to download next among the ones whose download
+	 * fits in a given interval, and record it as downloaded. This takes O(log n) when the first acquisition of the queue
+	 * fits, and a scan of the queue otherwise.
+	 * @param satellite
+	 * @param start start time of the download
+	 * @param end time before which the download must end
+	 * @return the acquisition removed (null if no released acquisition fits)
+	 */
+	public Acquisition pollFitting(Satellite satellite, double start, double end){
+		RankedQueue<Acquisition> queue = queues.get(satellite.idx);
+		int best = -1;
+		for(int pos=0;pos<queue.size();pos++){
+			if(start + plan.getVolume(queue.get(pos)) / Params.downlinkRate <= end && (best < 0 || queue.precedes(pos, best))){
+				best = pos;
+				if(pos == 0)
+					break;
+			}
+		}
+		if(best < 0)
+			return null;
+		Acquisition a = queue.remove(best);
+		downloaded.set(getIndex(a));
+		return a;
+	}
+
+	/**
+	 * @param a
+	 * @return true if an acquisition has been downloaded
+	 */
+	public boolean isDownloaded(Acquisition a){
+		return downloaded.get(getIndex(a));
+	}
+
+	/**
+	 * @return the number of acquisitions downloaded
+	 */
+	public int getNumberOfDownloaded(){
+		return downloaded.cardinality();
+	}
+
+	/**
+	 * @return the number of acquisitions to download (downloaded or not)
+	 */
+	public int getNumberOfAcquisitions(){
+		int n = 0;
+		for(List<Acquisition> list : acquisitions)
+			n += list.size();
+		return n;
+	}
+
+	/**
+	 * @param satellite
+	 * @return the acquisitions of a satellite, by increasing acquisition time
+	 */
+	public List<Acquisition> getAcquisitions(Satellite satellite){
+		return Collections.unmodifiableList(acquisitions.get(satellite.idx));
+	}
+
+	/**
+	 * @param a
+	 * @return the position of an acquisition in the BitSet of downloaded acquisitions
+	 */
+	private int getIndex(Acquisition a){
+		if(a instanceof RecordedAcquisition)
+			return ((RecordedAcquisition) a).idx;
+		return nRecorded + ((CandidateAcquisition) a).idx;
+	}
+
+}
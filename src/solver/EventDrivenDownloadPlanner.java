@@ -0,0 +1,254 @@
+package solver;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import javax.xml.stream.FactoryConfigurationError;
+import javax.xml.stream.XMLStreamException;
+
+import params.Params;
+import problem.Acquisition;
+import problem.CandidateAcquisition;
+import problem.DownloadWindow;
+import problem.DownloadWindowIndex;
+import problem.PlanningProblem;
+import problem.ProblemParserXML;
+import problem.RecordedAcquisition;
+import problem.Satellite;
+import problem.Station;
+import utils.ResourceCalendar;
+
+/**
+ * Class implementing a discrete-event version of the time-based download planner (see TimeBasedDownloadPlanner).
+ * The decision rule is the same: each free station considers the satellites it sees by increasing number of stations
+ * seeing them, and downloads the available acquisition of the satellite having the best priority (then the earliest
+ * acquisition time) if it fits in the download window. Instead of advancing time by Params.waitingTime when nothing
+ * can be downloaded, the planner jumps from one event to the next one, events being the opening of a download window,
+ * the end of a download and the end of an acquisition. Closing windows need no event, as they never make a new
+ * download possible. The running time therefore depends on the number of events, not on the length of the horizon.
+ * @author cpralet
+ *
+ */
+public class EventDrivenDownloadPlanner {
+
+	/** Solution plan containing the acquisitions to download */
+	private final SolutionPlan plan;
+	/** Planning problem */
+	private final PlanningProblem pb;
+	/** Index of the download windows */
+	private final DownloadWindowIndex windowIndex;
+	/** Times of the pending events (window openings, download ends and acquisition ends) */
+	private final PriorityQueue<Double> events;
+	/** Acquisitions waiting for being downloaded on each satellite */
+	private DownloadBacklog backlog;
+	/** Downloads of each station (indexed by station idx) */
+	private final ResourceCalendar[] stationCalendars;
+	/** Downloads of each satellite (indexed by satellite idx) */
+	private final ResourceCalendar[] satelliteCalendars;
+	/** Minimum duration of a download */
+	private double minDownloadDuration;
+	/** Downloads decided, in chronological order */
+	private final List<DownloadPlanLine> downloadPlan;
+	/** Download window used by each download of the plan */
+	private final List<DownloadWindow> downloadPlanWindows;
+	/** Number of events processed */
+	private int nEvents;
+	/** Number of downloads which could not be realized because the window was too short */
+	private int nTimesUp;
+
+	/**
+	 * Create a download planner for the acquisitions of a solution plan
+	 * @param plan
+	 */
+	public EventDrivenDownloadPlanner(final SolutionPlan plan){
+		this.plan = plan;
+		this.pb = plan.pb;
+		windowIndex = pb.getDownloadWindowIndex();
+		events = new PriorityQueue<Double>();
+		backlog = new DownloadBacklog(plan);
+		stationCalendars = new ResourceCalendar[pb.stations.size()];
+		for(int s=0;s<stationCalendars.length;s++)
+			stationCalendars[s] = new ResourceCalendar();
+		satelliteCalendars = new ResourceCalendar[pb.satellites.size()];
+		for(int s=0;s<satelliteCalendars.length;s++)
+			satelliteCalendars[s] = new ResourceCalendar();
+		downloadPlan = new ArrayList<DownloadPlanLine>();
+		downloadPlanWindows = new ArrayList<DownloadWindow>();
+	}
+
+	/**
+	 * Plan the downloads
+	 */
+	public void planDownloads(){
+		events.clear();
+		for(ResourceCalendar calendar : stationCalendars)
+			calendar.clear();
+		for(ResourceCalendar calendar : satelliteCalendars)
+			calendar.clear();
+		downloadPlan.clear();
+		downloadPlanWindows.clear();
+		nEvents = 0;
+		nTimesUp = 0;
+
+		backlog = new DownloadBacklog(plan);
+		minDownloadDuration = Double.POSITIVE_INFINITY;
+		for(RecordedAcquisition a : pb.recordedAcquisitions)
+			addAcquisition(a);
+		for(CandidateAcquisition a : plan.getPlannedAcquisitions())
+			addAcquisition(a);
+		for(DownloadWindow w : pb.downloadWindows)
+			events.add(w.start);
+
+		while(!events.isEmpty()){
+			double time = events.peek();
+			if(time >= pb.getHorizonEnd())
+				break;
+			// all events occurring at the same time are processed together
+			while(!events.isEmpty() && events.peek() == time){
+				events.poll();
+				nEvents++;
+			}
+			for(Station station : pb.stations){
+				if(stationCalendars[station.idx].isFree(time, time + minDownloadDuration))
+					tryDownload(station, time);
+			}
+		}
+	}
+
+	/**
+	 * Record an acquisition to download
+	 * @param a
+	 */
+	private void addAcquisition(Acquisition a){
+		minDownloadDuration = Math.min(minDownloadDuration, plan.getVolume(a) / Params.downlinkRate);
+		double time = plan.getAcquisitionTime(a);
+		if(time > pb.getHorizonStart())
+			events.add(time);
+	}
+
+	/**
+	 * Try to start a download on a free station
+	 * @param station
+	 * @param time
+	 */
+	private void tryDownload(Station station, double time){
+		List<DownloadWindow> windows = new ArrayList<DownloadWindow>();
+		windowIndex.getWindows(station, time, windows);
+		final List<Satellite> satellites = new ArrayList<Satellite>();
+		for(DownloadWindow w : windows){
+			if(time <= w.end - minDownloadDuration && satelliteCalendars[w.satellite.idx].isFree(time, time + minDownloadDuration) && !satellites.contains(w.satellite))
+				satellites.add(w.satellite);
+		}
+		if(satellites.isEmpty())
+			return;
+		final int[] nVisibleStations = new int[pb.satellites.size()];
+		for(Satellite satellite : satellites)
+			nVisibleStations[satellite.idx] = countVisibleStations(satellite, time);
+		Collections.sort(satellites, new Comparator<Satellite>(){
+			@Override
+			public int compare(Satellite s0, Satellite s1) {
+				return nVisibleStations[s0.idx] - nVisibleStations[s1.idx];
+			}
+		});
+
+		for(Satellite satellite : satellites){
+			backlog.release(satellite, time);
+			Acquisition a = backlog.peek(satellite);
+			if(a == null)
+				continue;
+			DownloadWindow window = null;
+			for(DownloadWindow w : windows){
+				if(w.satellite == satellite && w.end > time)
+					window = w;
+			}
+			double end = time + plan.getVolume(a) / Params.downlinkRate;
+			if(end > window.end){
+				nTimesUp++;
+				continue;
+			}
+			backlog.poll(satellite);
+			downloadPlan.add(new DownloadPlanLine(satellite, station, time, end, a));
+			downloadPlanWindows.add(window);
+			stationCalendars[station.idx].add(time, end);
+			satelliteCalendars[satellite.idx].add(time, end);
+			events.add(end);
+			return;
+		}
+	}
+
+	/**
+	 * @param satellite
+	 * @param time
+	 * @return the number of stations seeing a satellite at a given time
+	 */
+	private int countVisibleStations(Satellite satellite, double time){
+		List<DownloadWindow> windows = new ArrayList<DownloadWindow>();
+		windowIndex.getWindows(satellite, time, windows);
+		List<Station> stations = new ArrayList<Station>();
+		for(DownloadWindow w : windows){
+			if(!stations.contains(w.station))
+				stations.add(w.station);
+		}
+		return stations.size();
+	}
+
+	/**
+	 * @return the downloads decided, in chronological order
+	 */
+	public List<DownloadPlanLine> getDownloadPlan(){
+		return downloadPlan;
+	}
+
+	/**
+	 * Print some statistics on the download plan
+	 */
+	public void printStatistics(){
+		System.out.println("nDownloads: " + downloadPlan.size() + "/" + backlog.getNumberOfAcquisitions() + ", nEvents: " + nEvents + ", downloads not fitting in their window: " + nTimesUp);
+	}
+
+	/**
+	 * Write the download plan in a file
+	 * @param solutionFilename
+	 * @throws IOException
+	 */
+	public void writePlan(String solutionFilename) throws IOException{
+		PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(solutionFilename, false)));
+		boolean firstLine = true;
+		for(int i=0;i<downloadPlan.size();i++){
+			DownloadPlanLine line = downloadPlan.get(i);
+			DownloadWindow window = downloadPlanWindows.get(i);
+			if(firstLine)
+				firstLine = false;
+			else
+				writer.write("\n");
+			if(line.acquisition instanceof RecordedAcquisition)
+				writer.write("REC " + ((RecordedAcquisition) line.acquisition).idx + " " + window.idx + " " + line.start + " " + line.end);
+			else // case CandidateAcquisition
+				writer.write("CAND " + ((CandidateAcquisition) line.acquisition).idx + " " + window.idx + " " + line.start + " " + line.end);
+		}
+		writer.flush();
+		writer.close();
+	}
+
+	public static void main(String[] args) throws XMLStreamException, FactoryConfigurationError, IOException, ParseException{
+		ProblemParserXML parser = new ProblemParserXML();
+		PlanningProblem pb = parser.read(Params.systemDataFile,Params.planningDataFile);
+		SolutionPlan plan = new SolutionPlan(pb);
+		int nSatellites = pb.satellites.size();
+		for(int i=1;i<=nSatellites;i++)
+			plan.readAcquisitionPlan("output/solutionAcqPlan_SAT"+i+".txt");
+		EventDrivenDownloadPlanner planner = new EventDrivenDownloadPlanner(plan);
+		planner.planDownloads();
+		planner.printStatistics();
+		planner.writePlan("output/downloadPlan.txt");
+	}
+
+}
@@ -0,0 +1,417 @@
+package solver;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import javax.xml.stream.FactoryConfigurationError;
+import javax.xml.stream.XMLStreamException;
+
+import params.Params;
+import problem.Acquisition;
+import problem.CandidateAcquisition;
+import problem.DownloadWindow;
+import problem.DownloadWindowIndex;
+import problem.PlanningProblem;
+import problem.ProblemParserXML;
+import problem.RecordedAcquisition;
+import problem.Station;
+import utils.MaxFlow;
+import utils.ResourceCalendar;
+
+/**
+ * Class implementing a capacity-aware download planner, in two steps.
+ *
+ * First, the assignment of acquisition volumes to download windows is optimized on a flow network. The horizon is cut
+ * into elementary segments by the bounds of the download windows. In each segment, each satellite and each station can
+ * transmit at most (segment duration x Params.downlinkRate) bits, and a satellite can only transmit to the stations
+ * having a download window with it. The data of an acquisition enters the satellite in the segment containing the end
+ * of the acquisition and can be kept onboard from one segment to the next one. The network is:
+ * source -> acquisition (volume) -> satellite segment (storage from one segment to the next) -> satellite transmission
+ * in the segment -> station segment -> sink. Volumes are maximized lexicographically by priority (the volume of
+ * priority 0 is maximized first, then the volume of priority 1 without decreasing it...) by opening the capacities of
+ * the acquisitions priority by priority and augmenting the flow with Dinic's algorithm. The flow obtained is an upper
+ * bound on the volume which can be downloaded at each priority level, as it allows the download of an acquisition to be
+ * split between several windows.
+ *
+ * Second, downloads are sequenced chronologically (event-driven, as in EventDrivenDownloadPlanner): a free station
+ * serves first the satellite to which the flow assigns the largest remaining volume in the current segment, and
+ * downloads its acquisition having the best priority (then the earliest acquisition time) which fits in the window
+ * (see DownloadBacklog.pollFitting).
+ * @author cpralet
+ *
+ */
+public class MaxFlowDownloadPlanner {
+
+	/** Solution plan containing the acquisitions to download */
+	private final SolutionPlan plan;
+	/** Planning problem */
+	private final PlanningProblem pb;
+	/** Index of the download windows */
+	private final DownloadWindowIndex windowIndex;
+	/** Acquisitions to download (recorded acquisitions, then planned acquisitions) */
+	private final List<Acquisition> acquisitions;
+	/** Bounds of the elementary segments of the horizon, by increasing time */
+	private double[] boundaries;
+	/** Remaining time assigned by the flow to each download window in each segment it covers (indexed by window idx, then by segment minus the first segment of the window) */
+	private double[][] quotas;
+	/** First segment covered by each download window */
+	private int[] firstSegments;
+	/** Volume of the flow for each priority level */
+	private long[] flowVolumes;
+	/** Acquisitions waiting for being downloaded on each satellite */
+	private DownloadBacklog backlog;
+	/** Downloads of each station (indexed by station idx) */
+	private final ResourceCalendar[] stationCalendars;
+	/** Downloads of each satellite (indexed by satellite idx) */
+	private final ResourceCalendar[] satelliteCalendars;
+	/** Minimum duration of a download */
+	private double minDownloadDuration;
+	/** Downloads decided, in chronological order */
+	private final List<DownloadPlanLine> downloadPlan;
+	/** Download window used by each download of the plan */
+	private final List<DownloadWindow> downloadPlanWindows;
+	/** Computation times (in ms) of the flow and of the sequencing */
+	private double flowTime;
+	private double sequencingTime;
+
+	/**
+	 * Create a download planner for the acquisitions of a solution plan
+	 * @param plan
+	 */
+	public MaxFlowDownloadPlanner(final SolutionPlan plan){
+		this.plan = plan;
+		this.pb = plan.pb;
+		windowIndex = pb.getDownloadWindowIndex();
+		acquisitions = new ArrayList<Acquisition>();
+		acquisitions.addAll(pb.recordedAcquisitions);
+		acquisitions.addAll(plan.getPlannedAcquisitions());
+		backlog = new DownloadBacklog(plan);
+		stationCalendars = new ResourceCalendar[pb.stations.size()];
+		for(int s=0;s<stationCalendars.length;s++)
+			stationCalendars[s] = new ResourceCalendar();
+		satelliteCalendars = new ResourceCalendar[pb.satellites.size()];
+		for(int s=0;s<satelliteCalendars.length;s++)
+			satelliteCalendars[s] = new ResourceCalendar();
+		downloadPlan = new ArrayList<DownloadPlanLine>();
+		downloadPlanWindows = new ArrayList<DownloadWindow>();
+	}
+
+	/**
+	 * Plan the downloads (flow computation, then sequencing)
+	 */
+	public void planDownloads(){
+		long startTime = System.nanoTime();
+		computeFlow();
+		flowTime = (System.nanoTime() - startTime) / 1e6;
+		startTime = System.nanoTime();
+		sequenceDownloads();
+		sequencingTime = (System.nanoTime() - startTime) / 1e6;
+	}
+
+	/**
+	 * @param duration
+	 * @return the capacity (in bits) of a duration
+	 */
+	private static long getCapacity(double duration){
+		return (long) Math.floor(duration * Params.downlinkRate);
+	}
+
+	/**
+	 * Build the flow network and compute the lexicographic maximum flow
+	 */
+	private void computeFlow(){
+		// elementary segments
+		List<DownloadWindow> windows = new ArrayList<DownloadWindow>();
+		double[] times = new double[2*pb.downloadWindows.size()+2];
+		int nTimes = 0;
+		times[nTimes++] = pb.getHorizonStart();
+		times[nTimes++] = pb.getHorizonEnd();
+		for(DownloadWindow w : pb.downloadWindows){
+			double start = Math.max(w.start, pb.getHorizonStart());
+			double end = Math.min(w.end, pb.getHorizonEnd());
+			if(start >= end)
+				continue;
+			windows.add(w);
+			times[nTimes++] = start;
+			times[nTimes++] = end;
+		}
+		Arrays.sort(times, 0, nTimes);
+		int nBoundaries = 0;
+		for(int i=0;i<nTimes;i++){
+			if(nBoundaries == 0 || times[i] != times[nBoundaries-1])
+				times[nBoundaries++] = times[i];
+		}
+		boundaries = Arrays.copyOf(times, nBoundaries);
+		int nSegments = nBoundaries - 1;
+
+		// nodes of the satellites and of the stations in each segment they are used
+		MaxFlow graph = new MaxFlow(2);
+		int source = 0;
+		int sink = 1;
+		int nSatellites = pb.satellites.size();
+		int[][] satelliteNodes = new int[nSatellites][nSegments];
+		int[][] transmissionNodes = new int[nSatellites][nSegments];
+		int[][] stationNodes = new int[pb.stations.size()][nSegments];
+		for(int[] nodes : satelliteNodes)
+			Arrays.fill(nodes, -1);
+		for(int[] nodes : stationNodes)
+			Arrays.fill(nodes, -1);
+		firstSegments = new int[pb.downloadWindows.size()];
+		quotas = new double[pb.downloadWindows.size()][];
+		int[][] windowEdges = new int[pb.downloadWindows.size()][];
+		for(DownloadWindow w : windows){
+			int first = Arrays.binarySearch(boundaries, Math.max(w.start, pb.getHorizonStart()));
+			int last = Arrays.binarySearch(boundaries, Math.min(w.end, pb.getHorizonEnd()));
+			firstSegments[w.idx] = first;
+			quotas[w.idx] = new double[last - first];
+			windowEdges[w.idx] = new int[last - first];
+			int s = w.satellite.idx;
+			int st = w.station.idx;
+			for(int k=first;k<last;k++){
+				long capacity = getCapacity(boundaries[k+1] - boundaries[k]);
+				if(satelliteNodes[s][k] < 0){
+					satelliteNodes[s][k] = graph.addNode();
+					transmissionNodes[s][k] = graph.addNode();
+					graph.addEdge(satelliteNodes[s][k], transmissionNodes[s][k], capacity);
+				}
+				if(stationNodes[st][k] < 0){
+					stationNodes[st][k] = graph.addNode();
+					graph.addEdge(stationNodes[st][k], sink, capacity);
+				}
+				windowEdges[w.idx][k-first] = graph.addEdge(transmissionNodes[s][k], stationNodes[st][k], capacity);
+			}
+		}
+		// data kept onboard from one segment to the next one
+		for(int s=0;s<nSatellites;s++){
+			int previous = -1;
+			for(int k=0;k<nSegments;k++){
+				if(satelliteNodes[s][k] < 0)
+					continue;
+				if(previous >= 0)
+					graph.addEdge(previous, satelliteNodes[s][k], MaxFlow.INFINITY);
+				previous = satelliteNodes[s][k];
+			}
+		}
+
+		// acquisitions (capacities opened priority by priority)
+		int maxPriority = 0;
+		for(Acquisition a : acquisitions)
+			maxPriority = Math.max(maxPriority, a.priority);
+		int[] sourceEdges = new int[acquisitions.size()];
+		Arrays.fill(sourceEdges, -1);
+		for(int i=0;i<acquisitions.size();i++){
+			Acquisition a = acquisitions.get(i);
+			int s = plan.getSatellite(a).idx;
+			// segment containing the end of the acquisition (the whole segment can be used, so that the flow remains an upper bound)
+			int k = Math.max(0, getSegment(plan.getAcquisitionTime(a)));
+			while(k < nSegments && satelliteNodes[s][k] < 0)
+				k++;
+			if(k >= nSegments)
+				continue;
+			int node = graph.addNode();
+			sourceEdges[i] = graph.addEdge(source, node, 0);
+			graph.addEdge(node, satelliteNodes[s][k], MaxFlow.INFINITY);
+		}
+		flowVolumes = new long[maxPriority+1];
+		for(int p=0;p<=maxPriority;p++){
+			for(int i=0;i<acquisitions.size();i++){
+				Acquisition a = acquisitions.get(i);
+				if(sourceEdges[i] >= 0 && a.priority == p)
+					graph.setCapacity(sourceEdges[i], plan.getVolume(a));
+			}
+			flowVolumes[p] = graph.maxFlow(source, sink);
+		}
+
+		for(DownloadWindow w : windows){
+			for(int k=0;k<quotas[w.idx].length;k++)
+				quotas[w.idx][k] = graph.getFlow(windowEdges[w.idx][k]) / Params.downlinkRate;
+		}
+	}
+
+	/**
+	 * Chronological sequencing of the downloads, guided by the flow
+	 */
+	private void sequenceDownloads(){
+		backlog = new DownloadBacklog(plan);
+		downloadPlan.clear();
+		downloadPlanWindows.clear();
+		for(ResourceCalendar calendar : stationCalendars)
+			calendar.clear();
+		for(ResourceCalendar calendar : satelliteCalendars)
+			calendar.clear();
+
+		// times of the pending events (window openings, download ends and acquisition ends)
+		PriorityQueue<Double> events = new PriorityQueue<Double>();
+		minDownloadDuration = Double.POSITIVE_INFINITY;
+		for(Acquisition a : acquisitions){
+			minDownloadDuration = Math.min(minDownloadDuration, plan.getVolume(a) / Params.downlinkRate);
+			double time = plan.getAcquisitionTime(a);
+			if(time > pb.getHorizonStart())
+				events.add(time);
+		}
+		for(DownloadWindow w : pb.downloadWindows)
+			events.add(w.start);
+
+		while(!events.isEmpty()){
+			double time = events.peek();
+			if(time >= pb.getHorizonEnd())
+				break;
+			while(!events.isEmpty() && events.peek() == time)
+				events.poll();
+			for(Station station : pb.stations){
+				if(stationCalendars[station.idx].isFree(time, time + minDownloadDuration)){
+					double end = tryDownload(station, time);
+					if(end > time)
+						events.add(end);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Try to start a download on a free station
+	 * @param station
+	 * @param time
+	 * @return the end of the download started (time if no download is started)
+	 */
+	private double tryDownload(Station station, final double time){
+		List<DownloadWindow> visibleWindows = new ArrayList<DownloadWindow>();
+		windowIndex.getWindows(station, time, visibleWindows);
+		List<DownloadWindow> windows = new ArrayList<DownloadWindow>();
+		for(DownloadWindow w : visibleWindows){
+			if(time <= w.end - minDownloadDuration && quotas[w.idx] != null && satelliteCalendars[w.satellite.idx].isFree(time, time + minDownloadDuration))
+				windows.add(w);
+		}
+		if(windows.isEmpty())
+			return time;
+		// windows by decreasing remaining volume assigned by the flow in the current segment
+		Collections.sort(windows, new Comparator<DownloadWindow>(){
+			@Override
+			public int compare(DownloadWindow w0, DownloadWindow w1) {
+				return Double.compare(getQuota(w1, time), getQuota(w0, time));
+			}
+		});
+
+		for(DownloadWindow w : windows){
+			backlog.release(w.satellite, time);
+			Acquisition a = backlog.pollFitting(w.satellite, time, w.end);
+			if(a == null)
+				continue;
+			double end = time + plan.getVolume(a) / Params.downlinkRate;
+			downloadPlan.add(new DownloadPlanLine(w.satellite, station, time, end, a));
+			downloadPlanWindows.add(w);
+			stationCalendars[station.idx].add(time, end);
+			satelliteCalendars[w.satellite.idx].add(time, end);
+			consumeQuota(w, time, end);
+			return end;
+		}
+		return time;
+	}
+
+	/**
+	 * @param w
+	 * @param time
+	 * @return the remaining time assigned by the flow to a window in the segment containing a given time
+	 */
+	private double getQuota(DownloadWindow w, double time){
+		int k = getSegment(time) - firstSegments[w.idx];
+		return k >= 0 && k < quotas[w.idx].length ? quotas[w.idx][k] : 0;
+	}
+
+	/**
+	 * Decrease the remaining time assigned to a window by the duration of a download
+	 * @param w
+	 * @param start
+	 * @param end
+	 */
+	private void consumeQuota(DownloadWindow w, double start, double end){
+		for(int k=Math.max(getSegment(start), firstSegments[w.idx]);k<firstSegments[w.idx]+quotas[w.idx].length && boundaries[k]<end;k++)
+			quotas[w.idx][k-firstSegments[w.idx]] -= Math.min(end, boundaries[k+1]) - Math.max(start, boundaries[k]);
+	}
+
+	/**
+	 * @param time
+	 * @return the segment containing a given time (the segment starting at this time for a bound)
+	 */
+	private int getSegment(double time){
+		int k = Arrays.binarySearch(boundaries, time);
+		return k >= 0 ? k : -k - 2;
+	}
+
+	/**
+	 * @return the downloads decided, in chronological order
+	 */
+	public List<DownloadPlanLine> getDownloadPlan(){
+		return downloadPlan;
+	}
+
+	/**
+	 * @param priority
+	 * @return the volume of the flow for a priority level (upper bound on the volume downloadable at this level)
+	 */
+	public long getFlowVolume(int priority){
+		return flowVolumes[priority];
+	}
+
+	/**
+	 * Print, for each priority level, the volume downloaded and the upper bound given by the flow
+	 */
+	public void printStatistics(){
+		long[] volumes = new long[flowVolumes.length];
+		long[] totalVolumes = new long[flowVolumes.length];
+		for(Acquisition a : acquisitions)
+			totalVolumes[a.priority] += plan.getVolume(a);
+		for(DownloadPlanLine line : downloadPlan)
+			volumes[line.acquisition.priority] += plan.getVolume(line.acquisition);
+		System.out.println("nDownloads: " + downloadPlan.size() + "/" + acquisitions.size() + ", flow: " + flowTime + " ms, sequencing: " + sequencingTime + " ms");
+		for(int p=0;p<flowVolumes.length;p++)
+			System.out.println("  Priority " + p + ": downloaded " + volumes[p] + " / flow bound " + flowVolumes[p] + " / total " + totalVolumes[p]);
+	}
+
+	/**
+	 * Write the download plan in a file
+	 * @param solutionFilename
+	 * @throws IOException
+	 */
+	public void writePlan(String solutionFilename) throws IOException{
+		PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(solutionFilename, false)));
+		boolean firstLine = true;
+		for(int i=0;i<downloadPlan.size();i++){
+			DownloadPlanLine line = downloadPlan.get(i);
+			DownloadWindow window = downloadPlanWindows.get(i);
+			if(firstLine)
+				firstLine = false;
+			else
+				writer.write("\n");
+			if(line.acquisition instanceof RecordedAcquisition)
+				writer.write("REC " + ((RecordedAcquisition) line.acquisition).idx + " " + window.idx + " " + line.start + " " + line.end);
+			else // case CandidateAcquisition
+				writer.write("CAND " + ((CandidateAcquisition) line.acquisition).idx + " " + window.idx + " " + line.start + " " + line.end);
+		}
+		writer.flush();
+		writer.close();
+	}
+
+	public static void main(String[] args) throws XMLStreamException, FactoryConfigurationError, IOException, ParseException{
+		ProblemParserXML parser = new ProblemParserXML();
+		PlanningProblem pb = parser.read(Params.systemDataFile,Params.planningDataFile);
+		SolutionPlan plan = new SolutionPlan(pb);
+		int nSatellites = pb.satellites.size();
+		for(int i=1;i<=nSatellites;i++)
+			plan.readAcquisitionPlan("output/solutionAcqPlan_SAT"+i+".txt");
+		MaxFlowDownloadPlanner planner = new MaxFlowDownloadPlanner(plan);
+		planner.planDownloads();
+		planner.printStatistics();
+		planner.writePlan("output/downloadPlan.txt");
+	}
+
+}
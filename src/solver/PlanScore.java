@@ -0,0 +1,350 @@
+package solver;
+
+import params.Params;
+import problem.AcquisitionWindow;
+import problem.CandidateAcquisition;
+import problem.PlanningProblem;
+import problem.User;
+
+/**
+ * Class used for maintaining the score of an acquisition plan incrementally.
+ * The number of planned acquisitions, the sum of their priorities and the sum of the cloud probabilities of their
+ * acquisition windows (globally and for each user) are updated in O(1) each time an acquisition window is added to
+ * or removed from the plan, so that the plan never needs to be rescanned for evaluating it.
+ * The value of the plan is a weighted combination of the fraction of candidate acquisitions planned (the higher
+ * the better), of their mean priority and of their mean cloud probability (the lower the better). When the quota
+ * weight is positive, the value is also penalized by the quota excess: the sum over users of the part of the plan
+ * they get beyond their quota (User.quota being the maximum fraction of the planned acquisitions of each user).
+ * @author cpralet
+ *
+ */
+public class PlanScore {
+
+	/** Value of a plan containing no acquisition */
+	public static final double EMPTY_PLAN_VALUE = -2000.;
+
+	/** Number of candidate acquisitions of the problem */
+	private final int nCandidates;
+	/** Weight of the fraction of candidate acquisitions planned */
+	private final double plannedWeight;
+	/** Weight of the mean priority of the planned acquisitions */
+	private final double priorityWeight;
+	/** Weight of the mean cloud probability of the planned acquisitions */
+	private final double cloudProbaWeight;
+	/** Weight of the quota excess (0 if quotas are ignored) */
+	private final double quotaWeight;
+	/** Quota of each user (indexed by user idx) */
+	private final double[] quotas;
+	/** Number of planned acquisitions */
+	private int nPlanned;
+	/** Sum of the priorities of the planned acquisitions */
+	private double sumPriority;
+	/** Sum of the cloud probabilities of the acquisition windows of the planned acquisitions */
+	private double sumCloudProba;
+	/** Number of planned acquisitions of each user (indexed by user idx) */
+	private final int[] nPlannedForUser;
+	/** Sum of the priorities of the planned acquisitions of each user */
+	private final double[] sumPriorityForUser;
+	/** Sum of the cloud probabilities of the planned acquisitions of each user */
+	private final double[] sumCloudProbaForUser;
+
+	/**
+	 * Create the score of an empty plan, with the weights defined in Params
+	 * @param pb
+	 */
+	public PlanScore(PlanningProblem pb){
+		this(pb, Params.scorePlannedWeight, Params.scorePriorityWeight, Params.scoreCloudProbaWeight, Params.scoreQuotaWeight);
+	}
+
+	/**
+	 * Create the score of an empty plan
+	 * @param pb
+	 * @param plannedWeight weight of the fraction of candidate acquisitions planned
+	 * @param priorityWeight weight of the mean priority of the planned acquisitions
+	 * @param cloudProbaWeight weight of the mean cloud probability of the planned acquisitions
+	 * @param quotaWeight weight of the quota excess (0 if quotas are ignored)
+	 */
+	public PlanScore(PlanningProblem pb, double plannedWeight, double priorityWeight, double cloudProbaWeight, double quotaWeight){
+		this.nCandidates = pb.candidateAcquisitions.size();
+		this.plannedWeight = plannedWeight;
+		this.priorityWeight = priorityWeight;
+		this.cloudProbaWeight = cloudProbaWeight;
+		this.quotaWeight = quotaWeight;
+		int nUsers = pb.users.size();
+		quotas = new double[nUsers];
+		for(User user : pb.users)
+			quotas[user.idx] = user.quota;
+		nPlannedForUser = new int[nUsers];
+		sumPriorityForUser = new double[nUsers];
+		sumCloudProbaForUser = new double[nUsers];
+	}
+
+	/**
+	 * Create a copy of a score
+	 * @param score
+	 */
+	public PlanScore(PlanScore score){
+		this.nCandidates = score.nCandidates;
+		this.plannedWeight = score.plannedWeight;
+		this.priorityWeight = score.priorityWeight;
+		this.cloudProbaWeight = score.cloudProbaWeight;
+		this.quotaWeight = score.quotaWeight;
+		this.quotas = score.quotas;
+		this.nPlanned = score.nPlanned;
+		this.sumPriority = score.sumPriority;
+		this.sumCloudProba = score.sumCloudProba;
+		nPlannedForUser = score.nPlannedForUser.clone();
+		sumPriorityForUser = score.sumPriorityForUser.clone();
+		sumCloudProbaForUser = score.sumCloudProbaForUser.clone();
+	}
+
+	/**
+	 * Account for an acquisition window added to the plan
+	 * @param w
+	 */
+	public void add(AcquisitionWindow w){
+		update(w, 1);
+	}
+
+	/**
+	 * Account for an acquisition window removed from the plan
+	 * @param w
+	 */
+	public void remove(AcquisitionWindow w){
+		update(w, -1);
+	}
+
+	/**
+	 * Update the running sums
+	 * @param w
+	 * @param sign 1 for an addition, -1 for a removal
+	 */
+	private void update(AcquisitionWindow w, int sign){
+		CandidateAcquisition a = w.candidateAcquisition;
+		nPlanned += sign;
+		sumPriority += sign * a.priority;
+		sumCloudProba += sign * w.cloudProba;
+		int u = a.user.idx;
+		nPlannedForUser[u] += sign;
+		sumPriorityForUser[u] += sign * a.priority;
+		sumCloudProbaForUser[u] += sign * w.cloudProba;
+	}
+
+	/**
+	 * Reset the score to the one of an empty plan
+	 */
+	public void clear(){
+		nPlanned = 0;
+		sumPriority = 0;
+		sumCloudProba = 0;
+		for(int u=0;u<nPlannedForUser.length;u++){
+			nPlannedForUser[u] = 0;
+			sumPriorityForUser[u] = 0;
+			sumCloudProbaForUser[u] = 0;
+		}
+	}
+
+	/**
+	 * @return the value of the plan (the higher the better)
+	 */
+	public double getValue(){
+		double value = evaluate(nPlanned, sumPriority, sumCloudProba);
+		if(quotaWeight != 0 && nPlanned != 0)
+			value -= quotaWeight * getQuotaExcess(nPlanned, -1, -1);
+		return value;
+	}
+
+	/**
+	 * Value of the plan obtained by replacing an acquisition window by another one, without modifying this score
+	 * @param removed acquisition window removed from the plan (null if none)
+	 * @param added acquisition window added to the plan (null if none)
+	 * @return the value of the plan obtained (the higher the better)
+	 */
+	public double evaluateChange(AcquisitionWindow removed, AcquisitionWindow added){
+		int n = nPlanned;
+		double p = sumPriority;
+		double c = sumCloudProba;
+		int removedUser = -1;
+		int addedUser = -1;
+		if(removed != null){
+			n--;
+			p -= removed.candidateAcquisition.priority;
+			c -= removed.cloudProba;
+			removedUser = removed.candidateAcquisition.user.idx;
+		}
+		if(added != null){
+			n++;
+			p += added.candidateAcquisition.priority;
+			c += added.cloudProba;
+			addedUser = added.candidateAcquisition.user.idx;
+		}
+		double value = evaluate(n, p, c);
+		if(quotaWeight != 0 && n != 0)
+			value -= quotaWeight * getQuotaExcess(n, removedUser, addedUser);
+		return value;
+	}
+
+	/**
+	 * Value of the plan obtained by applying variations to the running sums of this score, without modifying it
+	 * (used for evaluating moves adding and removing several windows)
+	 * @param deltaPlanned variation of the number of planned acquisitions
+	 * @param deltaPriority variation of the sum of their priorities
+	 * @param deltaCloudProba variation of the sum of the cloud probabilities of their windows
+	 * @param deltaPlannedForUser variation of the number of planned acquisitions of each user (indexed by user idx)
+	 * @return the value of the plan obtained, including the quota excess penalty (the higher the better)
+	 */
+	public double evaluateDelta(int deltaPlanned, double deltaPriority, double deltaCloudProba, int[] deltaPlannedForUser){
+		int n = nPlanned + deltaPlanned;
+		double value = evaluate(n, sumPriority + deltaPriority, sumCloudProba + deltaCloudProba);
+		if(quotaWeight != 0 && n != 0){
+			double excess = 0;
+			for(int u=0;u<quotas.length;u++)
+				excess += Math.max(0, (double) (nPlannedForUser[u] + deltaPlannedForUser[u]) / n - quotas[u]);
+			value -= quotaWeight * excess;
+		}
+		return value;
+	}
+
+	/**
+	 * @param n number of planned acquisitions
+	 * @param removedUser user having one acquisition less than in this score (-1 if none)
+	 * @param addedUser user having one acquisition more than in this score (-1 if none)
+	 * @return the sum over users of the fraction of the n planned acquisitions they get beyond their quota
+	 */
+	private double getQuotaExcess(int n, int removedUser, int addedUser){
+		double excess = 0;
+		for(int u=0;u<quotas.length;u++){
+			int count = nPlannedForUser[u];
+			if(u == removedUser)
+				count--;
+			if(u == addedUser)
+				count++;
+			excess += Math.max(0, (double) count / n - quotas[u]);
+		}
+		return excess;
+	}
+
+	/**
+	 * @return the sum over users of the fraction of the planned acquisitions they get beyond their quota
+	 */
+	public double getQuotaExcess(){
+		return nPlanned == 0 ? 0 : getQuotaExcess(nPlanned, -1, -1);
+	}
+
+	/**
+	 * Value of a plan described by its running sums, with the weights of this score
+	 * (used for evaluating a move without applying it)
+	 * @param n number of planned acquisitions
+	 * @param sumPriority sum of their priorities
+	 * @param sumCloudProba sum of the cloud probabilities of their windows
+	 * @return the value of the plan (the higher the better)
+	 */
+	public double evaluate(int n, double sumPriority, double sumCloudProba){
+		if(n == 0)
+			return EMPTY_PLAN_VALUE;
+		return plannedWeight * n / nCandidates - priorityWeight * sumPriority / n - cloudProbaWeight * sumCloudProba / n;
+	}
+
+	/**
+	 * @param score
+	 * @return true if this score is strictly better than another one
+	 */
+	public boolean isBetterThan(PlanScore score){
+		return getValue() > score.getValue();
+	}
+
+	/**
+	 * @return the number of planned acquisitions
+	 */
+	public int getNumberOfPlanned(){
+		return nPlanned;
+	}
+
+	/**
+	 * @return the sum of the priorities of the planned acquisitions
+	 */
+	public double getSumPriority(){
+		return sumPriority;
+	}
+
+	/**
+	 * @return the sum of the cloud probabilities of the planned acquisitions
+	 */
+	public double getSumCloudProba(){
+		return sumCloudProba;
+	}
+
+	/**
+	 * @return the fraction of candidate acquisitions planned
+	 */
+	public double getPlannedFraction(){
+		return nCandidates == 0 ? 0 : (double) nPlanned / nCandidates;
+	}
+
+	/**
+	 * @return the mean priority of the planned acquisitions (0 if there is none)
+	 */
+	public double getMeanPriority(){
+		return nPlanned == 0 ? 0 : sumPriority / nPlanned;
+	}
+
+	/**
+	 * @return the mean cloud probability of the planned acquisitions (0 if there is none)
+	 */
+	public double getMeanCloudProba(){
+		return nPlanned == 0 ? 0 : sumCloudProba / nPlanned;
+	}
+
+	/**
+	 * @param userIdx
+	 * @return the number of planned acquisitions of a user
+	 */
+	public int getNumberOfPlanned(int userIdx){
+		return nPlannedForUser[userIdx];
+	}
+
+	/**
+	 * @param userIdx
+	 * @return the fraction of the planned acquisitions which belong to a user (0 if there is none)
+	 */
+	public double getShare(int userIdx){
+		return nPlanned == 0 ? 0 : (double) nPlannedForUser[userIdx] / nPlanned;
+	}
+
+	/**
+	 * @param userIdx
+	 * @param tolerance
+	 * @return true if a user gets more than its quota (plus a tolerance) of the planned acquisitions
+	 */
+	public boolean isOverQuota(int userIdx, double tolerance){
+		return getShare(userIdx) > quotas[userIdx] + tolerance;
+	}
+
+	/**
+	 * @param userIdx
+	 * @return the mean priority of the planned acquisitions of a user (0 if there is none)
+	 */
+	public double getMeanPriority(int userIdx){
+		int n = nPlannedForUser[userIdx];
+		return n == 0 ? 0 : sumPriorityForUser[userIdx] / n;
+	}
+
+	/**
+	 * @param userIdx
+	 * @return the mean cloud probability of the planned acquisitions of a user (0 if there is none)
+	 */
+	public double getMeanCloudProba(int userIdx){
+		int n = nPlannedForUser[userIdx];
+		return n == 0 ? 0 : sumCloudProbaForUser[userIdx] / n;
+	}
+
+	@Override
+	public String toString(){
+		return "nPlanned: " + nPlanned + "/" + nCandidates
+				+ "\n  Fraction of acquisitions planned: " + getPlannedFraction()*100 + " %"
+				+ "\n  Mean priority reached:            " + getMeanPriority()
+				+ "\n  Mean cloud probability reached:   " + getMeanCloudProba()
+				+ "\n  Score:                            " + getValue();
+	}
+
+}
@@ -108,8 +108,8 @@ public class PlanViewer {
 		stationVisTasks = new HashMap<Station,Task>();
 		stationDlTasks = new HashMap<Station,Task>();
 
-		ganttStart = getDate(plan.pb.horizonStart); 
-		ganttEnd = getDate(plan.pb.horizonEnd);
+		ganttStart = getDate(plan.pb.getHorizonStart()); 
+		ganttEnd = getDate(plan.pb.getHorizonEnd());
 
 		// create data set
 		createSampleDataset(plan);
@@ -197,18 +197,18 @@ public class PlanViewer {
 		}
 
 		// add the acquisition plan
-		for(CandidateAcquisition a : plan.plannedAcquisitions){
+		for(CandidateAcquisition a : plan.getPlannedAcquisitions()){
 			String name = a.name;
-			if(a.selectedAcquisitionWindow.satellite == satellite)
-				satelliteTask.addSubtask(new Task("ACQ_"+name, getDate(a.selectedAcquisitionStartTime), getDate(a.selectedAcquisitionEndTime)));			
+			if(plan.getSatellite(a) == satellite)
+				satelliteTask.addSubtask(new Task("ACQ_"+name, getDate(plan.getAcquisitionStartTime(a)), getDate(plan.getAcquisitionEndTime(a))));			
 		}
 
 		// add the download plan
-		for(Acquisition a : plan.plannedDownload){
+		for(Acquisition a : plan.getPlannedDownloads()){
 			String name = a.name;
-			DownloadWindow downloadWindow = a.selectedDownloadWindow;
+			DownloadWindow downloadWindow = plan.getDownloadWindow(a);
 			if(downloadWindow.satellite == satellite)
-				stationDlTasks.get(downloadWindow.station).addSubtask(new Task("DL_"+name, getDate(a.selectedDownloadStartTime), getDate(a.selectedDownloadEndTime)));			
+				stationDlTasks.get(downloadWindow.station).addSubtask(new Task("DL_"+name, getDate(plan.getDownloadStartTime(a)), getDate(plan.getDownloadEndTime(a))));			
 		}
 		dataset.add(tasksSeries);
 	}
@@ -235,17 +235,17 @@ public class PlanViewer {
 		
 		// view the sequence of acquisitions
 		List<CandidateAcquisition> selectedAcquisitions = new ArrayList<CandidateAcquisition>();
-		for(CandidateAcquisition a : plan.plannedAcquisitions){
+		for(CandidateAcquisition a : plan.getPlannedAcquisitions()){
 			String name = a.name;
-			if(a.selectedAcquisitionWindow.satellite == satellite){
+			if(plan.getSatellite(a) == satellite){
 				selectedAcquisitions.add(a);
-				satelliteTask.addSubtask(new Task("ACQ_"+name, getDate(a.selectedAcquisitionStartTime), getDate(a.selectedAcquisitionEndTime)));
+				satelliteTask.addSubtask(new Task("ACQ_"+name, getDate(plan.getAcquisitionStartTime(a)), getDate(plan.getAcquisitionEndTime(a))));
 			}
 		}
 		Collections.sort(selectedAcquisitions, new Comparator<CandidateAcquisition>(){
 			@Override
 			public int compare(CandidateAcquisition a0, CandidateAcquisition a1) {
-				return Double.compare(a0.selectedAcquisitionStartTime, a1.selectedAcquisitionStartTime);
+				return Double.compare(plan.getAcquisitionStartTime(a0), plan.getAcquisitionStartTime(a1));
 			}});
 		
 		List<Trajectory2d> trajectories = new ArrayList<Trajectory2d>();
@@ -254,7 +254,7 @@ public class PlanViewer {
 		CandidateAcquisition lastAcq = null;		
 		for (CandidateAcquisition a : selectedAcquisitions) {
 			if(lastAcq == null || 
-					a.selectedAcquisitionWindow.earliestStart - lastAcq.selectedAcquisitionEndTime > 600){// pb.getTransitionTime(lastAcq.selectedAcquisitionWindow, a.selectedAcquisitionWindow) <= ){
+					plan.getSelectedAcquisitionWindow(a).earliestStart - plan.getAcquisitionEndTime(lastAcq) > 600){// pb.getTransitionTime(plan.getSelectedAcquisitionWindow(lastAcq), plan.getSelectedAcquisitionWindow(a)) <= ){
 				if(traj != null) trajectories.add(traj);
 				traj = new Trajectory2d("traj_"+(i++));
 			}
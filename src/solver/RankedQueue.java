@@ -0,0 +1,211 @@
+package solver;
+
+import java.util.Arrays;
+
+/**
+ * Priority queue used for ranking candidates (acquisitions, acquisition windows...) in greedy planners.
+ * Each element is associated with a key computed once by the planner (for instance a combination of the priority
+ * and of the cloud probability), and elements are popped by increasing key. Elements having the same key are popped
+ * in insertion order, so that the queue behaves like a stable sort of the candidates.
+ * The queue is a binary heap whose keys are stored in primitive arrays.
+ * @author cpralet
+ *
+ * @param <T> type of the elements ranked
+ */
+public class RankedQueue<T> {
+
+	/** Elements of the heap */
+	private Object[] elements;
+	/** Key of each element of the heap */
+	private double[] keys;
+	/** Insertion rank of each element of the heap (used for breaking ties) */
+	private long[] ranks;
+	/** Number of elements in the heap */
+	private int size;
+	/** Number of elements inserted since the creation of the queue */
+	private long nInserted;
+
+	/**
+	 * Create an empty queue
+	 */
+	public RankedQueue(){
+		this(16);
+	}
+
+	/**
+	 * Create an empty queue
+	 * @param capacity initial capacity of the queue
+	 */
+	public RankedQueue(int capacity){
+		capacity = Math.max(capacity, 1);
+		elements = new Object[capacity];
+		keys = new double[capacity];
+		ranks = new long[capacity];
+		size = 0;
+		nInserted = 0;
+	}
+
+	/**
+	 * @return the number of elements in the queue
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * @return true if the queue contains no element
+	 */
+	public boolean isEmpty(){
+		return size == 0;
+	}
+
+	/**
+	 * Add an element to the queue
+	 * @param element
+	 * @param key key of the element (elements with the smallest keys are popped first)
+	 */
+	public void add(T element, double key){
+		if(size == elements.length){
+			int capacity = 2 * elements.length;
+			elements = Arrays.copyOf(elements, capacity);
+			keys = Arrays.copyOf(keys, capacity);
+			ranks = Arrays.copyOf(ranks, capacity);
+		}
+		elements[size] = element;
+		keys[size] = key;
+		ranks[size] = nInserted++;
+		size++;
+		siftUp(size-1);
+	}
+
+	/**
+	 * @return the element with the smallest key (without removing it), or null if the queue is empty
+	 */
+	@SuppressWarnings("unchecked")
+	public T peek(){
+		return size == 0 ? null : (T) elements[0];
+	}
+
+	/**
+	 * @return the key of the element with the smallest key
+	 */
+	public double peekKey(){
+		return keys[0];
+	}
+
+	/**
+	 * Remove the element with the smallest key
+	 * @return the element removed, or null if the queue is empty
+	 */
+	@SuppressWarnings("unchecked")
+	public T poll(){
+		if(size == 0)
+			return null;
+		T first = (T) elements[0];
+		size--;
+		if(size > 0){
+			move(size, 0);
+			siftDown(0);
+		}
+		elements[size] = null;
+		return first;
+	}
+
+	/**
+	 * @param pos position in the heap (between 0 and size()-1, positions not being sorted)
+	 * @return the element at a given position of the heap
+	 */
+	@SuppressWarnings("unchecked")
+	public T get(int pos){
+		return (T) elements[pos];
+	}
+
+	/**
+	 * @param pos0
+	 * @param pos1
+	 * @return true if the element at position pos0 of the heap is popped before the element at position pos1
+	 */
+	public boolean precedes(int pos0, int pos1){
+		return before(pos0, pos1);
+	}
+
+	/**
+	 * Remove the element at a given position of the heap
+	 * @param pos
+	 * @return the element removed
+	 */
+	@SuppressWarnings("unchecked")
+	public T remove(int pos){
+		T element = (T) elements[pos];
+		size--;
+		if(pos < size){
+			move(size, pos);
+			siftDown(pos);
+			siftUp(pos);
+		}
+		elements[size] = null;
+		return element;
+	}
+
+	/**
+	 * Remove all elements from the queue
+	 */
+	public void clear(){
+		Arrays.fill(elements, 0, size, null);
+		size = 0;
+	}
+
+	/**
+	 * @param i
+	 * @param j
+	 * @return true if the element at position i must be popped before the element at position j
+	 */
+	private boolean before(int i, int j){
+		if(keys[i] != keys[j])
+			return keys[i] < keys[j];
+		return ranks[i] < ranks[j];
+	}
+
+	private void siftUp(int i){
+		while(i > 0){
+			int parent = (i - 1) >>> 1;
+			if(!before(i, parent))
+				return;
+			swap(i, parent);
+			i = parent;
+		}
+	}
+
+	private void siftDown(int i){
+		while(true){
+			int left = 2*i + 1;
+			if(left >= size)
+				return;
+			int smallest = left;
+			int right = left + 1;
+			if(right < size && before(right, left))
+				smallest = right;
+			if(!before(smallest, i))
+				return;
+			swap(i, smallest);
+			i = smallest;
+		}
+	}
+
+	private void move(int from, int to){
+		elements[to] = elements[from];
+		keys[to] = keys[from];
+		ranks[to] = ranks[from];
+	}
+
+	private void swap(int i, int j){
+		Object element = elements[i];
+		double key = keys[i];
+		long rank = ranks[i];
+		move(j, i);
+		elements[j] = element;
+		keys[j] = key;
+		ranks[j] = rank;
+	}
+
+}
@@ -0,0 +1,503 @@
+package solver;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import problem.AcquisitionWindow;
+import problem.PlanningProblem;
+import problem.Satellite;
+
+/**
+ * Class used for representing the acquisition plan of a satellite, that is the chronological sequence of
+ * acquisition windows selected on this satellite.
+ * For each window of the sequence, the plan maintains the earliest and the latest feasible start times
+ * given all other windows of the sequence. Testing the insertion of a new window therefore only requires
+ * looking at its two neighbours, and committing an insertion or a removal only propagates start times
+ * forward and backward as long as they actually change.
+ * Windows are stored through their index in the list of acquisition windows of the problem, in primitive arrays.
+ * As long as no window is removed, a window which cannot be added to the plan will never be addable again: such windows
+ * are memorized so that later feasibility checks on them are answered immediately. Before computing transition times,
+ * the plan also checks whether the slot of a window between its neighbours is already closed (the predecessor ending
+ * after the latest start of the window, or the successor having to start before the window can end), which is the
+ * usual case for windows tried late in a greedy insertion. Checks answered in these ways are counted as memo hits.
+ * When a conflict graph is given, windows conflicting with a window of the plan are rejected without any temporal check.
+ * @author cpralet
+ *
+ */
+public class SatellitePlan {
+
+	/** Planning problem associated with this plan */
+	private final PlanningProblem planningProblem;
+	/** Satellite associated with this plan */
+	public final Satellite satellite;
+	/** Indices of the acquisition windows of the plan, sorted by increasing earliest start time of the windows (then by increasing index) */
+	private int[] windows;
+	/** Earliest feasible start time of each acquisition window of the plan (start time in the solution schedule) */
+	private double[] earliestStarts;
+	/** Latest feasible start time of each acquisition window of the plan */
+	private double[] latestStarts;
+	/** Number of acquisition windows in the plan */
+	private int size;
+	/** Version of the plan, incremented each time a window is added or removed */
+	private long version;
+	/** Indices of the acquisition windows known to be infeasible given the current plan (reset when a window is removed) */
+	private final BitSet infeasibleWindows;
+	/** Number of feasibility checks answered without computing transition times (memo, conflict graph or closed slot) */
+	private long memoHits;
+	/** Number of feasibility checks which required transition times */
+	private long memoMisses;
+	/** Conflicts between acquisition windows (null if no conflict graph is used) */
+	private final ConflictGraph conflictGraph;
+	/** Indices of the acquisition windows of the plan (only maintained when a conflict graph is used) */
+	private final BitSet plannedWindows;
+
+	/**
+	 * Create an empty plan for a satellite
+	 * @param planningProblem
+	 * @param satellite
+	 */
+	public SatellitePlan(PlanningProblem planningProblem, Satellite satellite){
+		this(planningProblem, satellite, null);
+	}
+
+	/**
+	 * Create an empty plan for a satellite, which uses a conflict graph for rejecting windows
+	 * @param planningProblem
+	 * @param satellite
+	 * @param conflictGraph
+	 */
+	public SatellitePlan(PlanningProblem planningProblem, Satellite satellite, ConflictGraph conflictGraph){
+		this.planningProblem = planningProblem;
+		this.satellite = satellite;
+		windows = new int[16];
+		earliestStarts = new double[16];
+		latestStarts = new double[16];
+		size = 0;
+		version = 0;
+		infeasibleWindows = new BitSet(planningProblem.acquisitionWindows.size());
+		memoHits = 0;
+		memoMisses = 0;
+		this.conflictGraph = conflictGraph;
+		plannedWindows = conflictGraph == null ? null : new BitSet(planningProblem.acquisitionWindows.size());
+	}
+
+	/**
+	 * Transfer the plan of a satellite to an updated problem (see ProblemUpdate), without rebuilding its timeline:
+	 * windows are renumbered, windows which are not kept are removed, and start times are only propagated around
+	 * the windows removed. The windows kept must be identical in both problems, except for their cloud probability
+	 * and for their latest start time which may be reduced (see ProblemUpdate): latest start times are then propagated
+	 * backward from the windows whose latest start time has been reduced, and the windows which no longer fit are removed.
+	 * @param plan plan of the satellite in the initial problem
+	 * @param planningProblem updated problem
+	 * @param windowIndices index in the updated problem of each acquisition window of the initial problem (-1 if not kept)
+	 */
+	public SatellitePlan(SatellitePlan plan, PlanningProblem planningProblem, int[] windowIndices){
+		this(planningProblem, planningProblem.satellites.get(plan.satellite.idx), null);
+		int capacity = Math.max(16, plan.size);
+		windows = new int[capacity];
+		earliestStarts = new double[capacity];
+		latestStarts = new double[capacity];
+		int[] gaps = new int[plan.size];
+		int nGaps = 0;
+		// first and last positions of the windows whose latest start time has been reduced
+		int first = -1;
+		int last = -1;
+		for(int i=0;i<plan.size;i++){
+			int idx = windowIndices[plan.windows[i]];
+			if(idx < 0){
+				if(nGaps == 0 || gaps[nGaps-1] != size)
+					gaps[nGaps++] = size;
+				continue;
+			}
+			windows[size] = idx;
+			earliestStarts[size] = plan.earliestStarts[i];
+			latestStarts[size] = plan.latestStarts[i];
+			if(latestStarts[size] > getAcqWindow(size).latestStart){
+				if(first < 0)
+					first = size;
+				last = size;
+			}
+			size++;
+		}
+		for(int k=0;k<nGaps;k++){
+			propagateForward(gaps[k]);
+			propagateBackward(gaps[k]-1);
+		}
+		for(int i=last;i>=0;i--){
+			double start = latestStartAt(getAcqWindow(i), i+1);
+			if(start < earliestStarts[i]){
+				removeAt(i);
+				propagateForward(i);
+				continue;
+			}
+			if(i < first && start == latestStarts[i])
+				break;
+			latestStarts[i] = start;
+		}
+	}
+
+	/**
+	 * @return the number of acquisition windows in the plan
+	 */
+	public int size(){
+		return size;
+	}
+
+	/**
+	 * @return the version of the plan, incremented each time a window is added or removed
+	 */
+	public long getVersion(){
+		return version;
+	}
+
+	/**
+	 * @return the number of feasibility checks answered without computing transition times (memo, conflict graph or closed slot)
+	 */
+	public long getMemoHits(){
+		return memoHits;
+	}
+
+	/**
+	 * @return the number of feasibility checks which required transition times
+	 */
+	public long getMemoMisses(){
+		return memoMisses;
+	}
+
+	/**
+	 * @param i
+	 * @return the ith acquisition window of the plan (chronological order)
+	 */
+	public AcquisitionWindow getAcqWindow(int i){
+		return planningProblem.getAcquisitionWindow(windows[i]);
+	}
+
+	/**
+	 * @param i
+	 * @return the index (in the list of acquisition windows of the problem) of the ith acquisition window of the plan
+	 */
+	public int getAcqWindowIdx(int i){
+		return windows[i];
+	}
+
+	/**
+	 * @param i
+	 * @return the start time of the ith acquisition window of the plan (earliest feasible start time)
+	 */
+	public double getStart(int i){
+		return earliestStarts[i];
+	}
+
+	/**
+	 * @param i
+	 * @return the latest feasible start time of the ith acquisition window of the plan
+	 */
+	public double getLatestStart(int i){
+		return latestStarts[i];
+	}
+
+	/**
+	 * @param aw
+	 * @return the start time of an acquisition window of the plan
+	 */
+	public double getStart(AcquisitionWindow aw){
+		return earliestStarts[indexOf(aw)];
+	}
+
+	/**
+	 * @return a new list containing all acquisition windows of the plan (chronological order)
+	 */
+	public List<AcquisitionWindow> getAcqWindows(){
+		List<AcquisitionWindow> acqWindows = new ArrayList<AcquisitionWindow>(size);
+		for(int i=0;i<size;i++)
+			acqWindows.add(getAcqWindow(i));
+		return acqWindows;
+	}
+
+	/**
+	 * @param aw
+	 * @return the position of the acquisition window in the plan, or -1 if it is not in the plan
+	 */
+	public int indexOf(AcquisitionWindow aw){
+		int i = lowerBound(aw.earliestStart);
+		while(i < size && earliestStartOfWindow(i) == aw.earliestStart){
+			if(windows[i] == aw.idx)
+				return i;
+			i++;
+		}
+		return -1;
+	}
+
+	/**
+	 * @param aw
+	 * @return true if the acquisition window belongs to the plan
+	 */
+	public boolean contains(AcquisitionWindow aw){
+		return indexOf(aw) >= 0;
+	}
+
+	/**
+	 *
+	 * @param aw
+	 * @return true if the acquisition window can be added to the plan without making it infeasible from a temporal point of view
+	 */
+	public boolean canAdd(AcquisitionWindow aw){
+		if(isKnownInfeasible(aw))
+			return false;
+		int pos = insertionPosition(aw);
+		if(isSlotClosed(aw, pos) || earliestStartAt(aw, pos) > latestStartAt(aw, pos)){
+			infeasibleWindows.set(aw.idx);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Add an acquisition window to the plan, if the plan remains feasible from a temporal point of view
+	 * @param aw
+	 * @return true if the acquisition window has been added
+	 */
+	public boolean add(AcquisitionWindow aw){
+		if(isKnownInfeasible(aw))
+			return false;
+		int pos = insertionPosition(aw);
+		if(isSlotClosed(aw, pos)){
+			infeasibleWindows.set(aw.idx);
+			return false;
+		}
+		double earliestStart = earliestStartAt(aw, pos);
+		double latestStart = latestStartAt(aw, pos);
+		if(earliestStart > latestStart){
+			infeasibleWindows.set(aw.idx);
+			return false;
+		}
+
+		// make room for the new acquisition window
+		if(size == windows.length){
+			int capacity = 2 * windows.length;
+			windows = Arrays.copyOf(windows, capacity);
+			earliestStarts = Arrays.copyOf(earliestStarts, capacity);
+			latestStarts = Arrays.copyOf(latestStarts, capacity);
+		}
+		System.arraycopy(windows, pos, windows, pos+1, size-pos);
+		System.arraycopy(earliestStarts, pos, earliestStarts, pos+1, size-pos);
+		System.arraycopy(latestStarts, pos, latestStarts, pos+1, size-pos);
+		windows[pos] = aw.idx;
+		earliestStarts[pos] = earliestStart;
+		latestStarts[pos] = latestStart;
+		size++;
+		version++;
+		if(plannedWindows != null)
+			plannedWindows.set(aw.idx);
+
+		propagateForward(pos+1);
+		propagateBackward(pos-1);
+		return true;
+	}
+
+	/**
+	 * Remove an acquisition window from the plan
+	 * @param aw
+	 * @return true if the acquisition window was in the plan
+	 */
+	public boolean remove(AcquisitionWindow aw){
+		int pos = indexOf(aw);
+		if(pos < 0)
+			return false;
+		removeAt(pos);
+		version++;
+		if(plannedWindows != null)
+			plannedWindows.clear(aw.idx);
+		// removing a window may make previously infeasible windows feasible again
+		infeasibleWindows.clear();
+
+		propagateForward(pos);
+		propagateBackward(pos-1);
+		return true;
+	}
+
+	/**
+	 * Remove the window placed at position pos from the arrays of the plan, without propagating start times
+	 * @param pos
+	 */
+	private void removeAt(int pos){
+		System.arraycopy(windows, pos+1, windows, pos, size-pos-1);
+		System.arraycopy(earliestStarts, pos+1, earliestStarts, pos, size-pos-1);
+		System.arraycopy(latestStarts, pos+1, latestStarts, pos, size-pos-1);
+		size--;
+	}
+
+	/**
+	 * Remove all acquisition windows from the plan
+	 */
+	public void clear(){
+		size = 0;
+		version++;
+		infeasibleWindows.clear();
+		if(plannedWindows != null)
+			plannedWindows.clear();
+	}
+
+	/**
+	 * Write the acquisition plan in a file
+	 * @param solutionFilename
+	 * @throws IOException
+	 */
+	public void writePlan(String solutionFilename) throws IOException{
+		PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(solutionFilename, false)));
+		for(int i=0;i<size;i++){
+			AcquisitionWindow aw = getAcqWindow(i);
+			double start = earliestStarts[i];
+			writer.write(aw.candidateAcquisition.idx + " " + aw.idx + " " + start + " " + (start+aw.duration) +
+					 " " + aw.candidateAcquisition.name + "\n");
+		}
+		writer.flush();
+		writer.close();
+	}
+
+	/**
+	 * Check whether a window is known to be infeasible, either from the infeasibility memo
+	 * or because it conflicts with a window of the plan
+	 * @param aw
+	 * @return true if the window cannot be added to the plan
+	 */
+	private boolean isKnownInfeasible(AcquisitionWindow aw){
+		if(infeasibleWindows.get(aw.idx)){
+			memoHits++;
+			return true;
+		}
+		if(conflictGraph != null){
+			int degree = conflictGraph.getDegree(aw.idx);
+			for(int k=0;k<degree;k++){
+				if(plannedWindows.get(conflictGraph.getNeighbour(aw.idx, k))){
+					infeasibleWindows.set(aw.idx);
+					memoHits++;
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Check, without computing any transition time, whether the slot of a window between its neighbours in the plan is
+	 * already closed (transition times being nonnegative, the window can then not be inserted)
+	 * @param aw
+	 * @param pos insertion position of the window
+	 * @return true if the window cannot be inserted at this position
+	 */
+	private boolean isSlotClosed(AcquisitionWindow aw, int pos){
+		double start = Math.max(planningProblem.getHorizonStart(), aw.earliestStart);
+		if(start > aw.latestStart
+				|| (pos > 0 && earliestStarts[pos-1] + getAcqWindow(pos-1).duration > aw.latestStart)
+				|| (pos < size && start + aw.duration > latestStarts[pos])){
+			memoHits++;
+			return true;
+		}
+		memoMisses++;
+		return false;
+	}
+
+	/**
+	 * @param aw
+	 * @param pos
+	 * @return the earliest start time of an acquisition window placed at position pos, given its predecessor in the plan
+	 */
+	private double earliestStartAt(AcquisitionWindow aw, int pos){
+		double start = Math.max(planningProblem.getHorizonStart(), aw.earliestStart);
+		if(pos > 0){
+			AcquisitionWindow prev = getAcqWindow(pos-1);
+			start = Math.max(start, earliestStarts[pos-1] + prev.duration + planningProblem.getTransitionTime(prev, aw));
+		}
+		return start;
+	}
+
+	/**
+	 * @param aw
+	 * @param pos
+	 * @return the latest start time of an acquisition window placed at position pos, given its successor in the plan
+	 */
+	private double latestStartAt(AcquisitionWindow aw, int pos){
+		double start = aw.latestStart;
+		if(pos < size){
+			AcquisitionWindow next = getAcqWindow(pos);
+			start = Math.min(start, latestStarts[pos] - aw.duration - planningProblem.getTransitionTime(aw, next));
+		}
+		return start;
+	}
+
+	/**
+	 * Recompute earliest start times from position pos until they do not change anymore
+	 * @param pos
+	 */
+	private void propagateForward(int pos){
+		for(int i=pos;i<size;i++){
+			double start = earliestStartAt(getAcqWindow(i), i);
+			if(start == earliestStarts[i])
+				return;
+			earliestStarts[i] = start;
+		}
+	}
+
+	/**
+	 * Recompute latest start times from position pos down to the first window, until they do not change anymore
+	 * @param pos
+	 */
+	private void propagateBackward(int pos){
+		for(int i=pos;i>=0;i--){
+			double start = latestStartAt(getAcqWindow(i), i+1);
+			if(start == latestStarts[i])
+				return;
+			latestStarts[i] = start;
+		}
+	}
+
+	/**
+	 * @param i
+	 * @return the earliest start time of the window (not of the plan) placed at position i
+	 */
+	private double earliestStartOfWindow(int i){
+		return planningProblem.getAcquisitionWindow(windows[i]).earliestStart;
+	}
+
+	/**
+	 * @param t
+	 * @return the first position whose acquisition window has an earliest start time greater than or equal to t
+	 */
+	private int lowerBound(double t){
+		int lo = 0, hi = size;
+		while(lo < hi){
+			int mid = (lo + hi) >>> 1;
+			if(earliestStartOfWindow(mid) < t)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+	/**
+	 * @param aw
+	 * @return the first position whose acquisition window comes after a given window, windows being ordered by increasing
+	 * earliest start time and then by increasing index (so that the sequence of a plan only depends on its set of windows)
+	 */
+	private int insertionPosition(AcquisitionWindow aw){
+		int lo = 0, hi = size;
+		while(lo < hi){
+			int mid = (lo + hi) >>> 1;
+			double t = earliestStartOfWindow(mid);
+			if(t < aw.earliestStart || (t == aw.earliestStart && windows[mid] < aw.idx))
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+
+}
@@ -0,0 +1,203 @@
+package solver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import problem.AcquisitionWindow;
+import problem.PlanningProblem;
+
+/**
+ * Class used for computing, for one satellite, a sequence of acquisition windows of maximum total weight, each window
+ * having a nonnegative integer weight. The constraint "at most one window per acquisition" is ignored, and windows are
+ * sequenced as in SatellitePlan, by increasing earliest start time (then by increasing index).
+ *
+ * The sequence is computed by dynamic programming over the windows sorted by time. For each window j and each total
+ * weight k of the windows preceding j, the DP computes the earliest start time of j, which is the only information
+ * needed for extending the sequence. Predecessors whose end time exceeds the best end time of the same weight by more
+ * than the largest transition time can never give a better start time, and are discarded (transition-aware
+ * dominance). Similarly, small weights for which j can start at its earliest start time are dominated by the largest
+ * such weight.
+ *
+ * The sequence is only optimal among the sequences ordered by earliest start time, which are the only ones a
+ * SatellitePlan can contain. A timeline in another order (a window having a later earliest start time but a smaller
+ * latest start time being realized first) can contain more windows, so the result is not an upper bound for such
+ * timelines.
+ * @author cpralet
+ *
+ */
+public class SatelliteRelaxation {
+
+	/** Planning problem containing the windows */
+	private final PlanningProblem planningProblem;
+	/** Windows of the satellite, sorted by increasing earliest start time then by increasing index */
+	public final AcquisitionWindow[] windows;
+	/** Number of windows */
+	public final int n;
+	/** Largest transition time between two windows */
+	public final double maxTransitionTime;
+
+	/**
+	 * Build the relaxation associated with some windows of a satellite
+	 * @param planningProblem
+	 * @param satelliteWindows windows (of the same satellite) which can be selected
+	 */
+	public SatelliteRelaxation(PlanningProblem planningProblem, List<AcquisitionWindow> satelliteWindows){
+		this.planningProblem = planningProblem;
+		windows = satelliteWindows.toArray(new AcquisitionWindow[satelliteWindows.size()]);
+		Arrays.sort(windows, new Comparator<AcquisitionWindow>(){
+			@Override
+			public int compare(AcquisitionWindow w0, AcquisitionWindow w1) {
+				if(w0.earliestStart != w1.earliestStart)
+					return Double.compare(w0.earliestStart, w1.earliestStart);
+				return Integer.compare(w0.idx, w1.idx);
+			}
+		});
+		n = windows.length;
+		double tt = 0;
+		for(int i=0;i<n;i++){
+			for(int j=i+1;j<n;j++)
+				tt = Math.max(tt, planningProblem.getTransitionTime(windows[i], windows[j]));
+		}
+		maxTransitionTime = tt;
+	}
+
+	/**
+	 * Sequence of windows of maximum total weight, possibly realizing an acquisition several times
+	 * @param weights weight of each window (indexed by position in the windows array), windows of weight 0 are never selected
+	 * @return the positions of the windows of the sequence
+	 */
+	public int[] solve(int[] weights){
+		int maxWeight = 0;
+		for(int j=0;j<n;j++)
+			maxWeight += weights[j];
+		// predecessors[j][k-offsets[j]] = predecessor of window j when the windows preceding j have a total weight k
+		int[][] predecessors = new int[n][];
+		int[] offsets = new int[n];
+		// non-dominated predecessors for each total weight: window positions and end times
+		int[][] rankWindows = new int[maxWeight+1][];
+		double[][] rankEnds = new double[maxWeight+1][];
+		int[] rankSizes = new int[maxWeight+1];
+		double[] rankMinEnds = new double[maxWeight+1];
+		// smallest end time over all weights greater than or equal to each weight (nondecreasing)
+		double[] suffixMinEnds = new double[maxWeight+1];
+		Arrays.fill(suffixMinEnds, Double.POSITIVE_INFINITY);
+		int maxRank = 0; // largest weight having at least one predecessor
+		int bestWindow = -1;
+		int bestRank = 0;
+		for(int j=0;j<n;j++){
+			AcquisitionWindow w = windows[j];
+			int weight = weights[j];
+			double base = Math.max(planningProblem.getHorizonStart(), w.earliestStart);
+			if(weight == 0 || base > w.latestStart)
+				continue;
+			// largest weight after which j can start at its earliest start time whatever the predecessor:
+			// smaller weights give the same start time and are dominated
+			int kLow = largestRank(suffixMinEnds, maxRank, base - maxTransitionTime);
+			// weights after which j cannot start before its latest start time are infeasible
+			int kHigh = largestRank(suffixMinEnds, maxRank, w.latestStart);
+
+			double[] starts = new double[kHigh-kLow+1];
+			int[] p = new int[kHigh-kLow+1];
+			for(int k=kLow;k<=kHigh;k++){
+				double bestStart;
+				int bestPred = -1;
+				if(k == 0)
+					bestStart = base;
+				else {
+					bestStart = Double.POSITIVE_INFINITY;
+					for(int e=0;e<rankSizes[k];e++){
+						int i = rankWindows[k][e];
+						double st = Math.max(base, rankEnds[k][e] + planningProblem.getTransitionTime(windows[i], w));
+						if(st < bestStart){
+							bestStart = st;
+							bestPred = i;
+						}
+					}
+				}
+				starts[k-kLow] = bestStart;
+				p[k-kLow] = bestPred;
+			}
+			// j becomes a potential predecessor for the next windows
+			for(int k=kLow;k<=kHigh;k++){
+				if(starts[k-kLow] > w.latestStart)
+					continue;
+				int rank = k + weight;
+				addPredecessor(rankWindows, rankEnds, rankSizes, rankMinEnds, suffixMinEnds, rank, j, starts[k-kLow] + w.duration);
+				maxRank = Math.max(maxRank, rank);
+				if(rank > bestRank){
+					bestRank = rank;
+					bestWindow = j;
+				}
+			}
+			predecessors[j] = p;
+			offsets[j] = kLow;
+		}
+
+		// rebuild the best sequence
+		List<Integer> reversed = new ArrayList<Integer>();
+		int j = bestWindow;
+		int k = bestRank;
+		while(j >= 0){
+			reversed.add(j);
+			k -= weights[j];
+			j = predecessors[j][k-offsets[j]];
+		}
+		int[] sequence = new int[reversed.size()];
+		for(int i=0;i<sequence.length;i++)
+			sequence[i] = reversed.get(sequence.length-1-i);
+		return sequence;
+	}
+
+	/**
+	 * @param suffixMinEnds
+	 * @param maxRank
+	 * @param time
+	 * @return the largest weight k in [0,maxRank] such that k=0 or some predecessor of weight at least k ends before a given time
+	 */
+	private int largestRank(double[] suffixMinEnds, int maxRank, double time){
+		int lo = 0;
+		int hi = maxRank;
+		while(lo < hi){
+			int mid = (lo + hi + 1) >>> 1;
+			if(suffixMinEnds[mid] <= time)
+				lo = mid;
+			else
+				hi = mid - 1;
+		}
+		return lo;
+	}
+
+	private void addPredecessor(int[][] rankWindows, double[][] rankEnds, int[] rankSizes, double[] rankMinEnds, double[] suffixMinEnds,
+			int rank, int j, double end){
+		if(rankWindows[rank] == null){
+			rankWindows[rank] = new int[4];
+			rankEnds[rank] = new double[4];
+			rankMinEnds[rank] = Double.POSITIVE_INFINITY;
+		}
+		if(end > rankMinEnds[rank] + maxTransitionTime)
+			return; // dominated by the predecessor having the smallest end time
+		if(end < rankMinEnds[rank]){
+			rankMinEnds[rank] = end;
+			for(int k=rank;k>0 && suffixMinEnds[k]>end;k--)
+				suffixMinEnds[k] = end;
+			// remove the predecessors which become dominated
+			int size = 0;
+			for(int e=0;e<rankSizes[rank];e++){
+				if(rankEnds[rank][e] <= end + maxTransitionTime){
+					rankWindows[rank][size] = rankWindows[rank][e];
+					rankEnds[rank][size++] = rankEnds[rank][e];
+				}
+			}
+			rankSizes[rank] = size;
+		}
+		if(rankSizes[rank] == rankWindows[rank].length){
+			rankWindows[rank] = Arrays.copyOf(rankWindows[rank], 2*rankSizes[rank]);
+			rankEnds[rank] = Arrays.copyOf(rankEnds[rank], 2*rankSizes[rank]);
+		}
+		rankWindows[rank][rankSizes[rank]] = j;
+		rankEnds[rank][rankSizes[rank]++] = end;
+	}
+
+}
@@ -4,14 +4,22 @@ import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import problem.Acquisition;
+import problem.AcquisitionWindow;
 import problem.CandidateAcquisition;
+import problem.DownloadWindow;
 import problem.PlanningProblem;
+import problem.RecordedAcquisition;
+import problem.Satellite;
 
 /**
- * Class used for representing a solution plan (describing both the acquisition plan and the download plan)
+ * Class used for representing a solution plan (describing both the acquisition plan and the download plan).
+ * The planning problem itself is never modified: all decisions are stored in primitive arrays indexed by the
+ * index of candidate acquisitions and of recorded acquisitions, so that several solution plans can be built
+ * for the same problem and copying a solution plan only requires copying arrays.
  * @author cpralet
  *
  */
@@ -19,19 +27,275 @@ public class SolutionPlan {
 
 	/** Problem for which the solution plan is built */
 	public final PlanningProblem pb;
-	/** List of all candidate acquisitions which are realized in the plan */
-	public final List<CandidateAcquisition> plannedAcquisitions;
-	/** List of all acquisitions which are downloaded in the plan */
-	public final List<Acquisition> plannedDownload;
+
+	/** Index of the acquisition window selected for each candidate acquisition (-1 if the acquisition is not planned) */
+	private int[] selectedWindows;
+	/** Start time of each candidate acquisition selected for being realized */
+	private double[] acquisitionStartTimes;
+	/** End time of each candidate acquisition selected for being realized */
+	private double[] acquisitionEndTimes;
+	/** Indices of the candidate acquisitions realized in the plan, in their order of insertion */
+	private int[] plannedAcquisitions;
+	/** Number of candidate acquisitions realized in the plan */
+	private int nPlannedAcquisitions;
+
+	/** Index of the download window selected for each candidate acquisition (-1 if the acquisition is not downloaded) */
+	private int[] candidateDownloadWindows;
+	/** Download start time of each candidate acquisition */
+	private double[] candidateDownloadStartTimes;
+	/** Download end time of each candidate acquisition */
+	private double[] candidateDownloadEndTimes;
+	/** Index of the download window selected for each recorded acquisition (-1 if the acquisition is not downloaded) */
+	private int[] recordedDownloadWindows;
+	/** Download start time of each recorded acquisition */
+	private double[] recordedDownloadStartTimes;
+	/** Download end time of each recorded acquisition */
+	private double[] recordedDownloadEndTimes;
+	/** Downloaded acquisitions, in their order of insertion (index i of a candidate acquisition is coded as i, index i of a recorded acquisition as -i-1) */
+	private int[] plannedDownloads;
+	/** Number of downloaded acquisitions */
+	private int nPlannedDownloads;
 
 	/**
-	 * Build a solution plan
+	 * Build an empty solution plan
 	 * @param pb
 	 */
 	public SolutionPlan(PlanningProblem pb){
 		this.pb = pb;
-		plannedAcquisitions = new ArrayList<CandidateAcquisition>();
-		plannedDownload = new ArrayList<Acquisition>();
+		int nCandidates = pb.candidateAcquisitions.size();
+		int nRecorded = pb.recordedAcquisitions.size();
+		selectedWindows = new int[nCandidates];
+		Arrays.fill(selectedWindows, -1);
+		acquisitionStartTimes = new double[nCandidates];
+		acquisitionEndTimes = new double[nCandidates];
+		plannedAcquisitions = new int[nCandidates];
+		nPlannedAcquisitions = 0;
+		candidateDownloadWindows = new int[nCandidates];
+		Arrays.fill(candidateDownloadWindows, -1);
+		candidateDownloadStartTimes = new double[nCandidates];
+		candidateDownloadEndTimes = new double[nCandidates];
+		recordedDownloadWindows = new int[nRecorded];
+		Arrays.fill(recordedDownloadWindows, -1);
+		recordedDownloadStartTimes = new double[nRecorded];
+		recordedDownloadEndTimes = new double[nRecorded];
+		plannedDownloads = new int[nCandidates + nRecorded];
+		nPlannedDownloads = 0;
+	}
+
+	/**
+	 * Build a copy of a solution plan
+	 * @param plan
+	 */
+	public SolutionPlan(SolutionPlan plan){
+		this.pb = plan.pb;
+		selectedWindows = plan.selectedWindows.clone();
+		acquisitionStartTimes = plan.acquisitionStartTimes.clone();
+		acquisitionEndTimes = plan.acquisitionEndTimes.clone();
+		plannedAcquisitions = plan.plannedAcquisitions.clone();
+		nPlannedAcquisitions = plan.nPlannedAcquisitions;
+		candidateDownloadWindows = plan.candidateDownloadWindows.clone();
+		candidateDownloadStartTimes = plan.candidateDownloadStartTimes.clone();
+		candidateDownloadEndTimes = plan.candidateDownloadEndTimes.clone();
+		recordedDownloadWindows = plan.recordedDownloadWindows.clone();
+		recordedDownloadStartTimes = plan.recordedDownloadStartTimes.clone();
+		recordedDownloadEndTimes = plan.recordedDownloadEndTimes.clone();
+		plannedDownloads = plan.plannedDownloads.clone();
+		nPlannedDownloads = plan.nPlannedDownloads;
+	}
+
+	// ACQUISITION PLAN
+
+	/**
+	 * Select an acquisition window for realizing a candidate acquisition (nothing is done if the acquisition is already planned)
+	 * @param a
+	 * @param window
+	 * @param startTime
+	 * @param endTime
+	 * @return true if the acquisition has been added to the plan
+	 */
+	public boolean selectAcquisition(CandidateAcquisition a, AcquisitionWindow window, double startTime, double endTime){
+		if(selectedWindows[a.idx] >= 0) // acquisition already planned
+			return false;
+		selectedWindows[a.idx] = window.idx;
+		acquisitionStartTimes[a.idx] = startTime;
+		acquisitionEndTimes[a.idx] = endTime;
+		plannedAcquisitions[nPlannedAcquisitions++] = a.idx;
+		return true;
+	}
+
+	/**
+	 * Add to the acquisition plan all acquisitions realized in the plan of a satellite
+	 * @param satellitePlan
+	 */
+	public void addSatellitePlan(SatellitePlan satellitePlan){
+		for(int i=0;i<satellitePlan.size();i++){
+			AcquisitionWindow w = satellitePlan.getAcqWindow(i);
+			double start = satellitePlan.getStart(i);
+			selectAcquisition(w.candidateAcquisition, w, start, start + w.duration);
+		}
+	}
+
+	/**
+	 * @param a
+	 * @return true if the candidate acquisition is realized in the plan
+	 */
+	public boolean isPlanned(CandidateAcquisition a){
+		return selectedWindows[a.idx] >= 0;
+	}
+
+	/**
+	 * @param a
+	 * @return the acquisition window selected for realizing a candidate acquisition (null if the acquisition is not planned)
+	 */
+	public AcquisitionWindow getSelectedAcquisitionWindow(CandidateAcquisition a){
+		int w = selectedWindows[a.idx];
+		return w < 0 ? null : pb.getAcquisitionWindow(w);
+	}
+
+	/**
+	 * @param a
+	 * @return the start time of a planned candidate acquisition
+	 */
+	public double getAcquisitionStartTime(CandidateAcquisition a){
+		return acquisitionStartTimes[a.idx];
+	}
+
+	/**
+	 * @param a
+	 * @return the end time of a planned candidate acquisition
+	 */
+	public double getAcquisitionEndTime(CandidateAcquisition a){
+		return acquisitionEndTimes[a.idx];
+	}
+
+	/**
+	 * @return the number of candidate acquisitions realized in the plan
+	 */
+	public int getNumberOfPlannedAcquisitions(){
+		return nPlannedAcquisitions;
+	}
+
+	/**
+	 * @param i
+	 * @return the ith candidate acquisition realized in the plan (order of insertion)
+	 */
+	public CandidateAcquisition getPlannedAcquisition(int i){
+		return pb.getCandidateAcquisition(plannedAcquisitions[i]);
+	}
+
+	/**
+	 * @return a new list containing all candidate acquisitions realized in the plan (order of insertion)
+	 */
+	public List<CandidateAcquisition> getPlannedAcquisitions(){
+		List<CandidateAcquisition> acquisitions = new ArrayList<CandidateAcquisition>(nPlannedAcquisitions);
+		for(int i=0;i<nPlannedAcquisitions;i++)
+			acquisitions.add(getPlannedAcquisition(i));
+		return acquisitions;
+	}
+
+	// PROPERTIES OF ACQUISITIONS WHICH DEPEND ON THE PLAN
+
+	/**
+	 * @param a
+	 * @return the satellite used for realizing an acquisition (null for a candidate acquisition which is not planned)
+	 */
+	public Satellite getSatellite(Acquisition a){
+		if(a instanceof RecordedAcquisition)
+			return ((RecordedAcquisition) a).satellite;
+		AcquisitionWindow w = getSelectedAcquisitionWindow((CandidateAcquisition) a);
+		return w == null ? null : w.satellite;
+	}
+
+	/**
+	 * @param a
+	 * @return the time at which an acquisition ends (in seconds from the start time of the planning horizon)
+	 */
+	public double getAcquisitionTime(Acquisition a){
+		if(a instanceof RecordedAcquisition)
+			return ((RecordedAcquisition) a).acquisitionTime;
+		return acquisitionEndTimes[((CandidateAcquisition) a).idx];
+	}
+
+	/**
+	 * @param a
+	 * @return the volume (in bits) associated with an acquisition (0 for a candidate acquisition which is not planned)
+	 */
+	public long getVolume(Acquisition a){
+		if(a instanceof RecordedAcquisition)
+			return ((RecordedAcquisition) a).volume;
+		AcquisitionWindow w = getSelectedAcquisitionWindow((CandidateAcquisition) a);
+		return w == null ? 0 : w.volume;
+	}
+
+	// DOWNLOAD PLAN
+
+	/**
+	 * Select a download window for downloading an acquisition
+	 * @param a
+	 * @param window
+	 * @param startTime
+	 * @param endTime
+	 */
+	public void selectDownload(Acquisition a, DownloadWindow window, double startTime, double endTime){
+		if(a instanceof RecordedAcquisition){
+			int idx = ((RecordedAcquisition) a).idx;
+			if(recordedDownloadWindows[idx] < 0)
+				plannedDownloads[nPlannedDownloads++] = -idx-1;
+			recordedDownloadWindows[idx] = window.idx;
+			recordedDownloadStartTimes[idx] = startTime;
+			recordedDownloadEndTimes[idx] = endTime;
+		}
+		else {
+			int idx = ((CandidateAcquisition) a).idx;
+			if(candidateDownloadWindows[idx] < 0)
+				plannedDownloads[nPlannedDownloads++] = idx;
+			candidateDownloadWindows[idx] = window.idx;
+			candidateDownloadStartTimes[idx] = startTime;
+			candidateDownloadEndTimes[idx] = endTime;
+		}
+	}
+
+	/**
+	 * @param a
+	 * @return the download window selected for an acquisition (null if the acquisition is not downloaded)
+	 */
+	public DownloadWindow getDownloadWindow(Acquisition a){
+		int w = (a instanceof RecordedAcquisition) ? recordedDownloadWindows[((RecordedAcquisition) a).idx]
+				: candidateDownloadWindows[((CandidateAcquisition) a).idx];
+		return w < 0 ? null : pb.getDownloadWindow(w);
+	}
+
+	/**
+	 * @param a
+	 * @return the start time of the download of an acquisition
+	 */
+	public double getDownloadStartTime(Acquisition a){
+		return (a instanceof RecordedAcquisition) ? recordedDownloadStartTimes[((RecordedAcquisition) a).idx]
+				: candidateDownloadStartTimes[((CandidateAcquisition) a).idx];
+	}
+
+	/**
+	 * @param a
+	 * @return the end time of the download of an acquisition
+	 */
+	public double getDownloadEndTime(Acquisition a){
+		return (a instanceof RecordedAcquisition) ? recordedDownloadEndTimes[((RecordedAcquisition) a).idx]
+				: candidateDownloadEndTimes[((CandidateAcquisition) a).idx];
+	}
+
+	/**
+	 * @return a new list containing all downloaded acquisitions (order of insertion)
+	 */
+	public List<Acquisition> getPlannedDownloads(){
+		List<Acquisition> acquisitions = new ArrayList<Acquisition>(nPlannedDownloads);
+		for(int i=0;i<nPlannedDownloads;i++){
+			int code = plannedDownloads[i];
+			if(code >= 0)
+				acquisitions.add(pb.getCandidateAcquisition(code));
+			else
+				acquisitions.add(pb.getRecordedAcquisition(-code-1));
+		}
+		return acquisitions;
 	}
 
 	/**
@@ -46,15 +310,12 @@ public class SolutionPlan {
 		while(currentLine != null){
 			tab = currentLine.trim().split(" ");
 			CandidateAcquisition a = pb.getCandidateAcquisition(Integer.parseInt(tab[0]));
-			if(a.selectedAcquisitionWindow == null){ // acquisition not planned yet
-				a.selectedAcquisitionWindow = pb.getAcquisitionWindow(Integer.parseInt(tab[1]));
-				a.selectedAcquisitionStartTime = Double.parseDouble(tab[2]);
-				a.selectedAcquisitionEndTime = Double.parseDouble(tab[3]);
-				plannedAcquisitions.add(a);				
-			}
+			// acquisitions already planned are ignored
+			selectAcquisition(a, pb.getAcquisitionWindow(Integer.parseInt(tab[1])),
+					Double.parseDouble(tab[2]), Double.parseDouble(tab[3]));
 			currentLine = br.readLine();
-		}		
-		br.close();		
+		}
+		br.close();
 	}
 
 	/**
@@ -62,22 +323,20 @@ public class SolutionPlan {
 	 * @param filename
 	 * @throws IOException
 	 */
-	public void readDownloadPlan(String filename) throws IOException{	
+	public void readDownloadPlan(String filename) throws IOException{
 		BufferedReader br = new BufferedReader(new FileReader(filename));
 		String[] tab = new String[4];
 		String currentLine = br.readLine();
 		while(currentLine != null){
 			tab = currentLine.trim().split(" ");
-			boolean recorded = tab[0].equals("REC");  
+			boolean recorded = tab[0].equals("REC");
 			int idx = Integer.parseInt(tab[1]);
 			Acquisition a = recorded ? pb.getRecordedAcquisition(idx) : pb.getCandidateAcquisition(idx);
-			a.selectedDownloadWindow = pb.getDownloadWindow(Integer.parseInt(tab[2]));
-			a.selectedDownloadStartTime = Double.parseDouble(tab[3]);
-			a.selectedDownloadEndTime = Double.parseDouble(tab[4]);			
-			plannedDownload.add(a);				
+			selectDownload(a, pb.getDownloadWindow(Integer.parseInt(tab[2])),
+					Double.parseDouble(tab[3]), Double.parseDouble(tab[4]));
 			currentLine = br.readLine();
-		}		
-		br.close();	
+		}
+		br.close();
 	}
 
 }
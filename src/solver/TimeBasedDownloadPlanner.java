@@ -24,6 +24,7 @@ import problem.RecordedAcquisition;
 import problem.ProblemParserXML;
 import problem.Satellite;
 import problem.Station;
+import utils.ResourceCalendar;
 
 /**
  * Class implementing a download planner which tries to insert downloads into the plan
@@ -35,16 +36,16 @@ import problem.Station;
 
 public class TimeBasedDownloadPlanner {
 
-    public static List<Satellite> get_station_visi(Double time, Station station, PlanningProblem pb, List<DownloadPlanLine> plan, Double min_dl_time){
+    public static List<Satellite> get_station_visi(Double time, Station station, PlanningProblem pb, ResourceCalendar[] satelliteCalendars, Double min_dl_time){
         
 		List<Satellite> station_visi = new ArrayList<Satellite>();
+		List<DownloadWindow> windows = new ArrayList<DownloadWindow>();
+		pb.getDownloadWindowIndex().getWindows(station, time, windows);
 
-		for (DownloadWindow d : pb.downloadWindows){
+		for (DownloadWindow d : windows){
 			
-			if (time >= d.start 
-				&& time <= d.end - min_dl_time
-				&& d.station == station 
-				&& is_sat_occupied(time, d.satellite, plan) == false
+			if (time <= d.end - min_dl_time
+				&& is_sat_occupied(time, d.satellite, satelliteCalendars) == false
 				&& !station_visi.contains(d.satellite)
 				){
 				station_visi.add(d.satellite);
@@ -58,9 +59,11 @@ public class TimeBasedDownloadPlanner {
         
 		int sat_visi = 0;
 		List<Station> list_stations = new ArrayList<Station>();
+		List<DownloadWindow> windows = new ArrayList<DownloadWindow>();
+		pb.getDownloadWindowIndex().getWindows(sat, time, windows);
 
-		for (DownloadWindow d : pb.downloadWindows){
-			if (time >= d.start && time <= d.end && d.satellite == sat && !list_stations.contains(d.station)){
+		for (DownloadWindow d : windows){
+			if (!list_stations.contains(d.station)){
 				sat_visi += 1;
 				list_stations.add(d.station);
 			}
@@ -69,14 +72,8 @@ public class TimeBasedDownloadPlanner {
 		return sat_visi;
     }
 
-    public static Boolean is_sat_occupied(Double time, Satellite sat, List<DownloadPlanLine> plan){
-        for (DownloadPlanLine line : plan){
-			if (time >= line.start && time <= line.end && line.satellite == sat) {
-				return true;
-			}
-		}
-
-		return false;
+    public static Boolean is_sat_occupied(Double time, Satellite sat, ResourceCalendar[] satelliteCalendars){
+		return satelliteCalendars[sat.idx].isBusy(time);
     }
 
 
@@ -112,10 +109,10 @@ public class TimeBasedDownloadPlanner {
         return minimum;
     }
 
-	public static void planDownloads(SolutionPlan plan, String solutionFilename) throws IOException{
+	public static void planDownloads(final SolutionPlan plan, String solutionFilename) throws IOException{
 
 		final PlanningProblem pb = plan.pb;
-		List<CandidateAcquisition> acqPlan = plan.plannedAcquisitions;
+		List<CandidateAcquisition> acqPlan = plan.getPlannedAcquisitions();
 
 		PrintWriter writer = new PrintWriter(new BufferedWriter(new FileWriter(solutionFilename, false)));
 
@@ -123,17 +120,23 @@ public class TimeBasedDownloadPlanner {
 
 		List<DownloadPlanLine> downloadPlan = new ArrayList<DownloadPlanLine>();
         Map<Station, Double> stationCurrentTimes = new HashMap<Station,Double>();
-		List<Acquisition> alreadyDownloaded = new ArrayList<Acquisition>();
+		DownloadBacklog backlog = new DownloadBacklog(plan);
+		ResourceCalendar[] satelliteCalendars = new ResourceCalendar[pb.satellites.size()];
+		for (Satellite sat : pb.satellites)
+			satelliteCalendars[sat.idx] = new ResourceCalendar();
+		ResourceCalendar[] stationCalendars = new ResourceCalendar[pb.stations.size()];
+		for (Station station : pb.stations)
+			stationCalendars[station.idx] = new ResourceCalendar();
 
 		Double min_dl_time = 100000.;
 		for (RecordedAcquisition acq : pb.recordedAcquisitions){
-			Double tt = acq.getVolume()/Params.downlinkRate;
+			Double tt = plan.getVolume(acq)/Params.downlinkRate;
 			if (tt < min_dl_time){
 				min_dl_time = tt;
 			}
 		}
 		for(CandidateAcquisition acq : acqPlan){
-			Double tt = acq.getVolume()/Params.downlinkRate;
+			Double tt = plan.getVolume(acq)/Params.downlinkRate;
 			if (tt < min_dl_time){
 				min_dl_time = tt;
 			}
@@ -156,7 +159,7 @@ public class TimeBasedDownloadPlanner {
 
             Station currentStation = get_min_key(stationCurrentTimes);
 			final Double currentTime = stationCurrentTimes.get(currentStation);
-			List<Satellite> station_visi = get_station_visi(currentTime, currentStation, pb, downloadPlan, min_dl_time);
+			List<Satellite> station_visi = get_station_visi(currentTime, currentStation, pb, satelliteCalendars, min_dl_time);
 
 			Collections.sort(station_visi, new Comparator<Satellite>(){
 				public int compare(Satellite s1,Satellite s2){
@@ -165,61 +168,39 @@ public class TimeBasedDownloadPlanner {
 
 			boolean new_download_done = false;
 			for (Satellite sat : station_visi){
-				// get all recorded acquisitions associated with this satellite
-				List<Acquisition> candidateDownloads = new ArrayList<Acquisition>();
-				
-				// System.out.println("Squalala nous sommes partis");
-				for(RecordedAcquisition dl : pb.recordedAcquisitions){
-					if(dl.satellite == sat){
-						candidateDownloads.add(dl);
-					}
-				}
-				// System.out.println(candidateDownloads.size());
-
-				// get all planned acquisitions associated with this satellite
-				for(CandidateAcquisition a : acqPlan){
-					if(a.selectedAcquisitionWindow.satellite == sat && a.getAcquisitionTime() < currentTime)
-						candidateDownloads.add(a);
-				}
-				// System.out.println(candidateDownloads.size());
-
-				// remove already downloaded acquisition on this satellite
-				for (Acquisition alreadyDownloadedAcquisition : alreadyDownloaded){
-					if (candidateDownloads.contains(alreadyDownloadedAcquisition)) {
-						candidateDownloads.remove(alreadyDownloadedAcquisition);
-					}
-				}
-				// System.out.println(candidateDownloads.size());
-
-				if (candidateDownloads.size() > 0){
-					// sort acquisitions by priority then start time
-					Collections.sort(candidateDownloads,new Comparator<Acquisition>(){
-						public int compare(Acquisition a1, Acquisition a2){
-								return (int) (1e10 * (a1.priority - a2.priority) + (a1.getAcquisitionTime() - a2.getAcquisitionTime()));
-						}});
-				
-					Acquisition downloadAcquisition = candidateDownloads.remove(0);
-					for (DownloadWindow dlw : pb.downloadWindows){
-						if (dlw.start <= currentTime && dlw.end > currentTime && dlw.satellite == downloadAcquisition.getSatellite() && dlw.station == currentStation){
+				// acquisitions of this satellite already realized and not downloaded yet, by priority then acquisition time
+				backlog.release(sat, currentTime);
+				Acquisition downloadAcquisition = backlog.peek(sat);
+
+				if (downloadAcquisition != null){
+					List<DownloadWindow> visibleWindows = new ArrayList<DownloadWindow>();
+					pb.getDownloadWindowIndex().getWindows(currentStation, currentTime, visibleWindows);
+					for (DownloadWindow dlw : visibleWindows){
+						if (dlw.end > currentTime && dlw.satellite == plan.getSatellite(downloadAcquisition)){
 							currentWindow = dlw;
 						}
 					}
 					
-					Double dlDuration = downloadAcquisition.getVolume()/Params.downlinkRate;
+					Double dlDuration = plan.getVolume(downloadAcquisition)/Params.downlinkRate;
 
 
-					if (currentTime+dlDuration <= currentWindow.end){
+					// the station and the satellite must both be free during the whole download
+					if (currentTime+dlDuration <= currentWindow.end
+						&& stationCalendars[currentStation.idx].isFree(currentTime, currentTime+dlDuration)
+						&& satelliteCalendars[sat.idx].isFree(currentTime, currentTime+dlDuration)){
 						new_download_done = true;
 
 						stationCurrentTimes.put(currentStation, currentTime + dlDuration);
 
-						alreadyDownloaded.add(downloadAcquisition);
+						backlog.poll(sat);
 						DownloadPlanLine line = new DownloadPlanLine(sat, 
 																	currentStation, 
 																	currentTime, 
 																	currentTime+dlDuration, 
 																	downloadAcquisition);
 						downloadPlan.add(line);
+						satelliteCalendars[sat.idx].add(currentTime, currentTime+dlDuration);
+						stationCalendars[currentStation.idx].add(currentTime, currentTime+dlDuration);
 
 						if(firstLine){
 							firstLine = false;
@@ -246,11 +227,10 @@ public class TimeBasedDownloadPlanner {
 				if (stationCurrentTimes.get(currentStation) >= currentWindow.end){
 					Double local_Time = end_Time;
 					Boolean jump_done = false;
-					for (DownloadWindow dlw : pb.downloadWindows){
-						if (dlw.start > currentTime && dlw.start < local_Time && dlw.station == currentStation){
-							local_Time = dlw.start;
-							jump_done = true;
-						}
+					DownloadWindow nextWindow = pb.getDownloadWindowIndex().getNextWindow(currentStation, currentTime);
+					if (nextWindow != null && nextWindow.start < local_Time){
+						local_Time = nextWindow.start;
+						jump_done = true;
 					}
 					if (jump_done == true) {
 						stationCurrentTimes.put(currentStation, local_Time);
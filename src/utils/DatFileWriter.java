@@ -0,0 +1,158 @@
+package utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Class used for writing large ASCII data files (such as OPL .dat files) through a buffered file channel.
+ * Integers and doubles are formatted directly into the buffer, without creating any intermediate string.
+ * Doubles are written in fixed-point notation with at most DECIMALS decimals (trailing zeros are removed).
+ * @author cpralet
+ *
+ */
+public class DatFileWriter implements Closeable {
+
+	/** Number of decimals written for doubles */
+	public static final int DECIMALS = 6;
+	/** 10^DECIMALS */
+	private static final long SCALE = 1000000L;
+	/** Absolute values above which doubles are written with Double.toString */
+	private static final double MAX_FIXED_POINT = 1e12;
+	/** Size of the buffer (in bytes) */
+	private static final int BUFFER_SIZE = 1 << 16;
+	/** Maximum number of bytes written for one number */
+	private static final int MAX_NUMBER_LENGTH = 32;
+
+	/** Channel of the file written */
+	private final FileChannel channel;
+	/** Buffer flushed to the channel when almost full */
+	private final ByteBuffer buffer;
+	/** Digits of the number being written, in reverse order */
+	private final byte[] digits;
+
+	/**
+	 * Open a file for writing (the file is truncated if it exists)
+	 * @param filename
+	 * @throws IOException
+	 */
+	public DatFileWriter(String filename) throws IOException{
+		channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		digits = new byte[MAX_NUMBER_LENGTH];
+	}
+
+	/**
+	 * Write an ASCII character
+	 * @param c
+	 * @return this writer
+	 * @throws IOException
+	 */
+	public DatFileWriter write(char c) throws IOException{
+		if(!buffer.hasRemaining())
+			flush();
+		buffer.put((byte) c);
+		return this;
+	}
+
+	/**
+	 * Write an ASCII string
+	 * @param s
+	 * @return this writer
+	 * @throws IOException
+	 */
+	public DatFileWriter write(String s) throws IOException{
+		for(int i=0;i<s.length();i++)
+			write(s.charAt(i));
+		return this;
+	}
+
+	/**
+	 * Write an integer in decimal notation
+	 * @param value
+	 * @return this writer
+	 * @throws IOException
+	 */
+	public DatFileWriter write(long value) throws IOException{
+		if(value == Long.MIN_VALUE)
+			return write(Long.toString(value));
+		if(buffer.remaining() < MAX_NUMBER_LENGTH)
+			flush();
+		if(value < 0){
+			buffer.put((byte) '-');
+			value = -value;
+		}
+		putDigits(value, 1);
+		return this;
+	}
+
+	/**
+	 * Write a double in fixed-point notation, rounded to DECIMALS decimals
+	 * @param value
+	 * @return this writer
+	 * @throws IOException
+	 */
+	public DatFileWriter write(double value) throws IOException{
+		if(Double.isNaN(value) || Double.isInfinite(value) || Math.abs(value) >= MAX_FIXED_POINT)
+			return write(Double.toString(value));
+		if(buffer.remaining() < MAX_NUMBER_LENGTH)
+			flush();
+		long scaled = Math.round(Math.abs(value) * SCALE);
+		if(value < 0 && scaled != 0)
+			buffer.put((byte) '-');
+		putDigits(scaled / SCALE, 1);
+		long fraction = scaled % SCALE;
+		if(fraction != 0){
+			int nDecimals = DECIMALS;
+			while(fraction % 10 == 0){
+				fraction /= 10;
+				nDecimals--;
+			}
+			buffer.put((byte) '.');
+			putDigits(fraction, nDecimals);
+		}
+		return this;
+	}
+
+	/**
+	 * Put the decimal digits of a nonnegative number in the buffer
+	 * @param value
+	 * @param minDigits minimum number of digits written (leading zeros are added if needed)
+	 */
+	private void putDigits(long value, int minDigits){
+		int n = 0;
+		do {
+			digits[n++] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while(value != 0);
+		while(n < minDigits)
+			digits[n++] = '0';
+		while(n > 0)
+			buffer.put(digits[--n]);
+	}
+
+	/**
+	 * Write the content of the buffer to the channel
+	 * @throws IOException
+	 */
+	public void flush() throws IOException{
+		buffer.flip();
+		while(buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	@Override
+	public void close() throws IOException{
+		try {
+			flush();
+		}
+		finally {
+			channel.close();
+		}
+	}
+
+}
@@ -0,0 +1,218 @@
+package utils;
+
+import java.util.Arrays;
+
+/**
+ * Class used for computing maximum flows in a directed graph with integer capacities (Dinic's algorithm).
+ * The graph is stored in primitive arrays (each edge being stored together with its reverse edge), and the flow is
+ * kept between calls: capacities can be increased (see setCapacity) and maxFlow called again, which augments the
+ * current flow. This makes it possible to compute lexicographic maximum flows, by opening the capacities of the
+ * different classes of sources one after the other.
+ * @author cpralet
+ *
+ */
+public class MaxFlow {
+
+	/** Value used for infinite capacities */
+	public static final long INFINITY = Long.MAX_VALUE / 4;
+
+	/** Number of nodes */
+	private int nNodes;
+	/** First edge leaving each node (-1 if none) */
+	private int[] firstEdges;
+	/** Next edge leaving the same node as each edge (-1 if none) */
+	private int[] nextEdges;
+	/** Target node of each edge (edge e^1 being the reverse edge of edge e) */
+	private int[] targets;
+	/** Residual capacity of each edge */
+	private long[] residuals;
+	/** Number of edges (including reverse edges) */
+	private int nEdges;
+	/** Distance of each node from the source in the residual graph (-1 if unreachable) */
+	private int[] levels;
+	/** Next edge to explore from each node during the search of blocking flows */
+	private int[] currentEdges;
+
+	/**
+	 * Create a graph without edges
+	 * @param nNodes number of nodes (numbered from 0 to nNodes-1)
+	 */
+	public MaxFlow(int nNodes){
+		this.nNodes = nNodes;
+		firstEdges = new int[Math.max(nNodes, 16)];
+		Arrays.fill(firstEdges, -1);
+		nextEdges = new int[32];
+		targets = new int[32];
+		residuals = new long[32];
+		nEdges = 0;
+	}
+
+	/**
+	 * Add a node to the graph
+	 * @return the number of the node added
+	 */
+	public int addNode(){
+		if(nNodes == firstEdges.length){
+			firstEdges = Arrays.copyOf(firstEdges, 2 * nNodes);
+			Arrays.fill(firstEdges, nNodes, firstEdges.length, -1);
+		}
+		return nNodes++;
+	}
+
+	/**
+	 * @return the number of nodes
+	 */
+	public int getNumberOfNodes(){
+		return nNodes;
+	}
+
+	/**
+	 * @return the number of edges (reverse edges excluded)
+	 */
+	public int getNumberOfEdges(){
+		return nEdges / 2;
+	}
+
+	/**
+	 * Add an edge to the graph
+	 * @param from
+	 * @param to
+	 * @param capacity
+	 * @return the number of the edge
+	 */
+	public int addEdge(int from, int to, long capacity){
+		if(nEdges + 2 > targets.length){
+			int capacityEdges = 2 * targets.length;
+			nextEdges = Arrays.copyOf(nextEdges, capacityEdges);
+			targets = Arrays.copyOf(targets, capacityEdges);
+			residuals = Arrays.copyOf(residuals, capacityEdges);
+		}
+		int e = nEdges;
+		targets[e] = to;
+		residuals[e] = capacity;
+		nextEdges[e] = firstEdges[from];
+		firstEdges[from] = e;
+		targets[e+1] = from;
+		residuals[e+1] = 0;
+		nextEdges[e+1] = firstEdges[to];
+		firstEdges[to] = e+1;
+		nEdges += 2;
+		return e;
+	}
+
+	/**
+	 * @param e
+	 * @return the flow on an edge
+	 */
+	public long getFlow(int e){
+		return residuals[e^1];
+	}
+
+	/**
+	 * @param e
+	 * @return the capacity of an edge
+	 */
+	public long getCapacity(int e){
+		return residuals[e] + residuals[e^1];
+	}
+
+	/**
+	 * Change the capacity of an edge
+	 * @param e
+	 * @param capacity new capacity (greater than or equal to the current flow on the edge)
+	 */
+	public void setCapacity(int e, long capacity){
+		long flow = residuals[e^1];
+		if(capacity < flow)
+			throw new IllegalArgumentException("Capacity " + capacity + " smaller than the flow " + flow);
+		residuals[e] = capacity - flow;
+	}
+
+	/**
+	 * Augment the current flow until it becomes maximum
+	 * @param source
+	 * @param sink
+	 * @return the value of the flow added
+	 */
+	public long maxFlow(int source, int sink){
+		levels = new int[nNodes];
+		currentEdges = new int[nNodes];
+		int[] path = new int[nNodes];
+		long total = 0;
+		while(computeLevels(source, sink)){
+			System.arraycopy(firstEdges, 0, currentEdges, 0, nNodes);
+			long flow;
+			while((flow = augment(source, sink, path)) > 0)
+				total += flow;
+		}
+		return total;
+	}
+
+	/**
+	 * Breadth-first search from the source in the residual graph
+	 * @param source
+	 * @param sink
+	 * @return true if the sink is reachable
+	 */
+	private boolean computeLevels(int source, int sink){
+		Arrays.fill(levels, -1);
+		int[] queue = new int[nNodes];
+		int head = 0;
+		int tail = 0;
+		levels[source] = 0;
+		queue[tail++] = source;
+		while(head < tail){
+			int u = queue[head++];
+			for(int e=firstEdges[u];e>=0;e=nextEdges[e]){
+				int v = targets[e];
+				if(residuals[e] > 0 && levels[v] < 0){
+					levels[v] = levels[u] + 1;
+					queue[tail++] = v;
+				}
+			}
+		}
+		return levels[sink] >= 0;
+	}
+
+	/**
+	 * Search (without recursion) of an augmenting path in the level graph, and augmentation of the flow along it
+	 * @param source
+	 * @param sink
+	 * @param path buffer used for storing the edges of the path
+	 * @return the flow added (0 if the sink is not reachable anymore)
+	 */
+	private long augment(int source, int sink, int[] path){
+		int depth = 0;
+		int u = source;
+		while(true){
+			if(u == sink){
+				long flow = INFINITY;
+				for(int i=0;i<depth;i++)
+					flow = Math.min(flow, residuals[path[i]]);
+				for(int i=0;i<depth;i++){
+					residuals[path[i]] -= flow;
+					residuals[path[i]^1] += flow;
+				}
+				return flow;
+			}
+			int e = currentEdges[u];
+			while(e >= 0 && (residuals[e] <= 0 || levels[targets[e]] != levels[u] + 1))
+				e = nextEdges[e];
+			currentEdges[u] = e;
+			if(e >= 0){
+				path[depth++] = e;
+				u = targets[e];
+			}
+			else {
+				// dead end: remove the node from the level graph and backtrack
+				levels[u] = -1;
+				if(depth == 0)
+					return 0;
+				depth--;
+				u = targets[path[depth]^1];
+				currentEdges[u] = nextEdges[currentEdges[u]];
+			}
+		}
+	}
+
+}
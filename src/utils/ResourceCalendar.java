@@ -0,0 +1,126 @@
+package utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Class used for representing the calendar of a resource which can be used by at most one activity at a time
+ * (a satellite or a station for downloads, a satellite for acquisitions...). The calendar stores non-overlapping
+ * busy intervals [start,end] ordered by start time in a TreeMap, so that occupancy queries and insertions take
+ * O(log n) for n intervals. Two intervals overlap when they share more than one point: an activity may start at the
+ * exact time another one ends.
+ * @author cpralet
+ *
+ */
+public class ResourceCalendar {
+
+	/** End of each busy interval, by start of the interval */
+	private final TreeMap<Double,Double> intervals;
+
+	/**
+	 * Create an empty calendar
+	 */
+	public ResourceCalendar(){
+		intervals = new TreeMap<Double,Double>();
+	}
+
+	/**
+	 * @return the number of busy intervals
+	 */
+	public int size(){
+		return intervals.size();
+	}
+
+	/**
+	 * Remove all busy intervals
+	 */
+	public void clear(){
+		intervals.clear();
+	}
+
+	/**
+	 * @param t
+	 * @return true if a busy interval contains a given time (bounds included)
+	 */
+	public boolean isBusy(double t){
+		Map.Entry<Double,Double> entry = intervals.floorEntry(t);
+		return entry != null && entry.getValue() >= t;
+	}
+
+	/**
+	 * @param start
+	 * @param end
+	 * @return true if no busy interval overlaps [start,end]
+	 */
+	public boolean isFree(double start, double end){
+		// as intervals do not overlap, the last interval starting before end is also the one ending last
+		Map.Entry<Double,Double> entry = intervals.lowerEntry(end);
+		return entry == null || entry.getValue() <= start;
+	}
+
+	/**
+	 * Add a busy interval
+	 * @param start
+	 * @param end
+	 * @throws IllegalArgumentException if the interval overlaps a busy interval of the calendar
+	 */
+	public void add(double start, double end){
+		if(end < start)
+			throw new IllegalArgumentException("Invalid interval: [" + start + "," + end + "]");
+		if(!isFree(start, end) || intervals.containsKey(start))
+			throw new IllegalArgumentException("Interval [" + start + "," + end + "] overlaps a busy interval");
+		intervals.put(start, end);
+	}
+
+	/**
+	 * Remove a busy interval
+	 * @param start start of the interval
+	 * @return true if an interval starting at the given time has been removed
+	 */
+	public boolean remove(double start){
+		return intervals.remove(start) != null;
+	}
+
+	/**
+	 * @param t
+	 * @param duration
+	 * @return the earliest start time greater than or equal to t of an interval of a given duration which does not
+	 * overlap any busy interval
+	 */
+	public double getEarliestStart(double t, double duration){
+		double start = t;
+		Map.Entry<Double,Double> entry = intervals.lowerEntry(start + duration);
+		while(entry != null && entry.getValue() > start){
+			start = entry.getValue();
+			entry = intervals.lowerEntry(start + duration);
+		}
+		return start;
+	}
+
+	/**
+	 * @param t
+	 * @return the start of the first busy interval starting strictly after a given time (Double.POSITIVE_INFINITY if there is none)
+	 */
+	public double getNextBusyStart(double t){
+		Double start = intervals.higherKey(t);
+		return start == null ? Double.POSITIVE_INFINITY : start;
+	}
+
+	/**
+	 * @return a new list containing the busy intervals ({start,end}), by increasing start time
+	 */
+	public List<double[]> getIntervals(){
+		List<double[]> list = new ArrayList<double[]>(intervals.size());
+		for(Map.Entry<Double,Double> entry : intervals.entrySet())
+			list.add(new double[]{entry.getKey(), entry.getValue()});
+		return list;
+	}
+
+	@Override
+	public String toString(){
+		return "ResourceCalendar" + intervals;
+	}
+
+}
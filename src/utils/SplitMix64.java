@@ -0,0 +1,97 @@
+package utils;
+
+/**
+ * Class used for generating pseudo-random numbers with the SplitMix64 generator.
+ * Independent streams are obtained by splitting a master seed with a stream index, so that parallel computations
+ * can give each unit of work (e.g. each simulated scenario) its own stream, whatever the thread executing it.
+ * The generator is not thread-safe: each thread must use its own streams.
+ * @author cpralet
+ *
+ */
+public class SplitMix64 {
+
+	/** Increment of the state at each draw (odd constant derived from the golden ratio) */
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+	/** 2^-53, for converting 53 random bits into a double in [0,1) */
+	private static final double DOUBLE_UNIT = 1.0 / (1L << 53);
+
+	/** Current state of the generator */
+	private long state;
+	/** Second normal deviate generated by the last call to nextGaussian (if hasSpareGaussian) */
+	private double spareGaussian;
+	private boolean hasSpareGaussian;
+
+	/**
+	 * Create a generator
+	 * @param seed
+	 */
+	public SplitMix64(long seed){
+		this.state = seed;
+	}
+
+	/**
+	 * @param seed master seed
+	 * @param stream index of the stream
+	 * @return a generator for one stream of a master seed
+	 */
+	public static SplitMix64 split(long seed, long stream){
+		return new SplitMix64(mix(seed + (stream + 1) * GOLDEN_GAMMA));
+	}
+
+	/**
+	 * Reset the generator to one stream of a master seed (same sequence as split(seed, stream), without allocation)
+	 * @param seed master seed
+	 * @param stream index of the stream
+	 */
+	public void reset(long seed, long stream){
+		state = mix(seed + (stream + 1) * GOLDEN_GAMMA);
+		hasSpareGaussian = false;
+	}
+
+	/**
+	 * Finalization function of SplitMix64 (variant 13 of Stafford's mixers)
+	 * @param z
+	 * @return the mixed value
+	 */
+	private static long mix(long z){
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * @return a uniformly distributed long
+	 */
+	public long nextLong(){
+		state += GOLDEN_GAMMA;
+		return mix(state);
+	}
+
+	/**
+	 * @return a uniformly distributed double in [0,1)
+	 */
+	public double nextDouble(){
+		return (nextLong() >>> 11) * DOUBLE_UNIT;
+	}
+
+	/**
+	 * @return a normally distributed double (mean 0, standard deviation 1), drawn by the polar method
+	 */
+	public double nextGaussian(){
+		if(hasSpareGaussian){
+			hasSpareGaussian = false;
+			return spareGaussian;
+		}
+		double u, v, s;
+		do {
+			u = 2 * nextDouble() - 1;
+			v = 2 * nextDouble() - 1;
+			s = u * u + v * v;
+		} while(s >= 1 || s == 0);
+		double factor = Math.sqrt(-2 * Math.log(s) / s);
+		spareGaussian = v * factor;
+		hasSpareGaussian = true;
+		return u * factor;
+	}
+
+}